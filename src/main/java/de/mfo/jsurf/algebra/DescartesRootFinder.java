@@ -134,7 +134,7 @@ public class DescartesRootFinder implements RealRootFinder
                 int v = descartesRuleOfSignReverseShift1( pi.a );
                 if( v == 1 )
                 {
-                    double tmp_root = adjustIntervalAndBisect( p, pi.l, pi.u, tlb, tub ) * bound2;
+                    double tmp_root = adjustIntervalAndBisect( p, pi.l, pi.u, tlb, tub, EPSILON ) * bound2;
                     if( !java.lang.Double.isNaN( tmp_root ) )
                         results[ results_length++ ] = tmp_root;
                 }
@@ -203,6 +203,18 @@ public class DescartesRootFinder implements RealRootFinder
      * @return
      */
     public double findFirstRootIn( UnivariatePolynomial p, double lowerBound, double upperBound )
+    {
+        return findFirstRootIn( p, lowerBound, upperBound, 0.0 );
+    }
+
+    /**
+     * Same as {@link #findFirstRootIn(UnivariatePolynomial, double, double)}, but the root is only refined
+     * until it is accurate to {@code tolerance}, e.g. a fraction of the footprint of a pixel. The tolerance
+     * is never finer than {@link #EPSILON} relative to the next power of two of the bounds, which is used
+     * by default.
+     * @param tolerance absolute tolerance of the root
+     */
+    public double findFirstRootIn( UnivariatePolynomial p, double lowerBound, double upperBound, double tolerance )
     {
         if( makeSquarefree )
         {
@@ -213,11 +225,11 @@ public class DescartesRootFinder implements RealRootFinder
                 p = p.div( gcd );
         }
 
-        double root = -findPosRootIn( p.stretch( -1.0 ), -upperBound, -lowerBound, WhichRoot.LARGEST );
-        return java.lang.Double.isNaN( root ) ? findPosRootIn( p, lowerBound, upperBound, WhichRoot.SMALLEST ) : root;
+        double root = -findPosRootIn( p.stretch( -1.0 ), -upperBound, -lowerBound, WhichRoot.LARGEST, tolerance );
+        return java.lang.Double.isNaN( root ) ? findPosRootIn( p, lowerBound, upperBound, WhichRoot.SMALLEST, tolerance ) : root;
     }
 
-    double findPosRootIn( UnivariatePolynomial p, double lowerBound, double upperBound, WhichRoot w )
+    double findPosRootIn( UnivariatePolynomial p, double lowerBound, double upperBound, WhichRoot w, double tolerance )
     {
         if( upperBound <= 0.0 || p.degree() == 0 )
             return java.lang.Double.NaN;
@@ -227,6 +239,7 @@ public class DescartesRootFinder implements RealRootFinder
         double bound2 = nextPowerOfTwo( upperBound );
         double tlb = lowerBound / bound2;
         double tub = upperBound / bound2;
+        double epsilon = Math.max( EPSILON, tolerance / bound2 );
 
         // move all roots in (0,bound2) into (0,1)
         p = p.stretch( bound2 );
@@ -272,7 +285,7 @@ public class DescartesRootFinder implements RealRootFinder
             int v = descartesRuleOfSignReverseShift1( pi.a );
             if( v == 1 )
             {
-                double tmp_root = adjustIntervalAndBisect( p, pi.l, pi.u, tlb, tub ) * bound2;
+                double tmp_root = adjustIntervalAndBisect( p, pi.l, pi.u, tlb, tub, epsilon ) * bound2;
                 if( !java.lang.Double.isNaN( tmp_root ) )
                 {
                     if( w == WhichRoot.LARGEST && !java.lang.Double.isNaN( tmp_result ) && tmp_result > tmp_root )
@@ -285,7 +298,7 @@ public class DescartesRootFinder implements RealRootFinder
             {
                 // evtl. mehr als eine NST in (0,1) -> teile Interval (0,1) in zwei teile
                 double c = 0.5 * ( pi.l + pi.u );
-                if( Math.abs( pi.u - pi.l ) < 0.5 * EPSILON ) // we have reached maximum precision
+                if( Math.abs( pi.u - pi.l ) < 0.5 * epsilon ) // we have reached maximum precision
                 {
                     if( pi.l <= tlb )
                         return lowerBound;
@@ -321,7 +334,7 @@ public class DescartesRootFinder implements RealRootFinder
         return tmp_result;
     }
 
-    private static double adjustIntervalAndBisect( UnivariatePolynomial p, double lowerBound, double upperBound, double strictLowerBound, double strictUpperBound )
+    private static double adjustIntervalAndBisect( UnivariatePolynomial p, double lowerBound, double upperBound, double strictLowerBound, double strictUpperBound, double epsilon )
     {
         double fl = p.evaluateAt( lowerBound );
         if( lowerBound < strictLowerBound )
@@ -362,24 +375,24 @@ public class DescartesRootFinder implements RealRootFinder
         }
 
         if( fl * fu <= 0.0 )
-            return bisect( p, lowerBound, upperBound, fl, fu );
+            return bisect( p, lowerBound, upperBound, fl, fu, epsilon );
         else
             return java.lang.Double.NaN;
     }
 
     private static double bisect( UnivariatePolynomial p, double lowerBound, double upperBound )
     {
-        return bisect( p, lowerBound, upperBound, p.evaluateAt( lowerBound ), p.evaluateAt( upperBound ) );
+        return bisect( p, lowerBound, upperBound, p.evaluateAt( lowerBound ), p.evaluateAt( upperBound ), EPSILON );
     }
 
 
-    private static double bisect( UnivariatePolynomial p, double lowerBound, double upperBound, double fl, double fu )
+    private static double bisect( UnivariatePolynomial p, double lowerBound, double upperBound, double fl, double fu, double epsilon )
     {
         double[] a = p.getCoeffs();
 
         assert fl * fu < 0.0 : "tried bisection on interval without sign change";
 
-        while( Math.abs( upperBound - lowerBound ) > EPSILON )
+        while( Math.abs( upperBound - lowerBound ) > epsilon )
         {
             double center = 0.5 * ( lowerBound + upperBound );
             double fc = a[ a.length - 1 ];
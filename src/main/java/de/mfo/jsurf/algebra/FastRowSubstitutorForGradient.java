@@ -73,12 +73,20 @@ public class FastRowSubstitutorForGradient implements RowSubstitutorForGradient
         @Override
         public Vector3d setT( double t )
         {
-            Point3d p = r.at( t );
             Vector3d result = new Vector3d();
-            result.x = gradientXPoly.evaluateXYZ( p.x, p.y, p.z );
-            result.y = gradientYPoly.evaluateXYZ( p.x, p.y, p.z );
-            result.z = gradientZPoly.evaluateXYZ( p.x, p.y, p.z );
+            setT( t, result );
             return result;
         }
+
+        @Override
+        public void setT( double t, Vector3d result )
+        {
+            double x = r.o.x + r.d.x * t;
+            double y = r.o.y + r.d.y * t;
+            double z = r.o.z + r.d.z * t;
+            result.x = gradientXPoly.evaluateXYZ( x, y, z );
+            result.y = gradientYPoly.evaluateXYZ( x, y, z );
+            result.z = gradientZPoly.evaluateXYZ( x, y, z );
+        }
     }
 }
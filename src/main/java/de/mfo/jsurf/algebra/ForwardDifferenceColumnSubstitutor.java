@@ -0,0 +1,116 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.algebra;
+
+/**
+ * Evaluates a column substitutor at the equidistant positions {@code u = uStart + column * uIncr}
+ * of a scanline by forward differencing. The coefficients of the univariate polynomial are
+ * polynomials in {@code u} of degree at most {@code uDegree}, so each coefficient advances to
+ * the next column with {@code uDegree} additions. To bound the accumulated rounding error, the
+ * difference tables are seeded from exact evaluations at each column that is a multiple of
+ * {@code reseedInterval}. Thus the result only depends on the column and not on the order in
+ * which the columns are visited. Positions that are not on the grid are passed to the
+ * underlying column substitutor.
+ * Instances are not thread-safe.
+ */
+public class ForwardDifferenceColumnSubstitutor implements ColumnSubstitutor
+{
+    private final ColumnSubstitutor cs;
+    private final int uDegree;
+    private final double uStart;
+    private final double uIncr;
+    private final int reseedInterval;
+
+    private double[][] differences; // differences[ i ][ k ] is the k-th forward difference of the coefficient of t^i
+    private int column; // column the tables belong to, -1 if not seeded yet
+
+    public ForwardDifferenceColumnSubstitutor( ColumnSubstitutor cs, int uDegree, double uStart, double uIncr, int reseedInterval )
+    {
+        if( uDegree < 0 )
+            throw new IllegalArgumentException( "degree must not be negative" );
+        if( reseedInterval < 1 )
+            throw new IllegalArgumentException( "reseed interval must be positive" );
+        this.cs = cs;
+        this.uDegree = uDegree;
+        this.uStart = uStart;
+        this.uIncr = uIncr;
+        this.reseedInterval = reseedInterval;
+        this.column = -1;
+    }
+
+    public UnivariatePolynomial setU( double u )
+    {
+        double c = ( u - uStart ) / uIncr;
+        if( c >= 0.0 && c < Integer.MAX_VALUE )
+        {
+            int column = ( int ) Math.round( c );
+            if( uStart + column * uIncr == u )
+                return setColumn( column );
+        }
+        return cs.setU( u );
+    }
+
+    /**
+     * Returns the same polynomial as {@code setU( uStart + column * uIncr )} up to rounding errors.
+     */
+    public UnivariatePolynomial setColumn( int column )
+    {
+        int seedColumn = column - column % reseedInterval;
+        if( this.column < seedColumn || this.column > column )
+            seed( seedColumn );
+        while( this.column < column )
+            step();
+
+        double[] a = new double[ differences.length ];
+        for( int i = 0; i < a.length; ++i )
+            a[ i ] = differences[ i ][ 0 ];
+        return new UnivariatePolynomial( a, false );
+    }
+
+    private void seed( int column )
+    {
+        UnivariatePolynomial[] samples = new UnivariatePolynomial[ uDegree + 1 ];
+        int length = 0;
+        for( int k = 0; k <= uDegree; ++k )
+        {
+            samples[ k ] = cs.setU( uStart + ( column + k ) * uIncr );
+            length = Math.max( length, samples[ k ].degree() + 1 );
+        }
+
+        if( differences == null || differences.length != length )
+            differences = new double[ length ][ uDegree + 1 ];
+        for( int i = 0; i < length; ++i )
+        {
+            double[] d = differences[ i ];
+            for( int k = 0; k <= uDegree; ++k )
+                d[ k ] = i <= samples[ k ].degree() ? samples[ k ].getCoeff( i ) : 0.0;
+            // replace the samples by their forward differences
+            for( int k = 1; k <= uDegree; ++k )
+                for( int j = uDegree; j >= k; --j )
+                    d[ j ] -= d[ j - 1 ];
+        }
+        this.column = column;
+    }
+
+    private void step()
+    {
+        for( double[] d : differences )
+            for( int k = 0; k < uDegree; ++k )
+                d[ k ] += d[ k + 1 ];
+        ++column;
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.mfo.jsurf.algebra;
+
+/**
+ * Finds the first root of a polynomial within an interval using a guess of its location, e.g. the
+ * intersection of a neighbouring ray with the surface. The guess is confirmed as follows:
+ * <ol>
+ * <li>The polynomial must change its sign on a bracket of {@link #BRACKET_WIDTH} times the length
+ * of the interval around the guess.</li>
+ * <li>The Bernstein coefficients must have no sign variation on the prefix of the interval up to the
+ * bracket, which is split into up to 2^{@link #SUBDIVISIONS} pieces, and exactly one sign variation
+ * on the bracket, i.e. the root in the bracket is the first root of the interval.</li>
+ * </ol>
+ * The confirmed bracket is refined by bisection. If the guess cannot be confirmed, the root is searched
+ * by a {@link RealRootFinder}. The roots may differ from the fallback root finder within its tolerance.
+ * Instances are not thread-safe.
+ */
+public class HintedRootFinder
+{
+    // width of the bracket around the guess relative to the length of the interval
+    public static final double BRACKET_WIDTH = 1.0 / 32.0;
+
+    // maximum number of bisections of the prefix for counting sign variations
+    public static final int SUBDIVISIONS = 2;
+
+    private double[] c = new double[ 0 ]; // c[ k ] is the coefficient of x^k
+    private double[] q = new double[ 0 ]; // transformed coefficients for the Bernstein test
+    private double[][] bernsteinFactors = new double[ 0 ][]; // C(j,k)/C(degree,k) for the current degree
+
+    private long searches;
+    private long hits;
+
+    /**
+     * Finds the smallest root of {@code p} within {@code lowerBound} and {@code upperBound}.
+     * If no real root exists in this interval, {@code Double.NaN} is returned.
+     * @param hint guess of the root or {@code Double.NaN}, if there is none
+     * @param fallback root finder, if the guess cannot be confirmed
+     */
+    public double findFirstRootIn( UnivariatePolynomial p, double lowerBound, double upperBound, double hint, RealRootFinder fallback )
+    {
+        return findFirstRootIn( p, lowerBound, upperBound, hint, 0.0, fallback );
+    }
+
+    /**
+     * Same as {@link #findFirstRootIn(UnivariatePolynomial, double, double, double, RealRootFinder)}, but the
+     * root is only refined until it is accurate to {@code tolerance}, see
+     * {@link DescartesRootFinder#findFirstRootIn(UnivariatePolynomial, double, double, double)}.
+     * @param tolerance absolute tolerance of the root
+     */
+    public double findFirstRootIn( UnivariatePolynomial p, double lowerBound, double upperBound, double hint, double tolerance, RealRootFinder fallback )
+    {
+        int degree = p.degree();
+        if( degree > 0 && lowerBound < hint && hint < upperBound )
+        {
+            ++searches;
+            ensureCapacity( degree );
+            for( int k = 0; k <= degree; ++k )
+                c[ k ] = p.getCoeff( k );
+
+            double delta = 0.5 * BRACKET_WIDTH * ( upperBound - lowerBound );
+            double lo = Math.max( lowerBound, hint - delta );
+            double hi = Math.min( upperBound, hint + delta );
+            double flo = evaluate( degree, lo );
+            double fhi = evaluate( degree, hi );
+            if( flo * fhi < 0.0 && isFirstBracket( degree, lowerBound, lo, hi ) )
+            {
+                ++hits;
+                double epsilon = Math.max( tolerance, DescartesRootFinder.EPSILON * Math.max( upperBound - lowerBound, java.lang.Double.MIN_NORMAL ) );
+                while( hi - lo > epsilon )
+                {
+                    double center = 0.5 * ( lo + hi );
+                    double fc = evaluate( degree, center );
+                    if( fc * flo < 0.0 )
+                    {
+                        hi = center;
+                    }
+                    else if( fc == 0.0 )
+                    {
+                        return center;
+                    }
+                    else
+                    {
+                        lo = center;
+                        flo = fc;
+                    }
+                }
+                return lo;
+            }
+        }
+        if( tolerance > 0.0 && fallback instanceof DescartesRootFinder )
+            return ( ( DescartesRootFinder ) fallback ).findFirstRootIn( p, lowerBound, upperBound, tolerance );
+        return fallback.findFirstRootIn( p, lowerBound, upperBound );
+    }
+
+    /**
+     * @return number of searches so far with a guess within the interval
+     */
+    public long getSearches() { return searches; }
+
+    /**
+     * @return number of searches so far, in which the guess has been confirmed
+     */
+    public long getHits() { return hits; }
+
+    // checks, that there is no root before lo and exactly one root in [lo,hi]
+    private boolean isFirstBracket( int degree, double lowerBound, double lo, double hi )
+    {
+        if( countSignVariations( degree, lo, hi ) != 1 )
+            return false;
+        if( lo == lowerBound )
+            return true;
+        for( int level = 0; level <= SUBDIVISIONS; ++level )
+        {
+            int pieces = 1 << level;
+            int variations = 0;
+            for( int piece = 0; piece < pieces; ++piece )
+            {
+                double pieceStart = lowerBound + ( lo - lowerBound ) * piece / pieces;
+                double pieceEnd = piece + 1 == pieces ? lo : lowerBound + ( lo - lowerBound ) * ( piece + 1 ) / pieces;
+                variations += countSignVariations( degree, pieceStart, pieceEnd );
+            }
+            if( variations == 0 )
+                return true;
+        }
+        return false;
+    }
+
+    private void ensureCapacity( int degree )
+    {
+        if( c.length < degree + 1 )
+        {
+            c = new double[ degree + 1 ];
+            q = new double[ degree + 1 ];
+        }
+        if( bernsteinFactors.length != degree + 1 )
+        {
+            // factors C(j,k)/C(degree,k) for the conversion from the power basis into the Bernstein basis
+            bernsteinFactors = new double[ degree + 1 ][ degree + 1 ];
+            for( int j = 0; j <= degree; ++j )
+                for( int k = 0; k <= j; ++k )
+                    bernsteinFactors[ j ][ k ] = binomial( j, k ) / binomial( degree, k );
+        }
+    }
+
+    private static double binomial( int n, int k )
+    {
+        double result = 1.0;
+        for( int i = 1; i <= k; ++i )
+            result = result * ( n - k + i ) / i;
+        return result;
+    }
+
+    // p( x ) by Horner's scheme
+    private double evaluate( int degree, double x )
+    {
+        double f = c[ degree ];
+        for( int k = degree - 1; k >= 0; --k )
+            f = f * x + c[ k ];
+        return f;
+    }
+
+    /**
+     * Counts the sign variations of the Bernstein coefficients on the interval from {@code a} to {@code b},
+     * which bounds the number of roots in the open interval. If the polynomial vanishes at an end of
+     * the interval, two variations are added, because such a root would not be counted otherwise.
+     */
+    private int countSignVariations( int degree, double a, double b )
+    {
+        System.arraycopy( c, 0, q, 0, degree + 1 );
+
+        // shift: p( x + a )
+        for( int j = 0; j < degree; ++j )
+            for( int k = degree - 1; k >= j; --k )
+                q[ k ] += a * q[ k + 1 ];
+
+        // scale: p( a + ( b - a ) * s ) for s in [0,1]
+        double h = b - a;
+        double x = 1.0;
+        for( int k = 1; k <= degree; ++k )
+        {
+            x *= h;
+            q[ k ] *= x;
+        }
+
+        // Bernstein coefficients and their sign variations
+        int variations = 0;
+        int lastSign = 0;
+        for( int j = 0; j <= degree; ++j )
+        {
+            double[] factors = bernsteinFactors[ j ];
+            double coeff = 0.0;
+            for( int k = 0; k <= j; ++k )
+                coeff += factors[ k ] * q[ k ];
+            int sign = coeff > 0.0 ? 1 : ( coeff < 0.0 ? -1 : 0 );
+            if( sign == 0 && ( j == 0 || j == degree ) )
+            {
+                variations += 2;
+            }
+            else if( sign != 0 )
+            {
+                if( sign == -lastSign )
+                    ++variations;
+                lastSign = sign;
+            }
+        }
+        return variations;
+    }
+}
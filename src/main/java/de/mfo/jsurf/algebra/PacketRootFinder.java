@@ -0,0 +1,377 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.algebra;
+
+/**
+ * Finds the first roots of a packet of up to {@link #MAX_PACKET_SIZE} polynomials, e.g. of
+ * neighbouring rays, at once. The coefficients are stored as structure of arrays, i.e. one
+ * array per power of the variable, and all polynomials go through the same steps in lockstep,
+ * so that the inner loops run over contiguous arrays without data dependent branches:
+ * <ol>
+ * <li>Each polynomial is sampled at {@link #SAMPLES} equidistant points of its interval to find
+ * the first sign change.</li>
+ * <li>The number of sign variations of the Bernstein coefficients on the interval up to the sign change,
+ * which is split into up to 2^{@link #SUBDIVISIONS} pieces, must be one, i.e. there is exactly one root
+ * before the end of the bracket. If there is no sign change, there must be no variation, i.e. there is
+ * no root at all.</li>
+ * <li>The brackets are refined by bisection.</li>
+ * </ol>
+ * Polynomials that fail the test in the second step, e.g. because of roots of even multiplicity
+ * or several roots between two samples, are passed to a scalar {@link RealRootFinder}.
+ * Instances are not thread-safe.
+ */
+public class PacketRootFinder
+{
+    public static final int MAX_PACKET_SIZE = 16;
+
+    // number of equidistant samples per interval for the search of the first sign change
+    public static final int SAMPLES = 8;
+
+    // maximum number of bisections of the intervals for counting sign variations
+    public static final int SUBDIVISIONS = 3;
+
+    private static final int SEARCHING = 0;
+    private static final int BRACKETED = 1;
+    private static final int NO_SIGN_CHANGE = 2;
+    private static final int BISECTING = 3;
+    private static final int DONE = 4;
+    private static final int FALLBACK = 5;
+
+    private double[][] c = new double[ 0 ][]; // c[ k ][ i ] is the coefficient of x^k of polynomial i
+    private double[][] q = new double[ 0 ][]; // transformed coefficients for the Bernstein test
+    private double[][] bernsteinFactors = new double[ 0 ][]; // C(j,k)/C(degree,k) for the current degree
+
+    private final double[] x = new double[ MAX_PACKET_SIZE ];
+    private final double[] f = new double[ MAX_PACKET_SIZE ];
+    private final double[] lo = new double[ MAX_PACKET_SIZE ];
+    private final double[] hi = new double[ MAX_PACKET_SIZE ];
+    private final double[] flo = new double[ MAX_PACKET_SIZE ];
+    private final double[] fhi = new double[ MAX_PACKET_SIZE ];
+    private final double[] h = new double[ MAX_PACKET_SIZE ];
+    private final double[] b = new double[ MAX_PACKET_SIZE ];
+    private final double[] pieceStart = new double[ MAX_PACKET_SIZE ];
+    private final double[] pieceEnd = new double[ MAX_PACKET_SIZE ];
+    private final int[] variations = new int[ MAX_PACKET_SIZE ];
+    private final int[] totalVariations = new int[ MAX_PACKET_SIZE ];
+    private final int[] lastSign = new int[ MAX_PACKET_SIZE ];
+    private final int[] state = new int[ MAX_PACKET_SIZE ];
+
+    private long polynomials;
+    private long fallbacks;
+
+    /**
+     * Finds the smallest root of each polynomial {@code p[ i ]} within {@code lowerBounds[ i ]} and
+     * {@code upperBounds[ i ]} and stores it in {@code roots[ i ]} ({@code Double.NaN}, if there is none).
+     * @param count number of polynomials, at most {@link #MAX_PACKET_SIZE}
+     * @param fallback root finder for the polynomials that cannot be handled in lockstep
+     */
+    public void findFirstRootsIn( UnivariatePolynomial[] p, double[] lowerBounds, double[] upperBounds, int count, RealRootFinder fallback, double[] roots )
+    {
+        if( count > MAX_PACKET_SIZE )
+            throw new IllegalArgumentException( "at most " + MAX_PACKET_SIZE + " polynomials per packet" );
+        polynomials += count;
+
+        int degree = 0;
+        for( int i = 0; i < count; ++i )
+            degree = Math.max( degree, p[ i ].degree() );
+        ensureCapacity( degree );
+        for( int k = 0; k <= degree; ++k )
+        {
+            double[] ck = c[ k ];
+            for( int i = 0; i < count; ++i )
+                ck[ i ] = k <= p[ i ].degree() ? p[ i ].getCoeff( k ) : 0.0;
+        }
+
+        // search the first sign change at equidistant samples
+        int searching = 0;
+        for( int i = 0; i < count; ++i )
+            x[ i ] = lo[ i ] = lowerBounds[ i ];
+        evaluate( degree, count );
+        for( int i = 0; i < count; ++i )
+        {
+            flo[ i ] = f[ i ];
+            roots[ i ] = java.lang.Double.NaN;
+            if( degree == 0 )
+            {
+                state[ i ] = DONE;
+            }
+            else if( f[ i ] == 0.0 )
+            {
+                roots[ i ] = lowerBounds[ i ];
+                state[ i ] = DONE;
+            }
+            else
+            {
+                state[ i ] = SEARCHING;
+                ++searching;
+            }
+        }
+        for( int s = 1; s <= SAMPLES && searching > 0; ++s )
+        {
+            for( int i = 0; i < count; ++i )
+                x[ i ] = s == SAMPLES ? upperBounds[ i ] : lowerBounds[ i ] + ( upperBounds[ i ] - lowerBounds[ i ] ) * s / SAMPLES;
+            evaluate( degree, count );
+            for( int i = 0; i < count; ++i )
+            {
+                if( state[ i ] != SEARCHING )
+                    continue;
+                if( f[ i ] * flo[ i ] <= 0.0 )
+                {
+                    hi[ i ] = x[ i ];
+                    fhi[ i ] = f[ i ];
+                    state[ i ] = BRACKETED;
+                    --searching;
+                }
+                else
+                {
+                    lo[ i ] = x[ i ];
+                    flo[ i ] = f[ i ];
+                }
+            }
+        }
+        for( int i = 0; i < count; ++i )
+        {
+            if( state[ i ] == SEARCHING )
+            {
+                state[ i ] = NO_SIGN_CHANGE;
+                hi[ i ] = upperBounds[ i ];
+            }
+        }
+
+        // verify the number of roots up to the end of the bracket; the variations of the
+        // Bernstein coefficients overestimate the number of roots on large intervals, so
+        // the intervals are split into up to 2^SUBDIVISIONS pieces, until they agree
+        int undecided = 0;
+        for( int i = 0; i < count; ++i )
+        {
+            if( state[ i ] == BRACKETED && fhi[ i ] == 0.0 )
+                state[ i ] = FALLBACK; // sample hit the root or a root at the end of the bracket would be ignored
+            else if( state[ i ] == BRACKETED || state[ i ] == NO_SIGN_CHANGE )
+                ++undecided;
+        }
+        for( int level = 0; level <= SUBDIVISIONS && undecided > 0; ++level )
+        {
+            int pieces = 1 << level;
+            for( int i = 0; i < count; ++i )
+                totalVariations[ i ] = 0;
+            for( int piece = 0; piece < pieces; ++piece )
+            {
+                for( int i = 0; i < count; ++i )
+                {
+                    pieceStart[ i ] = lowerBounds[ i ] + ( hi[ i ] - lowerBounds[ i ] ) * piece / pieces;
+                    pieceEnd[ i ] = piece + 1 == pieces ? hi[ i ] : lowerBounds[ i ] + ( hi[ i ] - lowerBounds[ i ] ) * ( piece + 1 ) / pieces;
+                }
+                countSignVariations( degree, count );
+                for( int i = 0; i < count; ++i )
+                    totalVariations[ i ] += variations[ i ];
+            }
+            for( int i = 0; i < count; ++i )
+            {
+                // a bracket must contain exactly one root, otherwise there must not be any root
+                int expected;
+                if( state[ i ] == BRACKETED )
+                    expected = 1;
+                else if( state[ i ] == NO_SIGN_CHANGE )
+                    expected = 0;
+                else
+                    continue;
+                if( totalVariations[ i ] == expected )
+                {
+                    state[ i ] = expected == 1 ? BISECTING : DONE;
+                    --undecided;
+                }
+                else if( totalVariations[ i ] < expected || level == SUBDIVISIONS )
+                {
+                    state[ i ] = FALLBACK;
+                    --undecided;
+                }
+            }
+        }
+
+        // refine brackets
+        int iterations = 0;
+        for( int i = 0; i < count; ++i )
+        {
+            if( state[ i ] == BISECTING )
+            {
+                double tolerance = DescartesRootFinder.EPSILON * Math.max( upperBounds[ i ] - lowerBounds[ i ], java.lang.Double.MIN_NORMAL );
+                int n = ( int ) Math.ceil( Math.log( ( hi[ i ] - lo[ i ] ) / tolerance ) / Math.log( 2.0 ) );
+                iterations = Math.max( iterations, n );
+            }
+        }
+        for( int it = 0; it < iterations; ++it )
+        {
+            for( int i = 0; i < count; ++i )
+                x[ i ] = 0.5 * ( lo[ i ] + hi[ i ] );
+            evaluate( degree, count );
+            for( int i = 0; i < count; ++i )
+            {
+                if( state[ i ] != BISECTING )
+                    continue;
+                if( f[ i ] * flo[ i ] < 0.0 )
+                {
+                    hi[ i ] = x[ i ];
+                }
+                else if( f[ i ] == 0.0 )
+                {
+                    lo[ i ] = hi[ i ] = x[ i ];
+                }
+                else
+                {
+                    lo[ i ] = x[ i ];
+                    flo[ i ] = f[ i ];
+                }
+            }
+        }
+
+        for( int i = 0; i < count; ++i )
+        {
+            if( state[ i ] == BISECTING )
+            {
+                roots[ i ] = lo[ i ];
+            }
+            else if( state[ i ] == FALLBACK )
+            {
+                roots[ i ] = fallback.findFirstRootIn( p[ i ], lowerBounds[ i ], upperBounds[ i ] );
+                ++fallbacks;
+            }
+        }
+    }
+
+    /**
+     * @return number of polynomials passed to {@link #findFirstRootsIn} so far
+     */
+    public long getPolynomials() { return polynomials; }
+
+    /**
+     * @return number of polynomials that have been passed to the scalar root finder so far
+     */
+    public long getFallbacks() { return fallbacks; }
+
+    private void ensureCapacity( int degree )
+    {
+        if( c.length < degree + 1 )
+        {
+            c = new double[ degree + 1 ][ MAX_PACKET_SIZE ];
+            q = new double[ degree + 1 ][ MAX_PACKET_SIZE ];
+        }
+        if( bernsteinFactors.length != degree + 1 )
+        {
+            // factors C(j,k)/C(degree,k) for the conversion from the power basis into the Bernstein basis
+            bernsteinFactors = new double[ degree + 1 ][ degree + 1 ];
+            for( int j = 0; j <= degree; ++j )
+                for( int k = 0; k <= j; ++k )
+                    bernsteinFactors[ j ][ k ] = binomial( j, k ) / binomial( degree, k );
+        }
+    }
+
+    private static double binomial( int n, int k )
+    {
+        double result = 1.0;
+        for( int i = 1; i <= k; ++i )
+            result = result * ( n - k + i ) / i;
+        return result;
+    }
+
+    // f[ i ] = p_i( x[ i ] ) by Horner's scheme
+    private void evaluate( int degree, int count )
+    {
+        double[] cd = c[ degree ];
+        for( int i = 0; i < count; ++i )
+            f[ i ] = cd[ i ];
+        for( int k = degree - 1; k >= 0; --k )
+        {
+            double[] ck = c[ k ];
+            for( int i = 0; i < count; ++i )
+                f[ i ] = f[ i ] * x[ i ] + ck[ i ];
+        }
+    }
+
+    /**
+     * Counts the sign variations of the Bernstein coefficients of each polynomial on the interval
+     * from {@code pieceStart[ i ]} to {@code pieceEnd[ i ]}, which bounds the number of roots in the open interval.
+     * If the polynomial vanishes at an end of the interval, two variations are added, because such a root
+     * would not be counted otherwise.
+     */
+    private void countSignVariations( int degree, int count )
+    {
+        double[] a = pieceStart;
+        for( int k = 0; k <= degree; ++k )
+            System.arraycopy( c[ k ], 0, q[ k ], 0, count );
+
+        // shift: p( x + a )
+        for( int j = 0; j < degree; ++j )
+        {
+            for( int k = degree - 1; k >= j; --k )
+            {
+                double[] qk = q[ k ];
+                double[] qk1 = q[ k + 1 ];
+                for( int i = 0; i < count; ++i )
+                    qk[ i ] += a[ i ] * qk1[ i ];
+            }
+        }
+
+        // scale: p( a + ( hi - a ) * s ) for s in [0,1]
+        for( int i = 0; i < count; ++i )
+            h[ i ] = pieceEnd[ i ] - a[ i ];
+        for( int i = 0; i < count; ++i )
+            x[ i ] = 1.0;
+        for( int k = 1; k <= degree; ++k )
+        {
+            double[] qk = q[ k ];
+            for( int i = 0; i < count; ++i )
+            {
+                x[ i ] *= h[ i ];
+                qk[ i ] *= x[ i ];
+            }
+        }
+
+        // Bernstein coefficients and their sign variations
+        for( int i = 0; i < count; ++i )
+        {
+            variations[ i ] = 0;
+            lastSign[ i ] = 0;
+        }
+        for( int j = 0; j <= degree; ++j )
+        {
+            double[] factors = bernsteinFactors[ j ];
+            for( int i = 0; i < count; ++i )
+                b[ i ] = 0.0;
+            for( int k = 0; k <= j; ++k )
+            {
+                double[] qk = q[ k ];
+                double factor = factors[ k ];
+                for( int i = 0; i < count; ++i )
+                    b[ i ] += factor * qk[ i ];
+            }
+            for( int i = 0; i < count; ++i )
+            {
+                int sign = b[ i ] > 0.0 ? 1 : ( b[ i ] < 0.0 ? -1 : 0 );
+                if( sign == 0 && ( j == 0 || j == degree ) )
+                {
+                    variations[ i ] += 2;
+                }
+                else if( sign != 0 )
+                {
+                    if( sign == -lastSign[ i ] )
+                        ++variations[ i ];
+                    lastSign[ i ] = sign;
+                }
+            }
+        }
+    }
+}
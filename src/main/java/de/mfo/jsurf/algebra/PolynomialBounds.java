@@ -0,0 +1,143 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.algebra;
+
+/**
+ * Bounds the values of an {@link XYZPolynomial} over axis-aligned boxes by interval arithmetic.
+ * The bounds are conservative, but not tight, so that they become more useful on smaller boxes.
+ * Instances are immutable and can be shared by several threads.
+ */
+public final class PolynomialBounds
+{
+    // the polynomial is considered to vanish within this relative distance from zero, which covers rounding errors
+    private static final double TOLERANCE = 1e-8;
+
+    private final double[] coeffs;
+    private final int[] xExps;
+    private final int[] yExps;
+    private final int[] zExps;
+    private final int maxExp;
+
+    public PolynomialBounds( XYZPolynomial p )
+    {
+        XYZPolynomial.Term[] terms = p.getTerms();
+        coeffs = new double[ terms.length ];
+        xExps = new int[ terms.length ];
+        yExps = new int[ terms.length ];
+        zExps = new int[ terms.length ];
+        int max = 0;
+        for( int i = 0; i < terms.length; ++i )
+        {
+            coeffs[ i ] = terms[ i ].coeff;
+            xExps[ i ] = terms[ i ].xExp;
+            yExps[ i ] = terms[ i ].yExp;
+            zExps[ i ] = terms[ i ].zExp;
+            max = Math.max( max, Math.max( xExps[ i ], Math.max( yExps[ i ], zExps[ i ] ) ) );
+        }
+        maxExp = max;
+    }
+
+    /**
+     * @return minimum length of the scratch array of {@link #mayVanish}
+     */
+    public int getScratchSize()
+    {
+        return 6 * ( maxExp + 1 );
+    }
+
+    /**
+     * Checks, if the polynomial may vanish within the box. If {@code false} is returned, the polynomial
+     * has no root in the box. The bounds of the box must be finite.
+     * @param scratch array of at least {@link #getScratchSize()} elements for the powers of the intervals
+     */
+    public boolean mayVanish( double xMin, double xMax, double yMin, double yMax, double zMin, double zMax, double[] scratch )
+    {
+        int n = 2 * ( maxExp + 1 );
+        powers( xMin, xMax, scratch, 0 );
+        powers( yMin, yMax, scratch, n );
+        powers( zMin, zMax, scratch, 2 * n );
+
+        double lower = 0.0;
+        double upper = 0.0;
+        double magnitude = 0.0;
+        for( int i = 0; i < coeffs.length; ++i )
+        {
+            int x = 2 * xExps[ i ];
+            int y = n + 2 * yExps[ i ];
+            int z = 2 * n + 2 * zExps[ i ];
+
+            // [x] * [y]
+            double a = scratch[ x ] * scratch[ y ];
+            double b = scratch[ x ] * scratch[ y + 1 ];
+            double c = scratch[ x + 1 ] * scratch[ y ];
+            double d = scratch[ x + 1 ] * scratch[ y + 1 ];
+            double lo = Math.min( Math.min( a, b ), Math.min( c, d ) );
+            double hi = Math.max( Math.max( a, b ), Math.max( c, d ) );
+
+            // * [z]
+            a = lo * scratch[ z ];
+            b = lo * scratch[ z + 1 ];
+            c = hi * scratch[ z ];
+            d = hi * scratch[ z + 1 ];
+            lo = Math.min( Math.min( a, b ), Math.min( c, d ) );
+            hi = Math.max( Math.max( a, b ), Math.max( c, d ) );
+
+            // * coefficient
+            if( coeffs[ i ] >= 0.0 )
+            {
+                lower += coeffs[ i ] * lo;
+                upper += coeffs[ i ] * hi;
+            }
+            else
+            {
+                lower += coeffs[ i ] * hi;
+                upper += coeffs[ i ] * lo;
+            }
+            magnitude += Math.abs( coeffs[ i ] ) * Math.max( Math.abs( lo ), Math.abs( hi ) );
+        }
+        double tolerance = TOLERANCE * magnitude;
+        return lower <= tolerance && upper >= -tolerance;
+    }
+
+    // stores the intervals [min,max]^e for e = 0..maxExp at offset
+    private void powers( double min, double max, double[] result, int offset )
+    {
+        double pMin = 1.0;
+        double pMax = 1.0;
+        for( int e = 0; e <= maxExp; ++e )
+        {
+            int i = offset + 2 * e;
+            if( e == 0 || e % 2 == 1 || min >= 0.0 )
+            {
+                result[ i ] = pMin;
+                result[ i + 1 ] = pMax;
+            }
+            else if( max <= 0.0 )
+            {
+                result[ i ] = pMax;
+                result[ i + 1 ] = pMin;
+            }
+            else
+            {
+                result[ i ] = 0.0;
+                result[ i + 1 ] = Math.max( pMin, pMax );
+            }
+            pMin *= min;
+            pMax *= max;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.algebra;
+
+/**
+ * Evaluates a concrete {@link XYZPolynomial} in the same way as {@link XYZPolynomial#evaluateZ(double)},
+ * {@link XYPolynomial#evaluateY(double)} and {@link UnivariatePolynomial#evaluateAt(double)}, i.e. with the same
+ * results, but with straight-line code that has the coefficients, exponents and degrees of the polynomial
+ * built in. Subclasses are generated at runtime, see {@link SurfaceKernel}.
+ */
+public abstract class PolynomialKernel
+{
+    // sizes of the results of evaluateZ and evaluateY, set by the generator
+    int xyLength;
+    int xLength;
+
+    protected PolynomialKernel()
+    {
+    }
+
+    /**
+     * @return the coefficients of the XY polynomial {@code p( x, y, z )}, see {@link XYZPolynomial#evaluateZ(double)}
+     */
+    public final double[] evaluateZ( double z )
+    {
+        double[] xy = new double[ xyLength ];
+        if( Math.abs( z ) > 1.0 )
+            evaluateZOuter( z, xy );
+        else
+            evaluateZInner( z, xy );
+        return xy;
+    }
+
+    /**
+     * @param xy the result of {@link #evaluateZ(double)}
+     * @return the univariate polynomial {@code p( x, y, z )}, see {@link XYPolynomial#evaluateY(double)}
+     */
+    public final UnivariatePolynomial evaluateY( double[] xy, double y )
+    {
+        return new UnivariatePolynomial( evaluateYCoefficients( xy, y ), false );
+    }
+
+    final double[] evaluateYCoefficients( double[] xy, double y )
+    {
+        double[] a = new double[ xLength ];
+        if( Math.abs( y ) > 1.0 )
+            evaluateYOuter( xy, y, a );
+        else
+            evaluateYInner( xy, y, a );
+        return a;
+    }
+
+    /**
+     * @param a the coefficients of a result of {@link #evaluateY(double[], double)}
+     * @return {@code p( x, y, z )}, see {@link UnivariatePolynomial#evaluateAt(double)}
+     */
+    public final double evaluateX( double[] a, double x )
+    {
+        if( Math.abs( x ) <= 1.0 )
+            return evaluateXInner( a, x );
+        else
+            return evaluateXOuter( a, x );
+    }
+
+    // Horner scheme in z for |z| <= 1
+    protected abstract void evaluateZInner( double z, double[] xy );
+
+    // Horner scheme in 1/z for |z| > 1
+    protected abstract void evaluateZOuter( double z, double[] xy );
+
+    // Horner scheme in y for |y| <= 1
+    protected abstract void evaluateYInner( double[] xy, double y, double[] a );
+
+    // Horner scheme in 1/y for |y| > 1
+    protected abstract void evaluateYOuter( double[] xy, double y, double[] a );
+
+    // Horner scheme in x for |x| <= 1
+    protected abstract double evaluateXInner( double[] a, double x );
+
+    // Horner scheme in 1/x for |x| > 1
+    protected abstract double evaluateXOuter( double[] a, double x );
+}
@@ -0,0 +1,515 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.algebra;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes the class file of a {@link PolynomialKernel} for a concrete polynomial. The methods consist of
+ * straight-line code without branches, which replicates the arithmetic of the generic evaluation
+ * step by step. Class file version 49 is used, because it does not require stack map frames.
+ */
+final class PolynomialKernelGenerator
+{
+    // HotSpot does not compile larger methods (-XX:HugeMethodLimit)
+    static final int MAX_CODE_LENGTH = 8000;
+
+    private static final String SUPER_CLASS = "de/mfo/jsurf/algebra/PolynomialKernel";
+    private static final int MAX_STACK = 8;
+
+    // opcodes
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int DALOAD = 0x31;
+    private static final int DSTORE = 0x39;
+    private static final int DASTORE = 0x52;
+    private static final int DADD = 0x63;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DRETURN = 0xaf;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final Map< String, Integer > constants = new HashMap< String, Integer >();
+    private int constantPoolCount = 1;
+
+    // terms of the polynomial in the order of XYZPolynomial.evaluateZ
+    private final double[] coeffs;
+    private final int[] xyKeys;
+    private final int[] zExps;
+    private final int[] xyIndices;
+
+    // terms of the XY polynomial in the order of XYPolynomial.evaluateY
+    private final int[] xExps;
+    private final int[] yExps;
+    private final int xLength;
+
+    private PolynomialKernelGenerator( XYZPolynomial.Term[] terms, int xyLength )
+    {
+        coeffs = new double[ terms.length ];
+        xyKeys = new int[ terms.length ];
+        zExps = new int[ terms.length ];
+        xyIndices = new int[ terms.length ];
+        xExps = new int[ xyLength ];
+        yExps = new int[ xyLength ];
+        int xyIndex = -1;
+        for( int i = 0; i < terms.length; ++i )
+        {
+            coeffs[ i ] = terms[ i ].coeff;
+            xyKeys[ i ] = terms[ i ].xExp * 256 + terms[ i ].yExp;
+            zExps[ i ] = terms[ i ].zExp;
+            if( i == 0 || xyKeys[ i ] != xyKeys[ i - 1 ] )
+            {
+                ++xyIndex;
+                xExps[ xyIndex ] = terms[ i ].xExp;
+                yExps[ xyIndex ] = terms[ i ].yExp;
+            }
+            xyIndices[ i ] = xyIndex;
+        }
+        xLength = xExps[ xyLength - 1 ] + 1;
+    }
+
+    /**
+     * Creates the class file of a kernel for {@code p}.
+     * @return {@code null}, if the code would be too large to be compiled by the JIT or if {@code p}
+     * has a form the generator does not support
+     */
+    static byte[] generate( String className, XYZPolynomial p )
+    {
+        XYZPolynomial.Term[] terms = p.getCompactTerms();
+        int xyLength = p.getNumXyTerms();
+        if( terms.length == 0 || countXyGroups( terms ) != xyLength )
+            return null;
+        for( XYZPolynomial.Term t : terms )
+            if( 5 + 4 * Math.max( t.yExp, t.zExp ) > 255 )
+                return null; // local variables would need wide instructions
+
+        PolynomialKernelGenerator generator = new PolynomialKernelGenerator( terms, xyLength );
+        try
+        {
+            return generator.writeClass( className );
+        }
+        catch( IOException ioe )
+        {
+            throw new RuntimeException( ioe ); // impossible for in-memory streams
+        }
+    }
+
+    static int xyLength( XYZPolynomial p )
+    {
+        return p.getNumXyTerms();
+    }
+
+    static int xLength( XYZPolynomial p )
+    {
+        XYZPolynomial.Term[] terms = p.getCompactTerms();
+        return terms[ terms.length - 1 ].xExp + 1;
+    }
+
+    private static int countXyGroups( XYZPolynomial.Term[] terms )
+    {
+        int groups = 0;
+        for( int i = 0; i < terms.length; ++i )
+            if( i == 0 || terms[ i ].xExp != terms[ i - 1 ].xExp || terms[ i ].yExp != terms[ i - 1 ].yExp )
+                ++groups;
+        return groups;
+    }
+
+    private byte[] writeClass( String className )
+        throws IOException
+    {
+        int thisClass = classConstant( className.replace( '.', '/' ) );
+        int superClass = classConstant( SUPER_CLASS );
+
+        List< byte[] > methods = new ArrayList< byte[] >();
+        methods.add( constructor( superClass ) );
+
+        // XYZPolynomial.evaluateZ: locals are this, z, xy and the powers of z
+        for( boolean outer : new boolean[] { false, true } )
+        {
+            Code code = new Code( 4 );
+            int[] zPowers = computePowers( code, 1, zExps, outer );
+            emitGroupedHorner( code, outer, xyKeys, zExps, xyIndices, coeffs, -1, 3, zPowers );
+            code.op( RETURN );
+            methods.add( method( outer ? "evaluateZOuter" : "evaluateZInner", "(D[D)V", code ) );
+        }
+
+        // XYPolynomial.evaluateY: locals are this, xy, y, a and the powers of y
+        for( boolean outer : new boolean[] { false, true } )
+        {
+            Code code = new Code( 5 );
+            int[] yPowers = computePowers( code, 2, yExps, outer );
+            emitGroupedHorner( code, outer, xExps, yExps, xExps, null, 1, 4, yPowers );
+            code.op( RETURN );
+            methods.add( method( outer ? "evaluateYOuter" : "evaluateYInner", "([DD[D)V", code ) );
+        }
+
+        // UnivariatePolynomial.evaluateAt: locals are this, a and x
+        int degree = xLength - 1;
+        Code inner = new Code( 4 );
+        inner.loadArrayElement( 1, degree );
+        for( int i = degree - 1; i >= 0; --i )
+        {
+            inner.load( DLOAD, 2 );
+            inner.op( DMUL );
+            inner.loadArrayElement( 1, i );
+            inner.op( DADD );
+        }
+        inner.op( DRETURN );
+        methods.add( method( "evaluateXInner", "([DD)D", inner ) );
+
+        Code outer = new Code( 4 );
+        outer.loadArrayElement( 1, 0 );
+        for( int i = 1; i <= degree; ++i )
+        {
+            outer.load( DLOAD, 2 );
+            outer.op( DDIV );
+            outer.loadArrayElement( 1, i );
+            outer.op( DADD );
+        }
+        outer.load( DLOAD, 2 );
+        outer.ldc( degree );
+        outer.pow();
+        outer.op( DMUL );
+        outer.op( DRETURN );
+        methods.add( method( "evaluateXOuter", "([DD)D", outer ) );
+
+        for( byte[] m : methods )
+            if( m == null )
+                return null;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeInt( 0xcafebabe );
+        out.writeShort( 0 );
+        out.writeShort( 49 );
+        out.writeShort( constantPoolCount );
+        constantPool.writeTo( out );
+        out.writeShort( 0x0001 | 0x0010 | 0x0020 ); // public final super
+        out.writeShort( thisClass );
+        out.writeShort( superClass );
+        out.writeShort( 0 ); // interfaces
+        out.writeShort( 0 ); // fields
+        out.writeShort( methods.size() );
+        for( byte[] m : methods )
+            out.write( m );
+        out.writeShort( 0 ); // attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Computes the powers of the variable in local {@code variable} that are needed by a Horner scheme
+     * with the given exponents like {@code Math.pow( variable, i )} and for the outer variant also
+     * {@code 1.0 / Math.pow( variable, i )}.
+     * @return the local variable of the i-th power at index {@code i} and of the inverse at index {@code -i}
+     * shifted by the maximum exponent
+     */
+    private int[] computePowers( Code code, int variable, int[] exps, boolean outer )
+    {
+        int max = 0;
+        for( int e : exps )
+            max = Math.max( max, e );
+        int[] slots = new int[ 2 * max + 1 ];
+        for( int i = 1; i <= max; ++i )
+        {
+            slots[ max + i ] = code.newLocal();
+            code.load( DLOAD, variable );
+            code.ldc( i );
+            code.pow();
+            code.load( DSTORE, slots[ max + i ] );
+            if( outer )
+            {
+                slots[ max - i ] = code.newLocal();
+                code.op( DCONST_1 );
+                code.load( DLOAD, slots[ max + i ] );
+                code.op( DDIV );
+                code.load( DSTORE, slots[ max - i ] );
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Emits the Horner scheme of {@link XYZPolynomial#evaluateZ(double)} and {@link XYPolynomial#evaluateY(double)}:
+     * Consecutive terms with the same key are combined by Horner steps in their exponents and the sum is stored
+     * in the result array at the output index of the terms. The inner variant iterates backwards over the terms,
+     * the outer variant forwards, i.e. it uses the inverse powers.
+     * @param constants coefficients of the terms or {@code null}, if they are read from the array in local {@code coeffsLocal}
+     */
+    private void emitGroupedHorner( Code code, boolean outer, int[] keys, int[] exps, int[] outputs, double[] constants, int coeffsLocal, int resultLocal, int[] powers )
+    {
+        int n = keys.length;
+        int step = outer ? 1 : -1;
+        int i = outer ? 0 : n - 1;
+        int max = ( powers.length - 1 ) / 2;
+
+        code.load( ALOAD, resultLocal );
+        code.pushInt( outputs[ i ] );
+        loadCoefficient( code, constants, coeffsLocal, i );
+        int last = i;
+        for( i += step; i >= 0 && i < n; i += step )
+        {
+            if( keys[ i ] == keys[ last ] )
+            {
+                multiplyByPower( code, powers, max, exps[ last ] - exps[ i ] );
+                loadCoefficient( code, constants, coeffsLocal, i );
+                code.op( DADD );
+            }
+            else
+            {
+                // finalize term
+                multiplyByPower( code, powers, max, exps[ last ] );
+                code.op( DASTORE );
+                code.load( ALOAD, resultLocal );
+                code.pushInt( outputs[ i ] );
+                loadCoefficient( code, constants, coeffsLocal, i );
+            }
+            last = i;
+        }
+        multiplyByPower( code, powers, max, exps[ last ] );
+        code.op( DASTORE );
+    }
+
+    private void multiplyByPower( Code code, int[] powers, int max, int exponent )
+    {
+        // the power 0 is 1.0 and the multiplication exact
+        if( exponent != 0 )
+        {
+            code.load( DLOAD, powers[ max + exponent ] );
+            code.op( DMUL );
+        }
+    }
+
+    private void loadCoefficient( Code code, double[] constants, int coeffsLocal, int i )
+    {
+        if( constants != null )
+            code.ldc( constants[ i ] );
+        else
+            code.loadArrayElement( coeffsLocal, i );
+    }
+
+    private byte[] constructor( int superClass )
+        throws IOException
+    {
+        Code code = new Code( 1 );
+        code.load( ALOAD, 0 );
+        code.op( INVOKESPECIAL );
+        code.u2( methodConstant( superClass, "<init>", "()V" ) );
+        code.op( RETURN );
+        return method( 0x0001, "<init>", "()V", code );
+    }
+
+    private byte[] method( String name, String descriptor, Code code )
+        throws IOException
+    {
+        return method( 0x0004, name, descriptor, code ); // protected
+    }
+
+    private byte[] method( int access, String name, String descriptor, Code code )
+        throws IOException
+    {
+        if( code.bytes.size() > MAX_CODE_LENGTH )
+            return null;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream( bytes );
+        out.writeShort( access );
+        out.writeShort( utf8Constant( name ) );
+        out.writeShort( utf8Constant( descriptor ) );
+        out.writeShort( 1 );
+        out.writeShort( utf8Constant( "Code" ) );
+        out.writeInt( 12 + code.bytes.size() );
+        out.writeShort( MAX_STACK );
+        out.writeShort( code.locals );
+        out.writeInt( code.bytes.size() );
+        code.bytes.writeTo( out );
+        out.writeShort( 0 ); // exception table
+        out.writeShort( 0 ); // attributes
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private int utf8Constant( String s )
+        throws IOException
+    {
+        Integer index = constants.get( "U" + s );
+        if( index == null )
+        {
+            DataOutputStream out = new DataOutputStream( constantPool );
+            out.writeByte( 1 );
+            out.writeUTF( s );
+            out.flush();
+            index = constantPoolCount++;
+            constants.put( "U" + s, index );
+        }
+        return index;
+    }
+
+    private int classConstant( String internalName )
+        throws IOException
+    {
+        int name = utf8Constant( internalName );
+        Integer index = constants.get( "C" + internalName );
+        if( index == null )
+        {
+            DataOutputStream out = new DataOutputStream( constantPool );
+            out.writeByte( 7 );
+            out.writeShort( name );
+            out.flush();
+            index = constantPoolCount++;
+            constants.put( "C" + internalName, index );
+        }
+        return index;
+    }
+
+    private int methodConstant( int owner, String name, String descriptor )
+        throws IOException
+    {
+        String key = "M" + owner + "." + name + descriptor;
+        Integer index = constants.get( key );
+        if( index == null )
+        {
+            int nameIndex = utf8Constant( name );
+            int descriptorIndex = utf8Constant( descriptor );
+            DataOutputStream out = new DataOutputStream( constantPool );
+            out.writeByte( 12 );
+            out.writeShort( nameIndex );
+            out.writeShort( descriptorIndex );
+            int nameAndType = constantPoolCount++;
+            out.writeByte( 10 );
+            out.writeShort( owner );
+            out.writeShort( nameAndType );
+            out.flush();
+            index = constantPoolCount++;
+            constants.put( key, index );
+        }
+        return index;
+    }
+
+    private int doubleConstant( double d )
+        throws IOException
+    {
+        long bits = java.lang.Double.doubleToRawLongBits( d );
+        String key = "D" + bits;
+        Integer index = constants.get( key );
+        if( index == null )
+        {
+            DataOutputStream out = new DataOutputStream( constantPool );
+            out.writeByte( 6 );
+            out.writeLong( bits );
+            out.flush();
+            index = constantPoolCount;
+            constantPoolCount += 2; // doubles take two entries
+            constants.put( key, index );
+        }
+        return index;
+    }
+
+    /**
+     * Bytecode of a method.
+     */
+    private class Code
+    {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int locals;
+
+        Code( int locals )
+        {
+            this.locals = locals;
+        }
+
+        int newLocal()
+        {
+            int local = locals;
+            locals += 2; // doubles take two slots
+            return local;
+        }
+
+        void op( int opcode )
+        {
+            bytes.write( opcode );
+        }
+
+        void u2( int value )
+        {
+            bytes.write( value >> 8 );
+            bytes.write( value );
+        }
+
+        void load( int opcode, int local )
+        {
+            bytes.write( opcode );
+            bytes.write( local );
+        }
+
+        void pushInt( int value )
+        {
+            if( value < 128 )
+            {
+                bytes.write( BIPUSH );
+                bytes.write( value );
+            }
+            else
+            {
+                bytes.write( SIPUSH );
+                u2( value );
+            }
+        }
+
+        void ldc( double value )
+        {
+            try
+            {
+                int index = doubleConstant( value );
+                bytes.write( LDC2_W );
+                u2( index );
+            }
+            catch( IOException ioe )
+            {
+                throw new RuntimeException( ioe );
+            }
+        }
+
+        void loadArrayElement( int arrayLocal, int index )
+        {
+            load( ALOAD, arrayLocal );
+            pushInt( index );
+            op( DALOAD );
+        }
+
+        // replaces the top two values v, e by Math.pow( v, e )
+        void pow()
+        {
+            try
+            {
+                bytes.write( INVOKESTATIC );
+                u2( methodConstant( classConstant( "java/lang/Math" ), "pow", "(DD)D" ) );
+            }
+            catch( IOException ioe )
+            {
+                throw new RuntimeException( ioe );
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.algebra;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.vecmath.Vector3d;
+
+/**
+ * Specialized code for substituting the rays of a draw call into a concrete surface and its gradient.
+ * For the surface and each component of the gradient a subclass of {@link PolynomialKernel} is generated.
+ * The classes of a kernel are defined by a class loader of their own, so that they can be unloaded
+ * as soon as the kernel is not referenced anymore. The row substitutors of a kernel yield exactly the
+ * same polynomials as the substitutors it has been created from.
+ */
+public final class SurfaceKernel
+{
+    private static final AtomicInteger generatedKernels = new AtomicInteger();
+
+    private final PolynomialKernel surface;
+    private final PolynomialKernel gradientX;
+    private final PolynomialKernel gradientY;
+    private final PolynomialKernel gradientZ;
+
+    private SurfaceKernel( PolynomialKernel surface, PolynomialKernel gradientX, PolynomialKernel gradientY, PolynomialKernel gradientZ )
+    {
+        this.surface = surface;
+        this.gradientX = gradientX;
+        this.gradientY = gradientY;
+        this.gradientZ = gradientZ;
+    }
+
+    /**
+     * Generates the kernel for the polynomials of the given substitutors.
+     * @return {@code null}, if the substitutors are not {@link TransformedPolynomialRowSubstitutor}s
+     * or if one of the polynomials is too large for specialized code
+     */
+    public static SurfaceKernel create( RowSubstitutor surfaceRowSubstitutor, RowSubstitutorForGradient gradientRowSubstitutor )
+    {
+        if( !( surfaceRowSubstitutor instanceof TransformedPolynomialRowSubstitutor ) || !( gradientRowSubstitutor instanceof TransformedPolynomialRowSubstitutorForGradient ) )
+            return null;
+        TransformedPolynomialRowSubstitutorForGradient g = ( TransformedPolynomialRowSubstitutorForGradient ) gradientRowSubstitutor;
+
+        String prefix = "de.mfo.jsurf.algebra.generated.SurfaceKernel" + generatedKernels.incrementAndGet();
+        KernelClassLoader loader = new KernelClassLoader();
+        PolynomialKernel surface = loader.define( prefix + "$Surface", ( ( TransformedPolynomialRowSubstitutor ) surfaceRowSubstitutor ).getTuvPolynomial() );
+        PolynomialKernel gradientX = loader.define( prefix + "$GradientX", g.tprs_px.getTuvPolynomial() );
+        PolynomialKernel gradientY = loader.define( prefix + "$GradientY", g.tprs_py.getTuvPolynomial() );
+        PolynomialKernel gradientZ = loader.define( prefix + "$GradientZ", g.tprs_pz.getTuvPolynomial() );
+        if( surface == null || gradientX == null || gradientY == null || gradientZ == null )
+            return null;
+        return new SurfaceKernel( surface, gradientX, gradientY, gradientZ );
+    }
+
+    /**
+     * @return number of kernels that have been generated since the start of the VM
+     */
+    public static int getGeneratedKernels()
+    {
+        return generatedKernels.get();
+    }
+
+    public RowSubstitutor getSurfaceRowSubstitutor()
+    {
+        return new RowSubstitutor() {
+            public ColumnSubstitutor setV( double v )
+            {
+                final double[] xy = surface.evaluateZ( v );
+                return new ColumnSubstitutor() {
+                    public UnivariatePolynomial setU( double u )
+                    {
+                        return surface.evaluateY( xy, u );
+                    }
+                };
+            }
+        };
+    }
+
+    public RowSubstitutorForGradient getGradientRowSubstitutor()
+    {
+        return new RowSubstitutorForGradient() {
+            public ColumnSubstitutorForGradient setV( double v )
+            {
+                final double[] xyX = gradientX.evaluateZ( v );
+                final double[] xyY = gradientY.evaluateZ( v );
+                final double[] xyZ = gradientZ.evaluateZ( v );
+                return new ColumnSubstitutorForGradient() {
+                    public UnivariatePolynomialVector3d setU( double u )
+                    {
+                        return new GradientAlongRay( gradientX.evaluateYCoefficients( xyX, u ), gradientY.evaluateYCoefficients( xyY, u ), gradientZ.evaluateYCoefficients( xyZ, u ) );
+                    }
+                };
+            }
+        };
+    }
+
+    private class GradientAlongRay implements UnivariatePolynomialVector3d
+    {
+        private final double[] x;
+        private final double[] y;
+        private final double[] z;
+
+        GradientAlongRay( double[] x, double[] y, double[] z )
+        {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        public Vector3d setT( double t )
+        {
+            Vector3d result = new Vector3d();
+            setT( t, result );
+            return result;
+        }
+
+        public void setT( double t, Vector3d result )
+        {
+            result.set( gradientX.evaluateX( x, t ), gradientY.evaluateX( y, t ), gradientZ.evaluateX( z, t ) );
+        }
+    }
+
+    private static final class KernelClassLoader extends ClassLoader
+    {
+        KernelClassLoader()
+        {
+            super( PolynomialKernel.class.getClassLoader() );
+        }
+
+        PolynomialKernel define( String className, XYZPolynomial p )
+        {
+            byte[] classFile = PolynomialKernelGenerator.generate( className, p );
+            if( classFile == null )
+                return null;
+            Class< ? > c = defineClass( className, classFile, 0, classFile.length );
+            PolynomialKernel kernel;
+            try
+            {
+                kernel = ( PolynomialKernel ) c.getDeclaredConstructor().newInstance();
+            }
+            catch( ReflectiveOperationException roe )
+            {
+                throw new IllegalStateException( "generated kernel " + className + " cannot be instantiated", roe );
+            }
+            kernel.xyLength = PolynomialKernelGenerator.xyLength( p );
+            kernel.xLength = PolynomialKernelGenerator.xLength( p );
+            return kernel;
+        }
+    }
+}
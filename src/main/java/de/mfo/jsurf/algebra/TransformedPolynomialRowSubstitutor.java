@@ -66,6 +66,11 @@ public class TransformedPolynomialRowSubstitutor implements RowSubstitutor {
         }
     }
     
+    XYZPolynomial getTuvPolynomial()
+    {
+        return tuvPolynomial;
+    }
+
     public ColumnSubstitutor setV( double v )
     {
         return new myColumnSubstitutor( tuvPolynomial, v );
@@ -40,6 +40,13 @@ public class TransformedPolynomialRowSubstitutorForGradient implements RowSubsti
         tprs_pz = new TransformedPolynomialRowSubstitutor( pz, x, y, z );
     }
 
+    public TransformedPolynomialRowSubstitutorForGradient( TransformedPolynomialRowSubstitutor tprs_px, TransformedPolynomialRowSubstitutor tprs_py, TransformedPolynomialRowSubstitutor tprs_pz )
+    {
+        this.tprs_px = tprs_px;
+        this.tprs_py = tprs_py;
+        this.tprs_pz = tprs_pz;
+    }
+
     class TransformedPolynomialColumnSubstitutorForGradient implements ColumnSubstitutorForGradient
     {
         double v;
@@ -72,6 +79,11 @@ public class TransformedPolynomialRowSubstitutorForGradient implements RowSubsti
             {
                 return new Vector3d( px.evaluateAt( t ), py.evaluateAt( t ), pz.evaluateAt( t ) );
             }
+
+            public void setT( double t, Vector3d result )
+            {
+                result.set( px.evaluateAt( t ), py.evaluateAt( t ), pz.evaluateAt( t ) );
+            }
         }
 
         public UnivariatePolynomialVector3d setU( double u )
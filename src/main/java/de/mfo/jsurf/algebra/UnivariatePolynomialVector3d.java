@@ -20,4 +20,5 @@ import javax.vecmath.Vector3d;
 
 public interface UnivariatePolynomialVector3d {
     public Vector3d setT( double t );
+    public void setT( double t, Vector3d result );
 }
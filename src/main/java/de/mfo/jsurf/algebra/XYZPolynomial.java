@@ -237,6 +237,27 @@ public class XYZPolynomial
         return this.terms;
     }
 
+    /**
+     * Returns the terms in the order in which {@link #evaluateZ(double)} processes them.
+     */
+    Term[] getCompactTerms()
+    {
+        if( !isCompact )
+        {
+            terms = collect( terms, true );
+            isCompact = true;
+        }
+        return this.terms;
+    }
+
+    /**
+     * Returns the number of coefficients of the result of {@link #evaluateZ(double)}.
+     */
+    int getNumXyTerms()
+    {
+        return this.numXyTerms;
+    }
+
     public XYZPolynomial neg()
     {
         Term[] resultTerms = new Term[ this.terms.length ];
@@ -87,12 +87,12 @@ public abstract class AlgebraicSurfaceRenderer
         this.surfaceTotalDegree = this.surfaceExpressionFamily.accept( new DegreeCalculator(), ( Void ) null );
     }
 
-    public void setSurfaceFamily( PolynomialOperation expression )
+    public synchronized void setSurfaceFamily( PolynomialOperation expression )
     {
         setSurfaceFamily( expression, expression.accept( new ToStringVisitor(), (Void) null) );
     }
 
-    public void setSurfaceFamily( String expression )
+    public synchronized void setSurfaceFamily( String expression )
             throws Exception
     {
         setSurfaceFamily( AlgebraicExpressionParser.parse( expression ), expression );
@@ -116,28 +116,28 @@ public abstract class AlgebraicSurfaceRenderer
         return this.surfaceExpressionFamilyString;
     }
 
-    public PolynomialOperation getSurfaceExpression()
+    public synchronized PolynomialOperation getSurfaceExpression()
     {
         if( this.surfaceExpression == null )
             this.surfaceExpression = this.surfaceExpressionFamily.accept( parameterSubstitutor, ( Void ) null );
         return this.surfaceExpression;
     }
 
-    public PolynomialOperation getGradientXExpression()
+    public synchronized PolynomialOperation getGradientXExpression()
     {
         if( this.gradientXExpression == null )
             this.gradientXExpression = getSurfaceExpression().accept( new Differentiator( PolynomialVariable.Var.x ), ( Void ) null );
         return this.gradientXExpression;
     }
 
-    public PolynomialOperation getGradientYExpression()
+    public synchronized PolynomialOperation getGradientYExpression()
     {
         if( this.gradientYExpression == null )
             this.gradientYExpression = getSurfaceExpression().accept( new Differentiator( PolynomialVariable.Var.y ), ( Void ) null );
         return this.gradientYExpression;
     }
 
-    public PolynomialOperation getGradientZExpression()
+    public synchronized PolynomialOperation getGradientZExpression()
     {
         if( this.gradientZExpression == null )
             this.gradientZExpression = getSurfaceExpression().accept( new Differentiator( PolynomialVariable.Var.z ), ( Void ) null );
@@ -149,13 +149,13 @@ public abstract class AlgebraicSurfaceRenderer
         return this.surfaceTotalDegree;
     }
 
-    public void setParameterValue( String name, double value )
+    public synchronized void setParameterValue( String name, double value )
     {
         this.parameterSubstitutor.setParameterValue( name, value );
         clearExpressionCache();
     }
 
-    public void unsetParameter( String name )
+    public synchronized void unsetParameter( String name )
     {
         this.parameterSubstitutor.unsetParameterValue(name);
         clearExpressionCache();
@@ -176,7 +176,7 @@ public abstract class AlgebraicSurfaceRenderer
         return this.surfaceExpressionFamily.accept( new DoubleVariableExtractor(), ( Void ) null );
     }
 
-    public void setCamera( Camera camera )
+    public synchronized void setCamera( Camera camera )
             throws NullPointerException
     {
         if( camera == null )
@@ -189,7 +189,7 @@ public abstract class AlgebraicSurfaceRenderer
         return this.camera;
     }
 
-    public void setTransform( Matrix4d m )
+    public synchronized void setTransform( Matrix4d m )
             throws NullPointerException
     {
         if( m == null )
@@ -197,12 +197,12 @@ public abstract class AlgebraicSurfaceRenderer
         this.transform = new Matrix4d( m );
     }
 
-    public Matrix4d getTransform()
+    public synchronized Matrix4d getTransform()
     {
         return new Matrix4d( this.transform );
     }
 
-    public void setSurfaceTransform( Matrix4d m )
+    public synchronized void setSurfaceTransform( Matrix4d m )
             throws NullPointerException
     {
         if( m == null )
@@ -210,7 +210,7 @@ public abstract class AlgebraicSurfaceRenderer
         this.surfaceTransform =  new Matrix4d( m );
     }
 
-    public Matrix4d getSurfaceTransform()
+    public synchronized Matrix4d getSurfaceTransform()
     {
         return new Matrix4d( this.surfaceTransform );
     }
@@ -222,7 +222,7 @@ public abstract class AlgebraicSurfaceRenderer
      * @param which
      * @param s
      */
-    public void setLightSource( int which, LightSource s )
+    public synchronized void setLightSource( int which, LightSource s )
     {
         if( 0 <= which && which < MAX_LIGHTS )
             this.lightSources[ which ] = s;
@@ -242,7 +242,7 @@ public abstract class AlgebraicSurfaceRenderer
             return null;
     }
 
-    public void setFrontMaterial( Material m )
+    public synchronized void setFrontMaterial( Material m )
             throws NullPointerException
     {
         if( m == null )
@@ -255,7 +255,7 @@ public abstract class AlgebraicSurfaceRenderer
         return this.frontMaterial;
     }
 
-    public void setBackMaterial( Material m )
+    public synchronized void setBackMaterial( Material m )
             throws NullPointerException
     {
         if( m == null )
@@ -268,7 +268,7 @@ public abstract class AlgebraicSurfaceRenderer
         return this.backMaterial;
     }
 
-    public void setBackgroundColor( Color3f c )
+    public synchronized void setBackgroundColor( Color3f c )
             throws NullPointerException
     {
         if( c == null )
@@ -42,6 +42,14 @@ public class Camera {
         this.transform = new Matrix4d();
         this.transform.setIdentity();
     }
+
+    public Camera( Camera c )
+    {
+        this.cameraType = c.cameraType;
+        this.fovY = c.fovY;
+        this.height = c.height;
+        this.transform = new Matrix4d( c.transform );
+    }
     
     public void lookAt( Point3d camPosition, Point3d pointOfInterest, Vector3d upVector )
     {
@@ -38,6 +38,13 @@ public class LightSource {
         this.intensity = 1.0f;
     }
 
+    public LightSource( LightSource s ) {
+        this.status = s.status;
+        this.position = new Point3d( s.position );
+        this.color = new Color3f( s.color );
+        this.intensity = s.intensity;
+    }
+
     public void setStatus( Status status )
     {
         this.status = status;
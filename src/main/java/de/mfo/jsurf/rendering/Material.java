@@ -37,6 +37,14 @@ public class Material {
         this.shininess = 1.0f;
     }
 
+    public Material( Material m ) {
+        this.color = new Color3f( m.color );
+        this.ambientIntensity = m.ambientIntensity;
+        this.diffuseIntensity = m.diffuseIntensity;
+        this.specularIntensity = m.specularIntensity;
+        this.shininess = m.shininess;
+    }
+
     public Color3f getColor() {
         return color;
     }
@@ -18,6 +18,8 @@ package de.mfo.jsurf.rendering.cpu;
 
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 public enum AntiAliasingPattern implements Iterable< AntiAliasingPattern.SamplingPoint >
 {
@@ -30,9 +32,17 @@ public enum AntiAliasingPattern implements Iterable< AntiAliasingPattern.Samplin
     OG_7x7( getOGSSPattern( 7 ) ),
     OG_8x8( getOGSSPattern( 8 ) ),
     RG_2x2( getRGSSPattern() ),
-    QUINCUNX( getQuincunxPattern() );
+    QUINCUNX( getQuincunxPattern() ),
+    /**
+     * Same sampling points and weights as {@link #OG_8x8}, but in the order of the
+     * two-dimensional Sobol sequence, see {@link #isProgressive()}.
+     */
+    PROGRESSIVE_8x8( getProgressivePattern( 8 ), true );
 
     private final SamplingPoint[] points;
+    private final boolean progressive;
+    private final float[] subRows; // distinct v-coordinates of the sampling points between the pixel corners
+    private final int[] subRowOfPoint;
 
     public static class SamplingPoint
     {
@@ -86,9 +96,62 @@ public enum AntiAliasingPattern implements Iterable< AntiAliasingPattern.Samplin
         }
     }
 
-    private AntiAliasingPattern( SamplingPoint[] points ) { this.points = points; }
+    private AntiAliasingPattern( SamplingPoint[] points )
+    {
+        this( points, false );
+    }
+
+    private AntiAliasingPattern( SamplingPoint[] points, boolean progressive )
+    {
+        this.points = points;
+        this.progressive = progressive;
+
+        SortedSet< java.lang.Float > vs = new TreeSet< java.lang.Float >();
+        for( SamplingPoint sp : points )
+            if( 0.0f < sp.v && sp.v < 1.0f )
+                vs.add( sp.v );
+        this.subRows = new float[ vs.size() ];
+        int i = 0;
+        for( float v : vs )
+            this.subRows[ i++ ] = v;
+
+        this.subRowOfPoint = new int[ points.length ];
+        for( i = 0; i < points.length; ++i )
+        {
+            if( points[ i ].v <= 0.0f )
+                this.subRowOfPoint[ i ] = -1;
+            else if( points[ i ].v >= 1.0f )
+                this.subRowOfPoint[ i ] = this.subRows.length;
+            else
+                this.subRowOfPoint[ i ] = java.util.Arrays.binarySearch( this.subRows, points[ i ].v );
+        }
+    }
     public Iterator< SamplingPoint > iterator() { return new SamplingPointIterator( this.points ); }
 
+    // indexed access for loops, which must not allocate an iterator
+    int size() { return this.points.length; }
+    SamplingPoint get( int i ) { return this.points[ i ]; }
+
+    /**
+     * @return number of distinct rows of sampling points strictly between the lower
+     * ({@code v == 0}) and the upper ({@code v == 1}) pixel corners
+     */
+    int getSubRows() { return this.subRows.length; }
+
+    /**
+     * @return the row of sampling point {@code i}, i.e. {@code -1} for the lower pixel corners,
+     * {@code getSubRows()} for the upper pixel corners and the index of the sub-row otherwise
+     */
+    int getSubRow( int i ) { return this.subRowOfPoint[ i ]; }
+
+    /**
+     * Progressive patterns are ordered such that the first {@code 2^k} sampling points
+     * are spread evenly over the pixel for every {@code k}. Thus the supersampling of a pixel
+     * can stop after any power of two of sampling points, once the weighted mean of the colors
+     * does not change any more, see {@link CPUAlgebraicSurfaceRenderer#setConvergenceTolerance(float)}.
+     */
+    public boolean isProgressive() { return this.progressive; }
+
     private static SamplingPoint[] getOGSSPattern( int size )
     {
         assert size > 0;
@@ -233,6 +296,36 @@ public enum AntiAliasingPattern implements Iterable< AntiAliasingPattern.Samplin
         return points;
     }
 
+    private static SamplingPoint[] getProgressivePattern( int size )
+    {
+        assert Integer.bitCount( size ) == 1;
+
+        // the first size * size points of the two-dimensional Sobol sequence are a (0,m,2)-net in base 2,
+        // i.e. each cell of the size x size grid contains exactly one of them, and every prefix of 2^k points
+        // has one point in each dyadic rectangle of area 2^-k -> visit the grid points in the order of their cells
+        SamplingPoint[] grid = getOGSSPattern( size );
+        SamplingPoint[] points = new SamplingPoint[ grid.length ];
+        int shift = 31 - Integer.numberOfTrailingZeros( size );
+        for( int m = 0; m < points.length; ++m )
+        {
+            // fixed point coordinates with 31 bits: van der Corput sequence and Sobol's second dimension
+            int x = 0;
+            int y = 0;
+            for( int bits = m, vx = 1 << 30, vy = 1 << 30; bits != 0; bits >>= 1, vx >>= 1, vy ^= vy >> 1 )
+            {
+                if( ( bits & 1 ) != 0 )
+                {
+                    x ^= vx;
+                    y ^= vy;
+                }
+            }
+            points[ m ] = grid[ ( x >> shift ) * size + ( y >> shift ) ];
+            assert points[ m ] != null;
+            grid[ ( x >> shift ) * size + ( y >> shift ) ] = null;
+        }
+        return points;
+    }
+
     private static SamplingPoint[] getRGSSPattern()
     {
         // 4 rotated grid samples + 4 samples at pixel corners (that are usually known anyway)
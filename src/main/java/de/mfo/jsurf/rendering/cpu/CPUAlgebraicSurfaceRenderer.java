@@ -26,21 +26,88 @@ import javax.vecmath.*;
 import java.util.concurrent.*;
 import java.util.*;
 
-public class CPUAlgebraicSurfaceRenderer extends AlgebraicSurfaceRenderer
+public class CPUAlgebraicSurfaceRenderer extends AlgebraicSurfaceRenderer implements java.io.Closeable
 {
-    ExecutorService threadPoolExecutor;
-    List< FutureTask< Boolean > > renderingTasks; 
+    ExecutorService executor;
+    boolean shutdownExecutorOnClose;
+    volatile boolean closed;
+    Set< DrawcallStaticData > activeDrawcalls;
+    private PriorityTileScheduler scheduler;
+    private ExpandedSurface expandedSurface;
+    private Map< SceneSnapshot, RenderProgress > interruptedDraws;
+
+    // number of interrupted draw calls, whose progress is kept for resumption
+    private static final int MAX_INTERRUPTED_DRAWS = 8;
+
+    private static class DefaultExecutorHolder
+    {
+        // created on first use, shared by all renderers that do not get an executor of their own
+        static final ExecutorService DEFAULT_EXECUTOR = createExecutor( Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Returns the process-wide executor that is used by all renderers created
+     * without an explicit executor. It is a fork/join pool with one daemon thread
+     * of low priority per core and must not be shut down.
+     */
+    public static ExecutorService getDefaultExecutor()
+    {
+        return DefaultExecutorHolder.DEFAULT_EXECUTOR;
+    }
+
+    /**
+     * Creates a fork/join pool with {@code parallelism} daemon threads of low priority,
+     * which is suitable to be passed to {@link #CPUAlgebraicSurfaceRenderer(ExecutorService)}.
+     * Renderers can use any kind of {@link ExecutorService}, but only a {@link ForkJoinPool}
+     * allows for {@link TileScheduling#WORK_STEALING}.
+     * @param parallelism number of threads
+     */
+    public static ForkJoinPool createExecutor( int parallelism )
+    {
+        class PriorityForkJoinWorkerThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory
+        {
+            public ForkJoinWorkerThread newThread( ForkJoinPool pool ) {
+                ForkJoinWorkerThread t = new ForkJoinWorkerThread( pool ) {};
+                t.setDaemon( true );
+                t.setPriority( Thread.MIN_PRIORITY );
+                return t;
+            }
+        }
+        return new ForkJoinPool( parallelism, new PriorityForkJoinWorkerThreadFactory(), null, false );
+    }
     
-    synchronized DrawcallStaticData collectDrawCallStaticData( int[] colorBuffer, int width, int height )
+    /**
+     * Captures the current state of this renderer. The snapshot can be drawn with
+     * {@link #draw(SceneSnapshot, int[], int, int)}, also concurrently with other snapshots.
+     */
+    public synchronized SceneSnapshot createSnapshot()
     {
+        PolynomialOperation surfaceExpression = getSurfaceExpression();
+        if( expandedSurface == null || expandedSurface.surfaceExpression != surfaceExpression )
+            expandedSurface = ExpandedSurface.forSurface( surfaceExpression, getGradientXExpression(), getGradientYExpression(), getGradientZExpression() );
+        return new SceneSnapshot( this, expandedSurface, aaPattern, aaThreshold, aaMode == AntiAliasingMode.GEOMETRY_ADAPTIVE_SUPERSAMPLING ? discontinuityMetric : null );
+    }
+
+    DrawcallStaticData collectDrawCallStaticData( SceneSnapshot snapshot, int[] colorBuffer, int width, int height )
+    {
+        return collectDrawCallStaticData( snapshot, colorBuffer, width, height, true );
+    }
+
+    DrawcallStaticData collectDrawCallStaticData( SceneSnapshot snapshot, int[] colorBuffer, int width, int height, boolean clearColorBuffer )
+    {
+        long startTime = System.nanoTime();
         DrawcallStaticData dcsd = new DrawcallStaticData();
         
         dcsd.colorBuffer = colorBuffer;
         dcsd.width = width;
         dcsd.height = height;
         
-        dcsd.coefficientCalculator = new PolynomialExpansionCoefficientCalculator( getSurfaceExpression() );
-        if( this.getSurfaceTotalDegree() < 2 )
+        dcsd.coefficientCalculator = new PolynomialExpansionCoefficientCalculator( snapshot.expandedSurface.surfaceExpression );
+        dcsd.surfaceTotalDegree = snapshot.surfaceTotalDegree;
+        dcsd.forwardDifferencing = forwardDifferencing;
+        dcsd.depthHints = depthHints;
+        dcsd.sharedCornerSamples = sharedCornerSamples;
+        if( snapshot.surfaceTotalDegree < 2 )
             dcsd.realRootFinder = new ClosedFormRootFinder();
         else
 //        dcsd.realRootFinder = new DChainRootFinder();
@@ -50,16 +117,85 @@ public class CPUAlgebraicSurfaceRenderer extends AlgebraicSurfaceRenderer
         //dcsd.realRootFinder = new ClosedFormRootFinder();
 //        dcsd.realRootFinder = new GPUSuitableDescartesRootFinder2( false );
         //dcsd.realRootFinder = new BernsteinDescartesRootFinder( false );
+        // the closed form solutions are cheaper than any packet of rays
+        dcsd.rayPacketSize = dcsd.realRootFinder instanceof DescartesRootFinder ? rayPacketSize : 1;
+        dcsd.rootTolerance = dcsd.realRootFinder instanceof DescartesRootFinder ? rootTolerance : 0.0;
+
+        collectShadingData( snapshot, dcsd );
+        
+        dcsd.antiAliasingPattern = snapshot.antiAliasingPattern;
+        dcsd.antiAliasingThreshold = snapshot.antiAliasingThreshold;
+        dcsd.convergenceTolerance = convergenceTolerance;
+        if( gbufferOutput )
+            dcsd.gbuffer = new GBuffer( width, height, dcsd.antiAliasingPattern );
+        dcsd.discontinuityMetric = snapshot.discontinuityMetric;
+        if( temporalDepthHints )
+            dcsd.depthBuffer = temporalDepthBuffer( TemporalDepthBuffer.columns( width, dcsd.antiAliasingPattern ), TemporalDepthBuffer.rows( height, dcsd.antiAliasingPattern ) );
+                
+        dcsd.rayCreator = RayCreator.createRayCreator( snapshot.transform, snapshot.surfaceTransform, snapshot.camera, width, height );
+        dcsd.rayClipper = new ClipToSphere();
+        //dcsd.rayClipper = new ClipToTorus( 0.5, 0.5 );
+        //dcsd.rayClipper = new ClipBlowUpSurface( 1.0, 1.0 );
+        if( silhouetteSpans && dcsd.rayClipper instanceof ClipToSphere )
+            dcsd.silhouette = ClippingSphereSilhouette.create( dcsd.rayCreator, ( ClipToSphere ) dcsd.rayClipper );
+        //dcsd.someA = new PolynomialExpansionRowSubstitutor( getSurfaceExpression(), dcsd.rayCreator.getXForSomeA(), dcsd.rayCreator.getYForSomeA(), dcsd.rayCreator.getZForSomeA() );
+        ExpandedSurface.Substitutors substitutors;
+        // the substitution uses the executor as well, so it must not wait for batch tiles
+        boolean interactive = renderPriority == RenderPriority.INTERACTIVE;
+        if( interactive )
+            scheduler.interactiveDrawcallStarted();
+        try
+        {
+            substitutors = snapshot.expandedSurface.getSubstitutors( dcsd.rayCreator, executor );
+        }
+        finally
+        {
+            if( interactive )
+                scheduler.interactiveDrawcallFinished();
+        }
+        dcsd.surfaceRowSubstitutor = substitutors.surfaceRowSubstitutor;
+        dcsd.gradientRowSubstitutor = substitutors.gradientRowSubstitutor;
+        // the bounds are evaluated on the ray segments within the clipping sphere
+        if( emptySpaceCulling && dcsd.rayClipper instanceof ClipToSphere )
+            dcsd.surfaceBounds = snapshot.expandedSurface.getSurfaceBounds();
+        if( specializedKernels )
+        {
+            SurfaceKernel kernel = SurfaceKernelCache.get( snapshot.expandedSurface, substitutors );
+            if( kernel != null )
+            {
+                dcsd.surfaceRowSubstitutor = kernel.getSurfaceRowSubstitutor();
+                dcsd.gradientRowSubstitutor = kernel.getGradientRowSubstitutor();
+            }
+        }
+        //dcsd.gradientRowSubstitutor = new FastRowSubstitutorForGradient( getGradientXExpression(), getGradientYExpression(), getGradientZExpression(), dcsd.rayCreator );
+
+        //System.out.println( getSurfaceExpression().accept( new ToStringVisitor(), null ) );
+
+        // fill img with bg color
+        if( clearColorBuffer )
+        {
+            int bg = dcsd.backgroundColor.get().getRGB();
+            java.util.Arrays.fill( dcsd.colorBuffer, bg );
+        }
+
+        dcsd.setupNanos = System.nanoTime() - startTime;
+        return dcsd;
+    }
 
-        dcsd.frontAmbientColor = new Color3f( getFrontMaterial().getColor() );
-        dcsd.frontAmbientColor.scale( getFrontMaterial().getAmbientIntensity() );
+    /**
+     * Copies the materials, lights and background color of {@code snapshot} into {@code dcsd}.
+     */
+    private static void collectShadingData( SceneSnapshot snapshot, DrawcallStaticData dcsd )
+    {
+        dcsd.frontAmbientColor = new Color3f( snapshot.frontMaterial.getColor() );
+        dcsd.frontAmbientColor.scale( snapshot.frontMaterial.getAmbientIntensity() );
 
-        dcsd.backAmbientColor = new Color3f( getBackMaterial().getColor() );
-        dcsd.backAmbientColor.scale( getFrontMaterial().getAmbientIntensity() );
+        dcsd.backAmbientColor = new Color3f( snapshot.backMaterial.getColor() );
+        dcsd.backAmbientColor.scale( snapshot.frontMaterial.getAmbientIntensity() );
 
         int numOfLightSources = 0;
         for( int i = 0; i < MAX_LIGHTS; i++ )
-            if( getLightSource( i ) != null && getLightSource( i ).getStatus() == LightSource.Status.ON )
+            if( snapshot.lightSources[ i ] != null && snapshot.lightSources[ i ].getStatus() == LightSource.Status.ON )
                 numOfLightSources++;
         dcsd.lightSources = new LightSource[ numOfLightSources ];
         dcsd.frontLightProducts = new LightProducts[ numOfLightSources ];
@@ -67,72 +203,435 @@ public class CPUAlgebraicSurfaceRenderer extends AlgebraicSurfaceRenderer
         int lightSourceIndex = 0;
         for( int i = 0; i < MAX_LIGHTS; i++ )
         {
-            LightSource lightSource = getLightSource( i );
+            LightSource lightSource = snapshot.lightSources[ i ];
             if( lightSource != null && lightSource.getStatus() == LightSource.Status.ON )
             {
                 dcsd.lightSources[lightSourceIndex] = lightSource;
-                dcsd.frontLightProducts[lightSourceIndex] = new LightProducts( lightSource, getFrontMaterial() );
-                dcsd.backLightProducts[lightSourceIndex] = new LightProducts( lightSource, getBackMaterial() );
+                dcsd.frontLightProducts[lightSourceIndex] = new LightProducts( lightSource, snapshot.frontMaterial );
+                dcsd.backLightProducts[lightSourceIndex] = new LightProducts( lightSource, snapshot.backMaterial );
 
                 lightSourceIndex++;
             }
         }
         
-        dcsd.backgroundColor = getBackgroundColor();
-        
-        dcsd.antiAliasingPattern = getAntiAliasingPattern();
-        dcsd.antiAliasingThreshold = aaThreshold;
-                
-        dcsd.rayCreator = RayCreator.createRayCreator( getTransform(), getSurfaceTransform(), getCamera(), width, height );
-        dcsd.rayClipper = new ClipToSphere();
-        //dcsd.rayClipper = new ClipToTorus( 0.5, 0.5 );
-        //dcsd.rayClipper = new ClipBlowUpSurface( 1.0, 1.0 );
-        //dcsd.someA = new PolynomialExpansionRowSubstitutor( getSurfaceExpression(), dcsd.rayCreator.getXForSomeA(), dcsd.rayCreator.getYForSomeA(), dcsd.rayCreator.getZForSomeA() );
-        dcsd.surfaceRowSubstitutor = new TransformedPolynomialRowSubstitutor( getSurfaceExpression(), dcsd.rayCreator.getXForSomeA(), dcsd.rayCreator.getYForSomeA(), dcsd.rayCreator.getZForSomeA() );
-        dcsd.gradientRowSubstitutor = new TransformedPolynomialRowSubstitutorForGradient( getGradientXExpression(), getGradientYExpression(), getGradientZExpression(), dcsd.rayCreator.getXForSomeA(), dcsd.rayCreator.getYForSomeA(), dcsd.rayCreator.getZForSomeA() );
-        //dcsd.gradientRowSubstitutor = new FastRowSubstitutorForGradient( getGradientXExpression(), getGradientYExpression(), getGradientZExpression(), dcsd.rayCreator );
+        dcsd.backgroundColor = snapshot.backgroundColor;
+    }
 
-        //System.out.println( getSurfaceExpression().accept( new ToStringVisitor(), null ) );
+    /**
+     * Creates a renderer that uses the shared {@link #getDefaultExecutor() default executor}.
+     */
+    public CPUAlgebraicSurfaceRenderer()
+    {
+        this( getDefaultExecutor(), false );
+    }
 
-        // fill img with bg color
-    	int bg = dcsd.backgroundColor.get().getRGB();	
-    	java.util.Arrays.fill( dcsd.colorBuffer, bg );
-        
-        return dcsd;
+    /**
+     * Creates a renderer that executes its rendering tasks on {@code executor}.
+     * The executor is not shut down by {@link #close()}, so it may be shared
+     * among several renderers.
+     * @param executor
+     */
+    public CPUAlgebraicSurfaceRenderer( ExecutorService executor )
+    {
+        this( executor, false );
     }
 
-    public CPUAlgebraicSurfaceRenderer()
+    /**
+     * Creates a renderer that executes its rendering tasks on {@code executor}.
+     * @param executor
+     * @param shutdownExecutorOnClose if {@code true}, {@link #close()} shuts down the executor
+     */
+    public CPUAlgebraicSurfaceRenderer( ExecutorService executor, boolean shutdownExecutorOnClose )
     {
         super();
 
+        if( executor == null )
+            throw new NullPointerException();
+
         this.setAntiAliasingMode( AntiAliasingMode.ADAPTIVE_SUPERSAMPLING );
         this.setAntiAliasingPattern( AntiAliasingPattern.OG_4x4 );
-        
-    	final ThreadGroup tg = new ThreadGroup( "Group of rendering threads of " + this );
-        class PriorityThreadFactory implements ThreadFactory
+
+        this.executor = executor;
+        this.shutdownExecutorOnClose = shutdownExecutorOnClose;
+        this.scheduler = PriorityTileScheduler.forExecutor( executor );
+        this.activeDrawcalls = Collections.newSetFromMap( new ConcurrentHashMap< DrawcallStaticData, java.lang.Boolean >() );
+        this.interruptedDraws = Collections.synchronizedMap( new LinkedHashMap< SceneSnapshot, RenderProgress >() {
+            protected boolean removeEldestEntry( Map.Entry< SceneSnapshot, RenderProgress > eldest ) {
+                return size() > MAX_INTERRUPTED_DRAWS;
+            }
+        } );
+
+        this.tileScheduling = TileScheduling.WORK_STEALING;
+        this.tileSize = 32;
+        this.mortonOrder = true;
+        this.costAwareScheduling = true;
+        this.renderPriority = RenderPriority.INTERACTIVE;
+        this.silhouetteSpans = true;
+    }
+
+    /**
+     * Determines how the image is split into tasks for the rendering threads.
+     */
+    public enum TileScheduling
+    {
+        /**
+         * Split the image into one column per core and three rows and render
+         * each of the resulting tiles as a separate task.
+         */
+        FIXED_GRID,
+        /**
+         * Recursively split the image into tiles of {@link #getTileSize()} pixels,
+         * which are distributed among the threads of a fork/join pool by work stealing.
+         * If the executor of the renderer is not a {@link ForkJoinPool}, the tiles are
+         * queued in the same order and picked up by whichever thread becomes idle.
+         */
+        WORK_STEALING;
+    }
+    private TileScheduling tileScheduling;
+    private RenderPriority renderPriority;
+    private int tileSize;
+    private boolean mortonOrder;
+    private boolean costAwareScheduling;
+    private boolean forwardDifferencing;
+    private int rayPacketSize = 1;
+    private double rootTolerance;
+    private boolean specializedKernels;
+    private boolean emptySpaceCulling;
+    private boolean silhouetteSpans;
+    private boolean depthHints;
+    private boolean temporalDepthHints;
+    private boolean sharedCornerSamples;
+    private boolean gbufferOutput;
+    private volatile GBuffer gbuffer;
+    private TemporalDepthBuffer temporalDepthBuffer;
+    private volatile TileCostMap tileCostMap;
+    private volatile DrawStatistics drawStatistics;
+
+    public void setTileScheduling( TileScheduling tileScheduling )
+    {
+        this.tileScheduling = tileScheduling;
+    }
+
+    public TileScheduling getTileScheduling()
+    {
+        return this.tileScheduling;
+    }
+
+    /**
+     * Determines, which draw calls are preferred by the threads of a shared executor.
+     */
+    public enum RenderPriority
+    {
+        /**
+         * Tiles are submitted to the executor right away. While a draw call of this
+         * priority is in progress, no new tiles of {@link #BATCH} draw calls are started.
+         */
+        INTERACTIVE,
+        /**
+         * Tiles are only started, while no {@link #INTERACTIVE} draw call uses the
+         * same executor. Tiles that have been started are finished and the remaining
+         * tiles are rendered after the interactive draw calls have been finished.
+         */
+        BATCH;
+    }
+
+    public void setRenderPriority( RenderPriority renderPriority )
+    {
+        this.renderPriority = renderPriority;
+    }
+
+    public RenderPriority getRenderPriority()
+    {
+        return this.renderPriority;
+    }
+
+    /**
+     * Sets the edge length of the tiles used by {@link TileScheduling#WORK_STEALING}.
+     * @param tileSize edge length in pixels, must be positive
+     */
+    public void setTileSize( int tileSize )
+    {
+        if( tileSize < 1 )
+            throw new IllegalArgumentException( "tile size must be positive" );
+        this.tileSize = tileSize;
+    }
+
+    public int getTileSize()
+    {
+        return this.tileSize;
+    }
+
+    /**
+     * If enabled, {@link TileScheduling#WORK_STEALING} traverses the tiles in
+     * Morton (Z-)order instead of scanline order.
+     * @param mortonOrder
+     */
+    public void setMortonOrder( boolean mortonOrder )
+    {
+        this.mortonOrder = mortonOrder;
+    }
+
+    public boolean getMortonOrder()
+    {
+        return this.mortonOrder;
+    }
+
+    /**
+     * If enabled, {@link TileScheduling#WORK_STEALING} uses the {@link #getTileCostMap() tile costs}
+     * of the previous frame, if it had the same size: The most expensive tiles are rendered first
+     * and tiles that are much more expensive than the average are split into smaller tiles.
+     * @param costAwareScheduling
+     */
+    public void setCostAwareScheduling( boolean costAwareScheduling )
+    {
+        this.costAwareScheduling = costAwareScheduling;
+    }
+
+    public boolean getCostAwareScheduling()
+    {
+        return this.costAwareScheduling;
+    }
+
+    /**
+     * If enabled, the coefficients of the ray polynomials are advanced from pixel to pixel
+     * along each scanline by forward differencing instead of being evaluated for each pixel.
+     * The difference tables are reseeded at fixed columns, so the image still does not depend
+     * on the tiling, but it may differ from the image without forward differencing due to rounding.
+     * @param forwardDifferencing
+     */
+    public void setForwardDifferencing( boolean forwardDifferencing )
+    {
+        this.forwardDifferencing = forwardDifferencing;
+    }
+
+    public boolean getForwardDifferencing()
+    {
+        return this.forwardDifferencing;
+    }
+
+    /**
+     * Sets the number of neighbouring rays of a scanline whose first intersections with the surface
+     * are searched in lockstep by a {@link PacketRootFinder}. Rays that cannot be handled in lockstep
+     * fall back to the scalar root finder. The roots may differ from the scalar root finder within its tolerance.
+     * @param rayPacketSize 1 (no ray packets, the default) up to {@link PacketRootFinder#MAX_PACKET_SIZE}
+     */
+    public void setRayPacketSize( int rayPacketSize )
+    {
+        if( rayPacketSize < 1 || rayPacketSize > PacketRootFinder.MAX_PACKET_SIZE )
+            throw new IllegalArgumentException( "ray packet size must be between 1 and " + PacketRootFinder.MAX_PACKET_SIZE );
+        this.rayPacketSize = rayPacketSize;
+    }
+
+    public int getRayPacketSize()
+    {
+        return this.rayPacketSize;
+    }
+
+    /**
+     * Sets the accuracy of the intersections of the rays with the surface relative to the footprint of a pixel,
+     * i.e. the distance of the rays of neighbouring pixels at the start of the search interval. The root search
+     * stops refining, once the intersection is accurate to this fraction of a pixel, which saves bisection steps
+     * at low resolutions. The intersections are never refined further than with the default tolerance.
+     * Rays in ray packets keep the tolerance of the {@link PacketRootFinder}.
+     * @param rootTolerance fraction of a pixel or 0 (the default) for the fixed tolerance of the root finder
+     */
+    public void setRootTolerance( double rootTolerance )
+    {
+        if( !( rootTolerance >= 0.0 ) )
+            throw new IllegalArgumentException( "root tolerance must not be negative" );
+        this.rootTolerance = rootTolerance;
+    }
+
+    public double getRootTolerance()
+    {
+        return this.rootTolerance;
+    }
+
+    /**
+     * If enabled, the substitution of the rays into the surface and its gradient is done by
+     * code that is generated for the concrete surface, see {@link SurfaceKernel}. The image does not change.
+     * The generated kernels are shared by all renderers, see {@link SurfaceKernelCache}.
+     * Surfaces of very high degree keep the generic substitution.
+     * @param specializedKernels
+     */
+    public void setSpecializedKernels( boolean specializedKernels )
+    {
+        this.specializedKernels = specializedKernels;
+    }
+
+    public boolean getSpecializedKernels()
+    {
+        return this.specializedKernels;
+    }
+
+    /**
+     * If enabled, each tile is divided into blocks of pixels and the surface polynomial is bounded
+     * by interval arithmetic over the segments of the rays of each block within the clipping sphere.
+     * Blocks, in which the surface provably has no points, are filled with the background color
+     * without tracing their rays. The image does not change. The number of culled pixels is
+     * reported by {@link DrawStatistics#getCulledPixels()}.
+     * @param emptySpaceCulling
+     */
+    public void setEmptySpaceCulling( boolean emptySpaceCulling )
+    {
+        this.emptySpaceCulling = emptySpaceCulling;
+    }
+
+    public boolean getEmptySpaceCulling()
+    {
+        return this.emptySpaceCulling;
+    }
+
+    /**
+     * If enabled (the default), the outline of the clipping sphere on the image is computed once per draw call
+     * and only the rays within its span are traced on each scanline. The remaining samples are filled with
+     * the background color without creating and clipping their rays. The image does not change.
+     * @param silhouetteSpans
+     */
+    public void setSilhouetteSpans( boolean silhouetteSpans )
+    {
+        this.silhouetteSpans = silhouetteSpans;
+    }
+
+    public boolean getSilhouetteSpans()
+    {
+        return this.silhouetteSpans;
+    }
+
+    /**
+     * If enabled, the intersection of the previous sample of a scanline is used as a guess for the
+     * root search of the next sample, see {@link HintedRootFinder}. The full root isolation is only
+     * done, if the guess cannot be confirmed. The intersections may differ within the tolerance of the
+     * root finder, so the image may differ slightly. The ratio of confirmed guesses is reported by
+     * {@link DrawStatistics#getDepthHintHitRatio()}.
+     * @param depthHints
+     */
+    public void setDepthHints( boolean depthHints )
+    {
+        this.depthHints = depthHints;
+    }
+
+    public boolean getDepthHints()
+    {
+        return this.depthHints;
+    }
+
+    /**
+     * If enabled, the intersections of the samples with the surface are kept from one draw call to the
+     * next one with the same size and anti-aliasing pattern, e.g. the frames of an animation. The intersection
+     * of the previous draw call is reprojected onto the new ray of the same sample and used as a guess for
+     * the root search, see {@link HintedRootFinder}. If the guess cannot be confirmed, the full root isolation
+     * is done. Only the samples at pixel centers or corners use guesses, if they are traced one by one.
+     * The intersections may differ within the tolerance of the root finder, so the image may differ slightly.
+     * @param temporalDepthHints
+     */
+    public void setTemporalDepthHints( boolean temporalDepthHints )
+    {
+        this.temporalDepthHints = temporalDepthHints;
+        if( !temporalDepthHints )
         {
-            public Thread newThread(Runnable r) {
-                Thread t = new Thread( tg, r );
-                t.setDaemon( true );
-                t.setPriority( Thread.MIN_PRIORITY );
-                return t;
+            synchronized( this )
+            {
+                temporalDepthBuffer = null;
             }
-        }   
-        
-        this.threadPoolExecutor = Executors.newFixedThreadPool( 2 * Runtime.getRuntime().availableProcessors(), new PriorityThreadFactory() );     
-        this.renderingTasks = new LinkedList< FutureTask< Boolean > >();
+        }
+    }
+
+    public boolean getTemporalDepthHints()
+    {
+        return this.temporalDepthHints;
+    }
+
+    /**
+     * If enabled, the samples at the pixel corners are kept in a buffer of the size of the image, which
+     * is shared by all tiles of a draw call. Without it, the corners at the borders of the tiles are traced
+     * by each adjacent tile, which is significant for small tiles. The image does not change, unless
+     * the tiles take different decisions about the same corner, e.g. with {@link #setEmptySpaceCulling(boolean) culling}.
+     * Has no effect without anti-aliasing, i.e. with {@link AntiAliasingPattern#OG_1x1}.
+     * @param sharedCornerSamples
+     */
+    public void setSharedCornerSamples( boolean sharedCornerSamples )
+    {
+        this.sharedCornerSamples = sharedCornerSamples;
+    }
+
+    public boolean getSharedCornerSamples()
+    {
+        return this.sharedCornerSamples;
+    }
+
+    /**
+     * If enabled, each draw call records the geometry of its samples in a {@link GBuffer}, which is available
+     * by {@link #getGBuffer()} afterwards. The image can then be shaded again with other materials, lights and background
+     * color by {@link #reshade(GBuffer, int[])}, which does not trace any rays. Draw calls with a deadline and resumed
+     * draw calls do not record a G-buffer.
+     * @param gbufferOutput
+     */
+    public void setGBufferOutput( boolean gbufferOutput )
+    {
+        this.gbufferOutput = gbufferOutput;
+        if( !gbufferOutput )
+            this.gbuffer = null;
+    }
+
+    public boolean getGBufferOutput()
+    {
+        return this.gbufferOutput;
+    }
+
+    /**
+     * Returns the G-buffer of the most recently completed draw call, that recorded one, or {@code null}, if there is none,
+     * see {@link #setGBufferOutput(boolean)}.
+     */
+    public GBuffer getGBuffer()
+    {
+        return this.gbuffer;
+    }
+
+    /**
+     * Returns the temporal depth buffer for the sample grid, which is replaced, if the size of the grid changes.
+     */
+    private synchronized TemporalDepthBuffer temporalDepthBuffer( int columns, int rows )
+    {
+        if( temporalDepthBuffer == null || !temporalDepthBuffer.matches( columns, rows ) )
+            temporalDepthBuffer = new TemporalDepthBuffer( columns, rows );
+        return temporalDepthBuffer;
+    }
+
+    /**
+     * Returns the tile costs of the most recently completed frame that was drawn with
+     * {@link TileScheduling#WORK_STEALING} or {@code null}, if there is no such frame.
+     */
+    public TileCostMap getTileCostMap()
+    {
+        return this.tileCostMap;
+    }
+
+    /**
+     * Returns the timings of the most recently completed draw call or {@code null}, if there is none.
+     */
+    public DrawStatistics getDrawStatistics()
+    {
+        return this.drawStatistics;
     }
 
     public enum AntiAliasingMode
     {
         SUPERSAMPLING,
-        ADAPTIVE_SUPERSAMPLING;
+        ADAPTIVE_SUPERSAMPLING,
+        /**
+         * Supersamples only the pixels, in which the geometry seen at the pixel corners is discontinuous,
+         * see {@link #setDiscontinuityMetric(GeometryDiscontinuityMetric)}, regardless of their colors.
+         */
+        GEOMETRY_ADAPTIVE_SUPERSAMPLING;
     }
     private AntiAliasingMode aaMode;
     private float aaThreshold;
     private AntiAliasingPattern aaPattern;
+    private GeometryDiscontinuityMetric discontinuityMetric = GeometryDiscontinuityMetric.DEFAULT;
+    private float convergenceTolerance = 0.5f / 255.0f;
 
-    public void setAntiAliasingMode( AntiAliasingMode mode )
+    public synchronized void setAntiAliasingMode( AntiAliasingMode mode )
     {
         this.aaMode = mode;
         if( mode == AntiAliasingMode.SUPERSAMPLING )
@@ -146,7 +645,22 @@ public class CPUAlgebraicSurfaceRenderer extends AlgebraicSurfaceRenderer
         return this.aaMode;
     }
 
-    public void setAntiAliasingPattern( AntiAliasingPattern pattern )
+    /**
+     * Sets the metric, which decides about supersampling in {@link AntiAliasingMode#GEOMETRY_ADAPTIVE_SUPERSAMPLING}.
+     */
+    public synchronized void setDiscontinuityMetric( GeometryDiscontinuityMetric metric )
+    {
+        if( metric == null )
+            throw new IllegalArgumentException( "metric must not be null" );
+        this.discontinuityMetric = metric;
+    }
+
+    public GeometryDiscontinuityMetric getDiscontinuityMetric()
+    {
+        return this.discontinuityMetric;
+    }
+
+    public synchronized void setAntiAliasingPattern( AntiAliasingPattern pattern )
     {
         this.aaPattern = pattern;
     }
@@ -156,31 +670,348 @@ public class CPUAlgebraicSurfaceRenderer extends AlgebraicSurfaceRenderer
         return this.aaPattern;
     }
 
-    public synchronized void draw( int[] colorBuffer, int width, int height )
+    /**
+     * Sets, when the supersampling of a pixel with a {@link AntiAliasingPattern#isProgressive() progressive}
+     * pattern stops: From 16 sampling points on, the weighted mean of the colors after each power of two of
+     * sampling points is compared with the one after the previous power of two and the remaining sampling points
+     * are skipped, if no color channel has changed by more than the tolerance. A tolerance of 0 evaluates all
+     * sampling points. The default is half of the step of 8 bit colors.
+     * @param convergenceTolerance maximum change of a color channel in [0,1]
+     */
+    public synchronized void setConvergenceTolerance( float convergenceTolerance )
+    {
+        if( !( convergenceTolerance >= 0.0f ) )
+            throw new IllegalArgumentException( "convergence tolerance must not be negative" );
+        this.convergenceTolerance = convergenceTolerance;
+    }
+
+    public float getConvergenceTolerance()
     {
+        return this.convergenceTolerance;
+    }
+
+    public void draw( int[] colorBuffer, int width, int height )
+    {
+        draw( createSnapshot(), colorBuffer, width, height );
+    }
+
+    /**
+     * Draws {@code snapshot} into {@code colorBuffer}. This method may be called
+     * concurrently from several threads, as long as each call uses a separate buffer.
+     * <p>
+     * If the draw call is interrupted, the completed tiles are remembered (see
+     * {@link #getProgress(SceneSnapshot)}). Drawing the same snapshot into the same,
+     * unmodified buffer again renders only the tiles that are still missing.
+     */
+    public void draw( SceneSnapshot snapshot, int[] colorBuffer, int width, int height )
+    {
+        if( closed )
+            throw new IllegalStateException( "renderer has been closed" );
     	if( width == 0 || height == 0 )
     		return;
-    	
-    	DrawcallStaticData dcsd = collectDrawCallStaticData( colorBuffer, width, height );
-    	
-        int xStep = width / Math.min( width, Math.max( 2, Runtime.getRuntime().availableProcessors() ) );
-        int yStep = height / Math.min( height, 3 );//Math.max( 2, Runtime.getRuntime().availableProcessors() ) );
 
-        boolean success = true;
-        
+        draw( snapshot, colorBuffer, width, height, takeProgress( snapshot, colorBuffer, width, height ), null );
+    }
+
+    /**
+     * Returns the progress of an interrupted draw call that can be resumed by
+     * drawing {@code snapshot} into {@code colorBuffer} or a new progress.
+     */
+    private RenderProgress takeProgress( SceneSnapshot snapshot, int[] colorBuffer, int width, int height )
+    {
+        RenderProgress progress = interruptedDraws.remove( snapshot );
+        if( progress != null && progress.matches( snapshot, colorBuffer, width, height ) )
+        {
+            progress.resetIncompleteTiles();
+            return progress;
+        }
+        return new RenderProgress( snapshot, colorBuffer, width, height, tileSize );
+    }
+
+    private void draw( SceneSnapshot snapshot, int[] colorBuffer, int width, int height, RenderProgress progress, TileListener listener )
+    {
+        DrawcallStaticData dcsd = collectDrawCallStaticData( snapshot, colorBuffer, width, height, progress.getCompletedPixels() == 0 );
+        dcsd.progress = progress;
+        dcsd.tileListener = listener;
+
+        try
+        {
+            draw( dcsd );
+        }
+        catch( RenderingInterruptedException rie )
+        {
+            interruptedDraws.put( snapshot, progress );
+            throw rie;
+        }
+    }
+
+    private static class AsyncDrawExecutorHolder
+    {
+        // threads that wait for the tiles of asynchronous draw calls, the tiles are rendered by the executor of the renderer
+        static final ExecutorService ASYNC_DRAW_EXECUTOR = Executors.newCachedThreadPool( new DaemonThreadFactory( "Asynchronous draw call" ) );
+    }
+
+    /**
+     * Starts drawing {@code snapshot} into {@code colorBuffer} and returns immediately.
+     * Completed tiles are reported to {@code listener}, so they can be displayed or
+     * transmitted while the rest of the image is still rendered. Interrupted draw
+     * calls can be resumed like the ones of {@link #draw(SceneSnapshot, int[], int, int)}.
+     * @param listener receives the completed tiles, may be {@code null}
+     * @return a future that yields {@code colorBuffer} and reports the progress of the draw call
+     */
+    public RenderFuture drawAsync( final SceneSnapshot snapshot, final int[] colorBuffer, final int width, final int height, final TileListener listener )
+    {
+        if( closed )
+            throw new IllegalStateException( "renderer has been closed" );
+        final boolean empty = width == 0 || height == 0;
+        final RenderProgress progress = empty ? null : takeProgress( snapshot, colorBuffer, width, height );
+        RenderFuture result = new RenderFuture( new Callable< int[] >() {
+            public int[] call()
+            {
+                if( !empty )
+                    draw( snapshot, colorBuffer, width, height, progress, listener );
+                return colorBuffer;
+            }
+        }, progress );
+        if( empty )
+            result.run();
+        else
+            AsyncDrawExecutorHolder.ASYNC_DRAW_EXECUTOR.execute( result );
+        return result;
+    }
+
+    /**
+     * Returns the progress of the last interrupted draw call of {@code snapshot}
+     * or {@code null}, if there is none. The progress is discarded, when the
+     * snapshot is drawn again.
+     */
+    public RenderProgress getProgress( SceneSnapshot snapshot )
+    {
+        return interruptedDraws.get( snapshot );
+    }
+
+    public RefinementReport draw( int[] colorBuffer, int width, int height, long timeout, TimeUnit unit )
+    {
+        return draw( createSnapshot(), colorBuffer, width, height, timeout, unit );
+    }
+
+    // edge length of the blocks that are refined by deadline-bounded draw calls
+    private static final int REFINEMENT_BLOCK_SIZE = 8;
+
+    /**
+     * Draws {@code snapshot} within a time budget. First, the whole image is rendered
+     * with one sample per pixel. The remaining time is used to render blocks of pixels
+     * with the anti-aliasing pattern of the snapshot, starting with the blocks of highest
+     * contrast. Refinement stops when the timeout expires, but the base pass is always completed.
+     * If the timeout suffices, the image is the same as the one of {@link #draw(SceneSnapshot, int[], int, int)}.
+     * @return a report about the refined part of the image
+     */
+    public RefinementReport draw( SceneSnapshot snapshot, int[] colorBuffer, int width, int height, long timeout, TimeUnit unit )
+    {
+        long startTime = System.nanoTime();
+        long deadline = startTime + unit.toNanos( timeout );
+        if( closed )
+            throw new IllegalStateException( "renderer has been closed" );
+        if( width == 0 || height == 0 )
+            return new RefinementReport( 0, 0, 0, 0, false );
+
+        DrawcallStaticData dcsd = collectDrawCallStaticData( snapshot, colorBuffer, width, height );
+        AntiAliasingPattern pattern = dcsd.antiAliasingPattern;
+        dcsd.antiAliasingPattern = AntiAliasingPattern.OG_1x1;
+        dcsd.gbuffer = null;
+        draw( dcsd );
+        long basePassNanos = System.nanoTime() - startTime;
+
+        if( pattern == AntiAliasingPattern.OG_1x1 )
+            return new RefinementReport( width * height, width * height, basePassNanos, basePassNanos, false );
+
+        DrawcallStaticData refinement = new DrawcallStaticData( dcsd );
+        refinement.antiAliasingPattern = pattern;
+        boolean[] deadlineExpired = { false };
+        int refinedPixels = refine( refinement, deadline, deadlineExpired );
+        return new RefinementReport( refinedPixels, width * height, basePassNanos, System.nanoTime() - startTime, deadlineExpired[ 0 ] );
+    }
+
+    private static class RefinementBlock implements Comparable< RefinementBlock >
+    {
+        int x, y;
+        float contrast;
+
+        public int compareTo( RefinementBlock b )
+        {
+            // highest contrast first
+            return java.lang.Float.compare( b.contrast, contrast );
+        }
+    }
+
+    /**
+     * Re-renders the blocks of an image in order of decreasing contrast until the deadline expires.
+     * @return number of refined pixels
+     */
+    private int refine( final DrawcallStaticData dcsd, final long deadline, boolean[] deadlineExpired )
+    {
+        int width = dcsd.width;
+        int height = dcsd.height;
+        int columns = ( width + REFINEMENT_BLOCK_SIZE - 1 ) / REFINEMENT_BLOCK_SIZE;
+        int rows = ( height + REFINEMENT_BLOCK_SIZE - 1 ) / REFINEMENT_BLOCK_SIZE;
+
+        RefinementBlock[] blocks = new RefinementBlock[ columns * rows ];
+        for( int i = 0; i < blocks.length; ++i )
+        {
+            blocks[ i ] = new RefinementBlock();
+            blocks[ i ].x = ( i % columns ) * REFINEMENT_BLOCK_SIZE;
+            blocks[ i ].y = ( i / columns ) * REFINEMENT_BLOCK_SIZE;
+        }
+        // the contrast of a block is the largest color difference of horizontally or vertically adjacent pixels
+        for( int y = 0; y < height; ++y )
+        {
+            for( int x = 0; x < width; ++x )
+            {
+                int rgb = dcsd.colorBuffer[ y * width + x ];
+                RefinementBlock block = blocks[ ( y / REFINEMENT_BLOCK_SIZE ) * columns + x / REFINEMENT_BLOCK_SIZE ];
+                if( x + 1 < width )
+                {
+                    float diff = rgbDiffSqr( rgb, dcsd.colorBuffer[ y * width + x + 1 ] );
+                    block.contrast = Math.max( block.contrast, diff );
+                    RefinementBlock neighbour = blocks[ ( y / REFINEMENT_BLOCK_SIZE ) * columns + ( x + 1 ) / REFINEMENT_BLOCK_SIZE ];
+                    neighbour.contrast = Math.max( neighbour.contrast, diff );
+                }
+                if( y + 1 < height )
+                {
+                    float diff = rgbDiffSqr( rgb, dcsd.colorBuffer[ ( y + 1 ) * width + x ] );
+                    block.contrast = Math.max( block.contrast, diff );
+                    RefinementBlock neighbour = blocks[ ( ( y + 1 ) / REFINEMENT_BLOCK_SIZE ) * columns + x / REFINEMENT_BLOCK_SIZE ];
+                    neighbour.contrast = Math.max( neighbour.contrast, diff );
+                }
+            }
+        }
+        Arrays.sort( blocks ); // stable, so blocks of equal contrast stay in scanline order
+
+        final java.util.concurrent.atomic.AtomicInteger refinedPixels = new java.util.concurrent.atomic.AtomicInteger();
+        List< Callable< Boolean > > tiles = new ArrayList< Callable< Boolean > >( blocks.length );
+        for( RefinementBlock block : blocks )
+        {
+            final int xEnd = Math.min( block.x + REFINEMENT_BLOCK_SIZE, width ) - 1;
+            final int yEnd = Math.min( block.y + REFINEMENT_BLOCK_SIZE, height ) - 1;
+            final int pixels = ( xEnd - block.x + 1 ) * ( yEnd - block.y + 1 );
+            final RenderingTask task = new RenderingTask( dcsd, block.x, block.y, xEnd, yEnd );
+            tiles.add( new Callable< Boolean >() {
+                public Boolean call()
+                {
+                    if( System.nanoTime() - deadline >= 0 )
+                        return false;
+                    boolean success = task.call();
+                    if( success )
+                        refinedPixels.addAndGet( pixels );
+                    return success;
+                }
+            } );
+        }
+
+        TileQueue queue = new TileQueue( tiles );
         LinkedList< FutureTask< Boolean > > tasks = new LinkedList< FutureTask< Boolean > >();
-    	for( int x = 0; x < width; x += xStep )
-            for( int y = 0; y < height; y += yStep )
-            	tasks.add( new FutureTask< Boolean >( new RenderingTask( dcsd, x, y, Math.min( x + xStep, width - 1 ), Math.min( y + yStep, height - 1 ) ) ) );
-        
-        renderingTasks = tasks;
+        for( int i = 0; i < queue.size(); ++i )
+            tasks.add( new FutureTask< Boolean >( queue.createWorker() ) );
+
+        beginDrawcall( dcsd );
+        boolean success = true;
+        int submitted = 0;
+        try
+        {
+            for( FutureTask< Boolean > task : tasks )
+            {
+                execute( dcsd, task );
+                ++submitted;
+            }
+            for( FutureTask< Boolean > task : tasks )
+            {
+                if( !deadlineExpired[ 0 ] )
+                {
+                    try
+                    {
+                        task.get( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+                        continue;
+                    }
+                    catch( TimeoutException te )
+                    {
+                        // stop the blocks that are still being rendered
+                        deadlineExpired[ 0 ] = true;
+                        dcsd.cancelled = true;
+                    }
+                }
+                task.get();
+            }
+        }
+        catch( ExecutionException ee )
+        {
+            success = false;
+            dcsd.cancelled = true;
+            awaitTiles( dcsd, tasks.subList( 0, submitted ) );
+        }
+        catch( InterruptedException ie )
+        {
+            success = false;
+            dcsd.cancelled = true;
+            Thread.currentThread().interrupt(); // restored again by awaitTiles
+            awaitTiles( dcsd, tasks.subList( 0, submitted ) );
+        }
+        catch( RejectedExecutionException ree )
+        {
+            success = false;
+            dcsd.cancelled = true;
+            awaitTiles( dcsd, tasks.subList( 0, submitted ) );
+        }
+        finally
+        {
+            endDrawcall( dcsd );
+            if( !success || ( dcsd.cancelled && !deadlineExpired[ 0 ] ) )
+            {
+                dcsd.cancelled = true;
+                throw new RenderingInterruptedException( "Rendering interrupted" );
+            }
+        }
+        if( System.nanoTime() - deadline >= 0 && refinedPixels.get() < width * height )
+            deadlineExpired[ 0 ] = true;
+        return refinedPixels.get();
+    }
+
+    private static float rgbDiffSqr( int rgb1, int rgb2 )
+    {
+        float r = ( ( ( rgb1 >> 16 ) & 0xff ) - ( ( rgb2 >> 16 ) & 0xff ) ) / 255f;
+        float g = ( ( ( rgb1 >> 8 ) & 0xff ) - ( ( rgb2 >> 8 ) & 0xff ) ) / 255f;
+        float b = ( ( rgb1 & 0xff ) - ( rgb2 & 0xff ) ) / 255f;
+        return r * r + g * g + b * b;
+    }
+
+    /**
+     * Renders a drawcall, whose data has already been collected.
+     */
+    void draw( DrawcallStaticData dcsd )
+    {
+        if( closed )
+            throw new IllegalStateException( "renderer has been closed" );
+
+        dcsd.renderPriority = renderPriority;
+        beginDrawcall( dcsd );
+
+        boolean success = true;
+        long startTime = System.nanoTime();
         
 		try
         {
-            for( FutureTask< Boolean > task : tasks )
-            	threadPoolExecutor.execute( task );
-        	for( FutureTask< Boolean > task : tasks )
-            	success = success && task.get();
+            if( dcsd.reshadedGBuffer != null )
+            {
+                success = drawFixedGrid( dcsd );
+            }
+            else if( dcsd.progress != null && dcsd.progress.getCompletedPixels() > 0 )
+            {
+                dcsd.gbuffer = null; // the completed tiles have been traced by another draw call
+                success = drawTileQueue( dcsd, new TileQueue( dcsd.progress.createTasksForIncompleteTiles( dcsd ) ) ); // resume
+            }
+            else if( tileScheduling == TileScheduling.WORK_STEALING )
+                success = drawWorkStealing( dcsd );
+            else
+                success = drawFixedGrid( dcsd );
         }
         catch( ExecutionException ie )
         {
@@ -200,14 +1031,236 @@ public class CPUAlgebraicSurfaceRenderer extends AlgebraicSurfaceRenderer
         }
         finally
         {
+        	endDrawcall( dcsd );
         	if( !success || Thread.interrupted() )
-	            	throw new RenderingInterruptedException( "Rendering interrupted" );
+        	{
+        	    dcsd.cancelled = true; // stop the remaining tasks, if the calling thread has been interrupted
+	            throw new RenderingInterruptedException( "Rendering interrupted" );
+        	}
+        }
+        drawStatistics = new DrawStatistics( dcsd, System.nanoTime() - startTime );
+        if( dcsd.gbuffer != null )
+            gbuffer = dcsd.gbuffer;
+    }
+
+    /**
+     * Shades the samples of {@code gbuffer} with the current materials, lights and background color of
+     * this renderer and resolves them into {@code colorBuffer}, see {@link #reshade(SceneSnapshot, GBuffer, int[])}.
+     */
+    public void reshade( GBuffer gbuffer, int[] colorBuffer )
+    {
+        reshade( createSnapshot(), gbuffer, colorBuffer );
+    }
+
+    /**
+     * Shades the samples of {@code gbuffer} with the materials, lights and background color of {@code snapshot}
+     * and resolves them into {@code colorBuffer} of the size of the G-buffer. No rays are traced, so the
+     * geometry, camera and transformations of the snapshot are ignored and the image shows the geometry of the
+     * draw call, that recorded the G-buffer. The supersampled pixels are the same as in that draw call, even if
+     * the new colors would lead to other decisions of {@link AntiAliasingMode#ADAPTIVE_SUPERSAMPLING}.
+     */
+    public void reshade( SceneSnapshot snapshot, GBuffer gbuffer, int[] colorBuffer )
+    {
+        if( closed )
+            throw new IllegalStateException( "renderer has been closed" );
+        if( colorBuffer.length < gbuffer.getWidth() * gbuffer.getHeight() )
+            throw new IllegalArgumentException( "color buffer is smaller than the G-buffer" );
+        if( gbuffer.getWidth() == 0 || gbuffer.getHeight() == 0 )
+            return;
+        long startTime = System.nanoTime();
+        DrawcallStaticData dcsd = new DrawcallStaticData();
+        dcsd.colorBuffer = colorBuffer;
+        dcsd.width = gbuffer.getWidth();
+        dcsd.height = gbuffer.getHeight();
+        collectShadingData( snapshot, dcsd );
+        dcsd.antiAliasingPattern = gbuffer.getAntiAliasingPattern();
+        dcsd.reshadedGBuffer = gbuffer;
+        dcsd.setupNanos = System.nanoTime() - startTime;
+        draw( dcsd );
+    }
+
+    private void beginDrawcall( DrawcallStaticData dcsd )
+    {
+        // scanlines at the pixel centers (OG_1x1) or the pixel corners and the sub-rows of the pattern (all other patterns)
+        int subRows = dcsd.antiAliasingPattern == AntiAliasingPattern.OG_1x1 ? 0 : dcsd.antiAliasingPattern.getSubRows();
+        dcsd.rowSubstitutors = new RowSubstitutorCache( dcsd.surfaceRowSubstitutor, dcsd.gradientRowSubstitutor, dcsd.height + 1, subRows );
+        if( dcsd.sharedCornerSamples && dcsd.antiAliasingPattern != AntiAliasingPattern.OG_1x1 )
+            dcsd.cornerSamples = new CornerSampleStore( dcsd.width, dcsd.height, dcsd.discontinuityMetric != null );
+        activeDrawcalls.add( dcsd );
+        if( dcsd.renderPriority == RenderPriority.INTERACTIVE )
+            scheduler.interactiveDrawcallStarted();
+    }
+
+    private void endDrawcall( DrawcallStaticData dcsd )
+    {
+        activeDrawcalls.remove( dcsd );
+        if( dcsd.renderPriority == RenderPriority.INTERACTIVE )
+            scheduler.interactiveDrawcallFinished();
+    }
+
+    /**
+     * Submits a tile of {@code dcsd} to the executor according to the priority of the drawcall.
+     */
+    private void execute( DrawcallStaticData dcsd, Runnable tile )
+    {
+        if( dcsd.renderPriority == RenderPriority.BATCH )
+            scheduler.executeBatch( tile );
+        else
+            executor.execute( tile );
+    }
+
+    private boolean drawFixedGrid( DrawcallStaticData dcsd )
+        throws ExecutionException, InterruptedException
+    {
+        int width = dcsd.width;
+        int height = dcsd.height;
+        int xStep = width / Math.min( width, Math.max( 2, Runtime.getRuntime().availableProcessors() ) );
+        int yStep = height / Math.min( height, 3 );//Math.max( 2, Runtime.getRuntime().availableProcessors() ) );
+
+        LinkedList< FutureTask< Boolean > > tasks = new LinkedList< FutureTask< Boolean > >();
+    	for( int x = 0; x < width; x += xStep )
+            for( int y = 0; y < height; y += yStep )
+            	tasks.add( new FutureTask< Boolean >( new RenderingTask( dcsd, x, y, Math.min( x + xStep, width ) - 1, Math.min( y + yStep, height ) - 1 ) ) );
+        
+        return executeTiles( dcsd, tasks );
+    }
+
+    private boolean drawWorkStealing( DrawcallStaticData dcsd )
+        throws ExecutionException, InterruptedException
+    {
+        int tileSize = this.tileSize;
+        TileCostMap previousCosts = this.tileCostMap;
+        dcsd.tileCosts = new TileCostMap.Recorder( dcsd.width, dcsd.height, tileSize );
+
+        boolean success;
+        if( costAwareScheduling && previousCosts != null && previousCosts.matches( dcsd.width, dcsd.height, tileSize ) )
+        {
+            success = drawTileQueue( dcsd, TileQueue.orderByCost( dcsd, previousCosts ) );
+        }
+        else
+        {
+            TileRenderingAction root = new TileRenderingAction( dcsd, 0, 0, dcsd.width - 1, dcsd.height - 1, tileSize, mortonOrder );
+            if( executor instanceof ForkJoinPool && dcsd.renderPriority != RenderPriority.BATCH )
+            {
+                ( ( ForkJoinPool ) executor ).execute( root );
+                // the root completes only after all of its subregions, even if a tile fails
+                success = awaitTiles( dcsd, Collections.singletonList( root ) ) && !dcsd.cancelled;
+            }
+            else
+            {
+                // no work stealing available or batch drawcall -> queue the tiles in the same order
+                List< RenderingTask > tiles = new ArrayList< RenderingTask >();
+                for( TileRenderingAction tile : root.getTiles() )
+                    tiles.add( tile.toRenderingTask() );
+                success = drawTileQueue( dcsd, new TileQueue( tiles ) );
+            }
+        }
+
+        if( success )
+            this.tileCostMap = dcsd.tileCosts.toTileCostMap();
+        return success;
+    }
+
+    private boolean drawTileQueue( DrawcallStaticData dcsd, TileQueue queue )
+        throws ExecutionException, InterruptedException
+    {
+        LinkedList< FutureTask< Boolean > > tasks = new LinkedList< FutureTask< Boolean > >();
+        for( int i = 0; i < queue.size(); ++i )
+            tasks.add( new FutureTask< Boolean >( queue.createWorker() ) );
+
+        return executeTiles( dcsd, tasks );
+    }
+
+    /**
+     * Submits the tiles of a draw call and waits for all of them, even if some of them fail or the calling
+     * thread is interrupted. Otherwise tiles of an interrupted draw call could still be running, when it is
+     * resumed, and complete a tile of its {@link RenderProgress} a second time.
+     * @return {@code true}, if all tiles have been completed
+     */
+    private boolean executeTiles( DrawcallStaticData dcsd, List< FutureTask< Boolean > > tasks )
+    {
+        int submitted = 0;
+        try
+        {
+            for( FutureTask< Boolean > task : tasks )
+            {
+                execute( dcsd, task );
+                ++submitted;
+            }
+        }
+        catch( RejectedExecutionException ree )
+        {
+            dcsd.cancelled = true;
+            awaitTiles( dcsd, tasks.subList( 0, submitted ) );
+            throw ree;
         }
+        return awaitTiles( dcsd, tasks );
     }
 
+    /**
+     * Waits for all tiles. If the calling thread is interrupted, the remaining tiles are cancelled
+     * and the interruption flag is restored after waiting.
+     * @return {@code true}, if all tiles have been completed
+     */
+    private static boolean awaitTiles( DrawcallStaticData dcsd, List< ? extends Future< ? > > tasks )
+    {
+        boolean success = true;
+        boolean interrupted = false;
+        for( Future< ? > task : tasks )
+        {
+            while( true )
+            {
+                try
+                {
+                    // tasks without a result, like a TileRenderingAction, only fail by an exception
+                    boolean completed = !java.lang.Boolean.FALSE.equals( task.get() );
+                    success = success && completed;
+                    break;
+                }
+                catch( InterruptedException ie )
+                {
+                    interrupted = true;
+                    dcsd.cancelled = true;
+                }
+                catch( ExecutionException ee )
+                {
+                    success = false;
+                    break;
+                }
+                catch( CancellationException ce )
+                {
+                    success = false;
+                    break;
+                }
+            }
+        }
+        if( interrupted )
+            Thread.currentThread().interrupt();
+        return success && !interrupted;
+    }
+
+    /**
+     * Stops all drawing operations of this renderer. Tasks of other renderers
+     * that share the same executor are not affected.
+     */
     public void stopDrawing()
     {
-    	for( FutureTask< Boolean > f : renderingTasks )
-    		f.cancel( true );
+        // threads of the executor may be shared with other renderers,
+        // so the running tasks are stopped via the cancelled flag instead of interrupts
+        for( DrawcallStaticData dcsd : activeDrawcalls )
+            dcsd.cancelled = true;
+    }
+
+    /**
+     * Stops drawing and releases the resources of this renderer. The executor
+     * is shut down only if requested at construction time. Subsequent calls to
+     * {@link #draw(int[], int, int)} throw an {@link IllegalStateException}.
+     */
+    public void close()
+    {
+        closed = true;
+        stopDrawing();
+        if( shutdownExecutorOnClose )
+            executor.shutdown();
     }
 }
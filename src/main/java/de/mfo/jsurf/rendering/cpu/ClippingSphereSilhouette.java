@@ -0,0 +1,160 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.mfo.jsurf.rendering.cpu;
+
+import de.mfo.jsurf.rendering.cpu.clipping.*;
+
+/**
+ * Outline of the clipping sphere on the viewing plane. A ray o + t * d intersects the sphere of
+ * radius r, iff {@code (o.d)^2 - |d|^2 (|o|^2 - r^2) >= 0}. The rays of the orthographic camera
+ * have a constant direction and the rays of the perspective camera a constant origin, while the
+ * other part depends affinely on (u,v). In both cases the discriminant is a quadratic polynomial
+ * in (u,v), i.e. the outline is a conic, whose coefficients are computed once per draw call.
+ * On each scanline, only the rays within the span of the conic need to be traced.
+ */
+final class ClippingSphereSilhouette
+{
+    // relative tolerance of the discriminant, which covers the rounding errors of the rays and of the fit
+    private static final double TOLERANCE = 1e-9;
+
+    // discriminant a * u^2 + b * u * v + c * v^2 + d * u + e * v + f relative to the center (u0,v0)
+    private final double a, b, c, d, e, f;
+    private final double u0, v0;
+    // absolute tolerance of the discriminant
+    private final double tolerance;
+
+    private ClippingSphereSilhouette( double a, double b, double c, double d, double e, double f, double u0, double v0, double tolerance )
+    {
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.d = d;
+        this.e = e;
+        this.f = f;
+        this.u0 = u0;
+        this.v0 = v0;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Determines the conic from the discriminants of nine rays around the center of the viewing plane.
+     * The fit is exact up to rounding, because the discriminant is a quadratic polynomial.
+     */
+    static ClippingSphereSilhouette create( RayCreator rayCreator, ClipToSphere sphere )
+    {
+        double u0 = 0.5 * ( rayCreator.getUInterval().x + rayCreator.getUInterval().y );
+        double v0 = 0.5 * ( rayCreator.getVInterval().x + rayCreator.getVInterval().y );
+        double hu = 0.5 * ( rayCreator.getUInterval().y - rayCreator.getUInterval().x );
+        double hv = 0.5 * ( rayCreator.getVInterval().y - rayCreator.getVInterval().x );
+        double r = sphere.getRadius();
+        Ray ray = new Ray( new javax.vecmath.Point3d(), new javax.vecmath.Vector3d() );
+        double[][] D = new double[ 3 ][ 3 ];
+        double magnitude = 0.0;
+        for( int i = 0; i < 3; ++i )
+        {
+            for( int j = 0; j < 3; ++j )
+            {
+                rayCreator.createClippingSpaceRay( u0 + ( i - 1 ) * hu, v0 + ( j - 1 ) * hv, ray );
+                double od = ray.o.x * ray.d.x + ray.o.y * ray.d.y + ray.o.z * ray.d.z;
+                double oo = ray.o.x * ray.o.x + ray.o.y * ray.o.y + ray.o.z * ray.o.z;
+                double dd = ray.d.lengthSquared();
+                D[ i ][ j ] = od * od - dd * ( oo - r * r );
+                magnitude = Math.max( magnitude, od * od + dd * ( oo + r * r ) );
+            }
+        }
+        // coefficients with respect to the normalized offsets ( u - u0 ) / hu and ( v - v0 ) / hv
+        double f = D[ 1 ][ 1 ];
+        double a = 0.5 * ( D[ 2 ][ 1 ] + D[ 0 ][ 1 ] ) - f;
+        double c = 0.5 * ( D[ 1 ][ 2 ] + D[ 1 ][ 0 ] ) - f;
+        double d = 0.5 * ( D[ 2 ][ 1 ] - D[ 0 ][ 1 ] );
+        double e = 0.5 * ( D[ 1 ][ 2 ] - D[ 1 ][ 0 ] );
+        double b = 0.25 * ( D[ 2 ][ 2 ] - D[ 2 ][ 0 ] - D[ 0 ][ 2 ] + D[ 0 ][ 0 ] );
+        return new ClippingSphereSilhouette( a / ( hu * hu ), b / ( hu * hv ), c / ( hv * hv ), d / hu, e / hv, f, u0, v0, TOLERANCE * magnitude );
+    }
+
+    /**
+     * Restricts the columns {@code firstColumn..lastColumn} of the samples at {@code u_start + column * u_incr}
+     * on the scanline at {@code v} to those, whose rays may intersect the sphere. The span is conservative,
+     * i.e. it may contain some columns whose rays miss the sphere, e.g. columns between two branches of a hyperbola.
+     * @param span receives the first and the last column of the span
+     * @return {@code false}, if none of the rays intersects the sphere
+     */
+    boolean span( double v, double u_start, double u_incr, int firstColumn, int lastColumn, int[] span )
+    {
+        // discriminant along the scanline: qa * x^2 + qb * x + qc with x = u - u0
+        double y = v - v0;
+        double qa = a;
+        double qb = b * y + d;
+        double qc = ( c * y + e ) * y + f + tolerance;
+
+        // ... and in terms of the column k: A * k^2 + B * k + C with x = xs + k * u_incr
+        double xs = u_start - u0;
+        double A = qa * u_incr * u_incr;
+        double B = ( 2.0 * qa * xs + qb ) * u_incr;
+        double C = ( qa * xs + qb ) * xs + qc;
+
+        double lower = firstColumn;
+        double upper = lastColumn;
+        double disc = B * B - 4.0 * A * C;
+        if( A != 0.0 && disc >= 0.0 )
+        {
+            // numerically stable roots
+            double q = -0.5 * ( B + Math.copySign( Math.sqrt( disc ), B ) );
+            double k0 = q / A;
+            double k1 = q != 0.0 ? C / q : k0;
+            double kLow = Math.min( k0, k1 );
+            double kHigh = Math.max( k0, k1 );
+            if( A < 0.0 )
+            {
+                // ellipse: the rays between the roots hit the sphere
+                lower = Math.max( lower, Math.floor( kLow ) );
+                upper = Math.min( upper, Math.ceil( kHigh ) );
+            }
+            else
+            {
+                // hyperbola or parabola: the rays outside of the roots hit the sphere
+                boolean left = firstColumn <= Math.ceil( kLow );
+                boolean right = lastColumn >= Math.floor( kHigh );
+                if( !left && !right )
+                    return false;
+                if( !left )
+                    lower = Math.max( lower, Math.floor( kHigh ) );
+                if( !right )
+                    upper = Math.min( upper, Math.ceil( kLow ) );
+            }
+        }
+        else if( A < 0.0 || ( A == 0.0 && B == 0.0 && C < 0.0 ) )
+        {
+            return false;
+        }
+        else if( A == 0.0 && B != 0.0 )
+        {
+            // the outline is a line
+            double k = Math.floor( -C / B );
+            if( B > 0.0 )
+                lower = Math.max( lower, k );
+            else
+                upper = Math.min( upper, k + 1.0 );
+        }
+        if( !( lower <= upper ) )
+            return false;
+        span[ 0 ] = ( int ) lower;
+        span[ 1 ] = ( int ) upper;
+        return true;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.mfo.jsurf.rendering.cpu;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Colors (and the geometry, if the draw call uses a {@link GeometryDiscontinuityMetric}) of the samples
+ * at the pixel corners of a draw call, which are shared by all tiles. Adjacent tiles have a row or column
+ * of pixel corners in common. The first tile that needs a corner claims it and traces its ray, all other
+ * tiles copy the sample, waiting for it if it is still being traced. Thus each corner is traced once per
+ * draw call, regardless of the size and the order of the tiles.
+ */
+final class CornerSampleStore
+{
+    private static final int UNTRACED = 0;
+    private static final int TRACING = 1;
+    private static final int TRACED = 2;
+
+    private final int columns;
+    private final float[] colors;
+    private final float[] geometry;
+    private final AtomicIntegerArray states;
+
+    /**
+     * @param geometry whether the geometry of the samples is stored besides their colors
+     */
+    CornerSampleStore( int width, int height, boolean geometry )
+    {
+        this.columns = width + 1;
+        int corners = columns * ( height + 1 );
+        this.colors = new float[ 3 * corners ];
+        this.geometry = geometry ? new float[ GeometryDiscontinuityMetric.STRIDE * corners ] : null;
+        this.states = new AtomicIntegerArray( corners );
+    }
+
+    /**
+     * @return index of the corner at the lower left of pixel {@code (x,y)} of the image
+     */
+    int index( int x, int y )
+    {
+        return y * columns + x;
+    }
+
+    /**
+     * Claims the corner for tracing by the calling thread.
+     * @return {@code true}, if the corner has not been claimed before
+     */
+    boolean claim( int corner )
+    {
+        return states.get( corner ) == UNTRACED && states.compareAndSet( corner, UNTRACED, TRACING );
+    }
+
+    /**
+     * Gives up a claimed corner without a sample, so that another tile traces it.
+     */
+    void release( int corner )
+    {
+        states.compareAndSet( corner, TRACING, UNTRACED );
+    }
+
+    boolean isTraced( int corner )
+    {
+        return states.get( corner ) == TRACED;
+    }
+
+    /**
+     * Stores the sample of a claimed corner, which is taken from the given offsets (counted in samples) of the buffers of a tile.
+     */
+    void publish( int corner, float[] tileColors, float[] tileGeometry, int sample )
+    {
+        System.arraycopy( tileColors, 3 * sample, colors, 3 * corner, 3 );
+        if( geometry != null )
+            System.arraycopy( tileGeometry, GeometryDiscontinuityMetric.STRIDE * sample, geometry, GeometryDiscontinuityMetric.STRIDE * corner, GeometryDiscontinuityMetric.STRIDE );
+        states.set( corner, TRACED ); // volatile write, so the sample is visible to all threads that see the state
+    }
+
+    /**
+     * Copies the sample of a traced corner into the buffers of a tile.
+     */
+    void copy( int corner, float[] tileColors, float[] tileGeometry, int sample )
+    {
+        System.arraycopy( colors, 3 * corner, tileColors, 3 * sample, 3 );
+        if( geometry != null )
+            System.arraycopy( geometry, GeometryDiscontinuityMetric.STRIDE * corner, tileGeometry, GeometryDiscontinuityMetric.STRIDE * sample, GeometryDiscontinuityMetric.STRIDE );
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import java.util.concurrent.*;
+
+/**
+ * Creates daemon threads with the given name, so that helper threads of the
+ * renderer do not keep the JVM alive.
+ */
+class DaemonThreadFactory implements ThreadFactory
+{
+    private String name;
+
+    DaemonThreadFactory( String name ) { this.name = name; }
+
+    public Thread newThread( Runnable r )
+    {
+        Thread t = new Thread( r, name );
+        t.setDaemon( true );
+        return t;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+/**
+ * Timings of a completed draw call, see {@link CPUAlgebraicSurfaceRenderer#getDrawStatistics()}.
+ */
+public final class DrawStatistics
+{
+    private final int width;
+    private final int height;
+    private final long setupNanos;
+    private final long traceNanos;
+    private final int substitutedRows;
+    private final long rays;
+    private final long antiAliasingSamples;
+    private final long culledPixels;
+    private final long samplesOutsideSilhouette;
+    private final long hintedRootSearches;
+    private final long depthHintHits;
+    private final long temporalHintSearches;
+    private final long temporalHintHits;
+    private final long copiedCornerSamples;
+
+    DrawStatistics( DrawcallStaticData dcsd, long traceNanos )
+    {
+        this.width = dcsd.width;
+        this.height = dcsd.height;
+        this.setupNanos = dcsd.setupNanos;
+        this.traceNanos = traceNanos;
+        this.substitutedRows = dcsd.rowSubstitutors == null ? 0 : dcsd.rowSubstitutors.getSubstitutedRows();
+        this.rays = dcsd.rays.get();
+        this.antiAliasingSamples = dcsd.antiAliasingSamples.get();
+        this.culledPixels = dcsd.culledPixels.get();
+        this.samplesOutsideSilhouette = dcsd.samplesOutsideSilhouette.get();
+        this.hintedRootSearches = dcsd.hintedRootSearches.get();
+        this.depthHintHits = dcsd.depthHintHits.get();
+        this.temporalHintSearches = dcsd.temporalHintSearches.get();
+        this.temporalHintHits = dcsd.temporalHintHits.get();
+        this.copiedCornerSamples = dcsd.copiedCornerSamples.get();
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    /**
+     * @return time in nanoseconds that was spent on the preparation of the draw call,
+     * i.e. creating the rays and substituting them into the surface and its gradient
+     */
+    public long getSetupNanos() { return setupNanos; }
+
+    /**
+     * @return time in nanoseconds that was spent on tracing the rays of all tiles
+     */
+    public long getTraceNanos() { return traceNanos; }
+
+    /**
+     * @return number of scanlines (including the sub-rows of supersampled pixels) whose column
+     * substitutors have been computed; each scanline is substituted once per draw call, regardless of the number of tiles
+     */
+    public int getSubstitutedRows() { return substitutedRows; }
+
+    /**
+     * @return number of traced rays at the pixel centers or, if anti-aliasing is enabled, at the pixel corners
+     */
+    public long getRays() { return rays; }
+
+    /**
+     * @return number of additional samples of the supersampled pixels
+     */
+    public long getAntiAliasingSamples() { return antiAliasingSamples; }
+
+    /**
+     * @return average number of traced samples per pixel
+     */
+    public double getSamplesPerPixel()
+    {
+        return width * height == 0 ? 0.0 : ( double ) ( rays + antiAliasingSamples ) / ( ( long ) width * height );
+    }
+
+    /**
+     * @return number of pixels that have been filled with the background color without tracing,
+     * because the surface provably does not intersect their rays, see {@link CPUAlgebraicSurfaceRenderer#setEmptySpaceCulling(boolean)}
+     */
+    public long getCulledPixels() { return culledPixels; }
+
+    /**
+     * @return number of samples at pixel centers (or at pixel corners, if anti-aliasing is enabled) outside the
+     * outline of the clipping sphere, which have been filled with the background color without creating their rays,
+     * see {@link CPUAlgebraicSurfaceRenderer#setSilhouetteSpans(boolean)}
+     */
+    public long getSamplesOutsideSilhouette() { return samplesOutsideSilhouette; }
+
+    /**
+     * @return number of root searches that have been started with the intersection of the previous sample
+     * of the scanline as a guess, see {@link CPUAlgebraicSurfaceRenderer#setDepthHints(boolean)}
+     */
+    public long getHintedRootSearches() { return hintedRootSearches; }
+
+    /**
+     * @return number of hinted root searches, in which the guess has been confirmed and the full root isolation has been skipped
+     */
+    public long getDepthHintHits() { return depthHintHits; }
+
+    /**
+     * @return fraction of the hinted root searches, in which the guess has been confirmed
+     */
+    public double getDepthHintHitRatio()
+    {
+        return hintedRootSearches == 0 ? 0.0 : ( double ) depthHintHits / hintedRootSearches;
+    }
+
+    /**
+     * @return number of samples, whose root search started with the reprojected intersection of the previous
+     * draw call, see {@link CPUAlgebraicSurfaceRenderer#setTemporalDepthHints(boolean)}
+     */
+    public long getTemporalHintSearches() { return temporalHintSearches; }
+
+    /**
+     * @return number of samples, in which the reprojected intersection of the previous draw call has been confirmed
+     */
+    public long getTemporalHintHits() { return temporalHintHits; }
+
+    /**
+     * @return number of pixel corners at the borders of the tiles, whose samples have been taken from
+     * a neighbouring tile instead of being traced again, see {@link CPUAlgebraicSurfaceRenderer#setSharedCornerSamples(boolean)}
+     */
+    public long getCopiedCornerSamples() { return copiedCornerSamples; }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%dx%d: setup %.1fms, trace %.1fms", width, height, setupNanos / 1e6, traceNanos / 1e6 );
+    }
+}
@@ -32,6 +32,28 @@ class DrawcallStaticData
     RowSubstitutor surfaceRowSubstitutor;
     RowSubstitutorForGradient gradientRowSubstitutor;
     RealRootFinder realRootFinder;
+    int surfaceTotalDegree;
+
+    // step the surface coefficients along scanlines by forward differencing
+    boolean forwardDifferencing;
+
+    // number of neighbouring rays whose first roots are found in lockstep, 1 disables ray packets
+    int rayPacketSize = 1;
+
+    // accuracy of the intersections as a fraction of the footprint of a pixel, 0 uses the tolerance of the root finder
+    double rootTolerance;
+
+    // bounds of the surface polynomial for culling blocks of rays that cannot hit the surface, null disables culling
+    PolynomialBounds surfaceBounds;
+
+    // restricts the traced samples of each scanline to the outline of the clipping sphere, if not null
+    ClippingSphereSilhouette silhouette;
+
+    // uses the intersection of the previous sample of a scanline as a guess for the root search
+    boolean depthHints;
+
+    // intersections of the previous draw call, which are used as guesses for the root search, if not null
+    TemporalDepthBuffer depthBuffer;
     
     LightSource[] lightSources;
     Color3f frontAmbientColor;
@@ -42,7 +64,103 @@ class DrawcallStaticData
     
     AntiAliasingPattern antiAliasingPattern;
     float antiAliasingThreshold;
+    float convergenceTolerance;
+
+    // decides about supersampling by the geometry at the pixel corners instead of their colors, if not null
+    GeometryDiscontinuityMetric discontinuityMetric;
     
     RayCreator rayCreator;
     Clipper rayClipper;
+
+    // column substitutors of the scanlines, shared by all tiles; created when the drawcall begins
+    RowSubstitutorCache rowSubstitutors;
+
+    // samples at the pixel corners, shared by all tiles, if sharedCornerSamples is set; created when the drawcall begins
+    boolean sharedCornerSamples;
+    CornerSampleStore cornerSamples;
+
+    // records the geometry of the samples, if not null
+    GBuffer gbuffer;
+
+    // shades the samples of this G-buffer instead of tracing rays, if not null
+    GBuffer reshadedGBuffer;
+
+    // set by CPUAlgebraicSurfaceRenderer.stopDrawing() to abort all tasks of this drawcall
+    volatile boolean cancelled;
+
+    // collects the cost of each tile, if not null
+    TileCostMap.Recorder tileCosts;
+
+    // tracks the completed tiles, if not null
+    RenderProgress progress;
+
+    // receives the completed tiles, if not null
+    TileListener tileListener;
+
+    CPUAlgebraicSurfaceRenderer.RenderPriority renderPriority = CPUAlgebraicSurfaceRenderer.RenderPriority.INTERACTIVE;
+
+    // time spent in CPUAlgebraicSurfaceRenderer.collectDrawCallStaticData
+    long setupNanos;
+
+    // number of traced rays at pixel centers or corners and of additional anti-aliasing samples
+    final java.util.concurrent.atomic.AtomicLong rays = new java.util.concurrent.atomic.AtomicLong();
+    final java.util.concurrent.atomic.AtomicLong antiAliasingSamples = new java.util.concurrent.atomic.AtomicLong();
+
+    // number of pixels that have been filled with the background color without tracing
+    final java.util.concurrent.atomic.AtomicLong culledPixels = new java.util.concurrent.atomic.AtomicLong();
+
+    // number of samples outside the outline of the clipping sphere, whose rays have not been created
+    final java.util.concurrent.atomic.AtomicLong samplesOutsideSilhouette = new java.util.concurrent.atomic.AtomicLong();
+
+    // number of root searches with a depth hint and the number of confirmed hints
+    final java.util.concurrent.atomic.AtomicLong hintedRootSearches = new java.util.concurrent.atomic.AtomicLong();
+    final java.util.concurrent.atomic.AtomicLong depthHintHits = new java.util.concurrent.atomic.AtomicLong();
+
+    // number of root searches with a guess from the temporal depth buffer and the number of confirmed guesses
+    final java.util.concurrent.atomic.AtomicLong temporalHintSearches = new java.util.concurrent.atomic.AtomicLong();
+    final java.util.concurrent.atomic.AtomicLong temporalHintHits = new java.util.concurrent.atomic.AtomicLong();
+
+    // number of pixel corners that have been copied from the shared store instead of being traced
+    final java.util.concurrent.atomic.AtomicLong copiedCornerSamples = new java.util.concurrent.atomic.AtomicLong();
+
+    DrawcallStaticData()
+    {
+    }
+
+    /**
+     * Creates a new drawcall for the same scene and buffer, e.g. to render it
+     * with another anti-aliasing pattern. Cancellation and statistics are not copied.
+     */
+    DrawcallStaticData( DrawcallStaticData dcsd )
+    {
+        this.colorBuffer = dcsd.colorBuffer;
+        this.width = dcsd.width;
+        this.height = dcsd.height;
+        this.coefficientCalculator = dcsd.coefficientCalculator;
+        this.surfaceRowSubstitutor = dcsd.surfaceRowSubstitutor;
+        this.gradientRowSubstitutor = dcsd.gradientRowSubstitutor;
+        this.realRootFinder = dcsd.realRootFinder;
+        this.surfaceTotalDegree = dcsd.surfaceTotalDegree;
+        this.forwardDifferencing = dcsd.forwardDifferencing;
+        this.rayPacketSize = dcsd.rayPacketSize;
+        this.rootTolerance = dcsd.rootTolerance;
+        this.surfaceBounds = dcsd.surfaceBounds;
+        this.silhouette = dcsd.silhouette;
+        this.depthHints = dcsd.depthHints;
+        this.depthBuffer = dcsd.depthBuffer;
+        this.sharedCornerSamples = dcsd.sharedCornerSamples;
+        this.lightSources = dcsd.lightSources;
+        this.frontAmbientColor = dcsd.frontAmbientColor;
+        this.backAmbientColor = dcsd.backAmbientColor;
+        this.frontLightProducts = dcsd.frontLightProducts;
+        this.backLightProducts = dcsd.backLightProducts;
+        this.backgroundColor = dcsd.backgroundColor;
+        this.antiAliasingPattern = dcsd.antiAliasingPattern;
+        this.antiAliasingThreshold = dcsd.antiAliasingThreshold;
+        this.convergenceTolerance = dcsd.convergenceTolerance;
+        this.discontinuityMetric = dcsd.discontinuityMetric;
+        this.rayCreator = dcsd.rayCreator;
+        this.rayClipper = dcsd.rayClipper;
+        this.renderPriority = dcsd.renderPriority;
+    }
 }
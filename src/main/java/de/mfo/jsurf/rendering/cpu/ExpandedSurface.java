@@ -0,0 +1,225 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import de.mfo.jsurf.algebra.*;
+import de.mfo.jsurf.rendering.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Expanded form of a concrete surface and its gradient together with the row
+ * substitutors that have recently been derived from it. Instances are shared by
+ * all {@link SceneSnapshot}s of equal surfaces, so that the expensive expansion
+ * and substitution is done only once per surface and camera setup.
+ */
+class ExpandedSurface
+{
+    private static final int MAX_CACHED_SUBSTITUTORS = 4;
+    private static final int MAX_SHARED_SURFACES = 8;
+
+    // the recently used surfaces of all renderers by their string form, least recently used first
+    private static final LinkedHashMap< String, ExpandedSurface > sharedSurfaces = new LinkedHashMap< String, ExpandedSurface >( 16, 0.75f, true ) {
+        protected boolean removeEldestEntry( Map.Entry< String, ExpandedSurface > eldest ) {
+            return size() > MAX_SHARED_SURFACES;
+        }
+    };
+
+    static class Substitutors
+    {
+        final XYZPolynomial rayXComponent;
+        final XYZPolynomial rayYComponent;
+        final XYZPolynomial rayZComponent;
+        final RowSubstitutor surfaceRowSubstitutor;
+        final RowSubstitutorForGradient gradientRowSubstitutor;
+
+        Substitutors( XYZPolynomial rayXComponent, XYZPolynomial rayYComponent, XYZPolynomial rayZComponent, RowSubstitutor surfaceRowSubstitutor, RowSubstitutorForGradient gradientRowSubstitutor )
+        {
+            this.rayXComponent = rayXComponent;
+            this.rayYComponent = rayYComponent;
+            this.rayZComponent = rayZComponent;
+            this.surfaceRowSubstitutor = surfaceRowSubstitutor;
+            this.gradientRowSubstitutor = gradientRowSubstitutor;
+        }
+
+        boolean matches( XYZPolynomial x, XYZPolynomial y, XYZPolynomial z )
+        {
+            return rayXComponent.equals( x ) && rayYComponent.equals( y ) && rayZComponent.equals( z );
+        }
+    }
+
+    final PolynomialOperation surfaceExpression;
+    final PolynomialOperation gradientXExpression;
+    final PolynomialOperation gradientYExpression;
+    final PolynomialOperation gradientZExpression;
+
+    private XYZPolynomial surface;
+    private XYZPolynomial gradientX;
+    private XYZPolynomial gradientY;
+    private XYZPolynomial gradientZ;
+    private PolynomialBounds surfaceBounds;
+
+    // most recently used first
+    private LinkedList< Substitutors > substitutors;
+
+    private ExpandedSurface( PolynomialOperation surfaceExpression, PolynomialOperation gradientXExpression, PolynomialOperation gradientYExpression, PolynomialOperation gradientZExpression )
+    {
+        this.surfaceExpression = surfaceExpression;
+        this.gradientXExpression = gradientXExpression;
+        this.gradientYExpression = gradientYExpression;
+        this.gradientZExpression = gradientZExpression;
+        this.substitutors = new LinkedList< Substitutors >();
+    }
+
+    /**
+     * Returns the expanded form of a concrete surface, whose parameters have been substituted. Surfaces
+     * are equal, if their string forms are, so a surface that has been parsed again or whose parameters
+     * have been set to the same values again shares the instance of one of the recently used surfaces.
+     */
+    static ExpandedSurface forSurface( PolynomialOperation surfaceExpression, PolynomialOperation gradientXExpression, PolynomialOperation gradientYExpression, PolynomialOperation gradientZExpression )
+    {
+        String key = surfaceExpression.accept( new ToStringVisitor(), ( Void ) null );
+        synchronized( sharedSurfaces )
+        {
+            ExpandedSurface surface = sharedSurfaces.get( key );
+            if( surface == null )
+            {
+                // not expanded yet, this is done lazily by the first draw call
+                surface = new ExpandedSurface( surfaceExpression, gradientXExpression, gradientYExpression, gradientZExpression );
+                sharedSurfaces.put( key, surface );
+            }
+            return surface;
+        }
+    }
+
+    /**
+     * Returns the row substitutors for the surface and its gradient along the rays
+     * of {@code rayCreator}. Substitutors are reused, if the rays of a previous
+     * call had the same parametrization. Otherwise the surface and the three
+     * components of the gradient are expanded and substituted in parallel on
+     * {@code executor} and the calling thread.
+     */
+    synchronized Substitutors getSubstitutors( RayCreator rayCreator, Executor executor )
+    {
+        Expand expand = new Expand();
+        XYZPolynomial x = rayCreator.getXForSomeA().accept( expand, ( Void ) null );
+        XYZPolynomial y = rayCreator.getYForSomeA().accept( expand, ( Void ) null );
+        XYZPolynomial z = rayCreator.getZForSomeA().accept( expand, ( Void ) null );
+
+        for( Iterator< Substitutors > it = substitutors.iterator(); it.hasNext(); )
+        {
+            Substitutors s = it.next();
+            if( s.matches( x, y, z ) )
+            {
+                it.remove();
+                substitutors.addFirst( s );
+                return s;
+            }
+        }
+
+        if( surface == null )
+        {
+            // expand the polynomials together with the first substitution
+            FutureTask< XYZPolynomial > gx = submit( executor, expansion( gradientXExpression ) );
+            FutureTask< XYZPolynomial > gy = submit( executor, expansion( gradientYExpression ) );
+            FutureTask< XYZPolynomial > gz = submit( executor, expansion( gradientZExpression ) );
+            XYZPolynomial expandedSurface = surfaceExpression.accept( expand, ( Void ) null );
+            gradientX = get( gx );
+            gradientY = get( gy );
+            gradientZ = get( gz );
+            surface = expandedSurface;
+        }
+
+        FutureTask< TransformedPolynomialRowSubstitutor > gxs = submit( executor, substitution( gradientX, x, y, z ) );
+        FutureTask< TransformedPolynomialRowSubstitutor > gys = submit( executor, substitution( gradientY, x, y, z ) );
+        FutureTask< TransformedPolynomialRowSubstitutor > gzs = submit( executor, substitution( gradientZ, x, y, z ) );
+        RowSubstitutor surfaceRowSubstitutor = new TransformedPolynomialRowSubstitutor( surface, x, y, z );
+
+        Substitutors s = new Substitutors( x, y, z,
+            surfaceRowSubstitutor,
+            new TransformedPolynomialRowSubstitutorForGradient( get( gxs ), get( gys ), get( gzs ) ) );
+        substitutors.addFirst( s );
+        if( substitutors.size() > MAX_CACHED_SUBSTITUTORS )
+            substitutors.removeLast();
+        return s;
+    }
+
+    /**
+     * Returns the interval bounds of the expanded surface. Must not be called before {@link #getSubstitutors}.
+     */
+    synchronized PolynomialBounds getSurfaceBounds()
+    {
+        if( surfaceBounds == null )
+            surfaceBounds = new PolynomialBounds( surface );
+        return surfaceBounds;
+    }
+
+    private static Callable< XYZPolynomial > expansion( final PolynomialOperation expression )
+    {
+        return new Callable< XYZPolynomial >() {
+            public XYZPolynomial call() {
+                return expression.accept( new Expand(), ( Void ) null );
+            }
+        };
+    }
+
+    private static Callable< TransformedPolynomialRowSubstitutor > substitution( final XYZPolynomial p, final XYZPolynomial x, final XYZPolynomial y, final XYZPolynomial z )
+    {
+        return new Callable< TransformedPolynomialRowSubstitutor >() {
+            public TransformedPolynomialRowSubstitutor call() {
+                return new TransformedPolynomialRowSubstitutor( p, x, y, z );
+            }
+        };
+    }
+
+    private static < T > FutureTask< T > submit( Executor executor, Callable< T > callable )
+    {
+        FutureTask< T > task = new FutureTask< T >( callable );
+        try
+        {
+            executor.execute( task );
+        }
+        catch( RejectedExecutionException ree )
+        {
+            task.run(); // executor has been shut down -> compute on the calling thread
+        }
+        return task;
+    }
+
+    private static < T > T get( FutureTask< T > task )
+    {
+        try
+        {
+            return task.get();
+        }
+        catch( InterruptedException ie )
+        {
+            task.cancel( false );
+            Thread.currentThread().interrupt();
+            throw new RenderingInterruptedException( "Rendering interrupted" );
+        }
+        catch( ExecutionException ee )
+        {
+            if( ee.getCause() instanceof RuntimeException )
+                throw ( RuntimeException ) ee.getCause();
+            if( ee.getCause() instanceof Error )
+                throw ( Error ) ee.getCause();
+            throw new RuntimeException( ee.getCause() );
+        }
+    }
+}
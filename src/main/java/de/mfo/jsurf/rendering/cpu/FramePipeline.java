@@ -0,0 +1,116 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Renders a sequence of frames (e.g. an animation or a turntable) with a
+ * {@link CPUAlgebraicSurfaceRenderer}, while the per-frame setup (ray creation,
+ * substitution of the rays into the surface, ...) of the next frames is done on
+ * a separate thread. Frames are rendered one after another in the order of
+ * submission. At most {@code lookAhead} frames are prepared in advance of the
+ * frame that is currently rendered; {@link #submit} blocks if this limit is reached.
+ * <p>
+ * Each frame must be drawn into its own buffer, because the buffer of a frame is
+ * cleared during its setup, i.e. possibly before the previous frame is finished.
+ */
+public class FramePipeline implements java.io.Closeable
+{
+    private CPUAlgebraicSurfaceRenderer renderer;
+    private ExecutorService setupExecutor;
+    private ExecutorService renderExecutor;
+    private Semaphore framesInFlight;
+    private volatile boolean closed;
+
+    /**
+     * @param renderer renderer that draws the frames
+     * @param lookAhead maximum number of frames that are prepared while another frame is rendered, must be positive
+     */
+    public FramePipeline( CPUAlgebraicSurfaceRenderer renderer, int lookAhead )
+    {
+        if( lookAhead < 1 )
+            throw new IllegalArgumentException( "look-ahead must be positive" );
+        this.renderer = renderer;
+        this.setupExecutor = Executors.newSingleThreadExecutor( new DaemonThreadFactory( "Frame setup thread of " + renderer ) );
+        this.renderExecutor = Executors.newSingleThreadExecutor( new DaemonThreadFactory( "Frame rendering thread of " + renderer ) );
+        this.framesInFlight = new Semaphore( lookAhead + 1 );
+    }
+
+    /**
+     * Enqueues a frame. Blocks while the maximum number of frames is already prepared.
+     * @return a future that yields {@code colorBuffer} after the frame has been rendered
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public Future< int[] > submit( final SceneSnapshot snapshot, final int[] colorBuffer, final int width, final int height )
+        throws InterruptedException
+    {
+        if( closed )
+            throw new IllegalStateException( "pipeline has been closed" );
+
+        framesInFlight.acquire();
+        try
+        {
+            final Future< DrawcallStaticData > setup;
+            if( width == 0 || height == 0 )
+                setup = null;
+            else
+                setup = setupExecutor.submit( new Callable< DrawcallStaticData >() {
+                    public DrawcallStaticData call() {
+                        return renderer.collectDrawCallStaticData( snapshot, colorBuffer, width, height );
+                    }
+                } );
+
+            FutureTask< int[] > frame = new FutureTask< int[] >( new Callable< int[] >() {
+                public int[] call()
+                    throws Exception
+                {
+                    try
+                    {
+                        if( setup != null )
+                            renderer.draw( setup.get() );
+                        return colorBuffer;
+                    }
+                    finally
+                    {
+                        framesInFlight.release();
+                    }
+                }
+            } );
+            renderExecutor.execute( frame );
+            return frame;
+        }
+        catch( RejectedExecutionException ree )
+        {
+            framesInFlight.release();
+            throw new IllegalStateException( "pipeline has been closed", ree );
+        }
+    }
+
+    /**
+     * Stops the frame that is currently rendered and cancels all pending frames.
+     */
+    public void close()
+    {
+        closed = true;
+        setupExecutor.shutdownNow();
+        List< Runnable > pendingFrames = renderExecutor.shutdownNow();
+        for( Runnable frame : pendingFrames )
+            ( ( Future< ? > ) frame ).cancel( false );
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.mfo.jsurf.rendering.cpu;
+
+import javax.vecmath.*;
+
+/**
+ * Geometry of the samples of a draw call, from which the image can be shaded again with other materials,
+ * lights and background color without tracing any rays, see {@link CPUAlgebraicSurfaceRenderer#setGBufferOutput(boolean)}
+ * and {@link CPUAlgebraicSurfaceRenderer#reshade(GBuffer, int[])}. Each sample keeps the side of the surface
+ * that has been hit (or that the ray missed the surface), the hit point, the normal facing the viewer and the
+ * direction to the viewer, all in camera space. The samples of the pixel centers (for {@link AntiAliasingPattern#OG_1x1})
+ * or of the pixel corners (for all other patterns) form a regular grid, the additional samples of the supersampled
+ * pixels are kept per pixel together with the number of sampling points of the anti-aliasing pattern they cover.
+ * The coordinates are stored with single precision, so reshading with the same materials and lights may differ
+ * from the original image by one color level.
+ */
+public final class GBuffer
+{
+    static final int STRIDE = 10;
+    static final int SIDE = 0; // 1 for the front side, -1 for the back side, 0 for a miss
+    static final int POINT = 1;
+    static final int NORMAL = 4;
+    static final int VIEW = 7;
+
+    private final int width;
+    private final int height;
+    private final AntiAliasingPattern pattern;
+    private final int columns;
+    private final int rows;
+    private final float[] samples;
+
+    // supersampled pixels: number of evaluated sampling points of the pattern (0, if the corners are averaged)
+    // and the array and offset of the samples that are not at the pixel corners; null for OG_1x1
+    private final int[] evaluatedPoints;
+    private final float[][] supersamples;
+    private final int[] supersampleOffsets;
+
+    GBuffer( int width, int height, AntiAliasingPattern pattern )
+    {
+        this.width = width;
+        this.height = height;
+        this.pattern = pattern;
+        this.columns = TemporalDepthBuffer.columns( width, pattern );
+        this.rows = TemporalDepthBuffer.rows( height, pattern );
+        this.samples = new float[ STRIDE * columns * rows ];
+        if( pattern == AntiAliasingPattern.OG_1x1 )
+        {
+            this.evaluatedPoints = null;
+            this.supersamples = null;
+            this.supersampleOffsets = null;
+        }
+        else
+        {
+            this.evaluatedPoints = new int[ width * height ];
+            this.supersamples = new float[ width * height ][];
+            this.supersampleOffsets = new int[ width * height ];
+        }
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public AntiAliasingPattern getAntiAliasingPattern() { return pattern; }
+
+    /**
+     * @return number of columns of the grid of samples, i.e. {@code getWidth()} for {@link AntiAliasingPattern#OG_1x1}
+     * and {@code getWidth() + 1} otherwise
+     */
+    public int getColumns() { return columns; }
+
+    /**
+     * @return number of rows of the grid of samples, i.e. {@code getHeight()} for {@link AntiAliasingPattern#OG_1x1}
+     * and {@code getHeight() + 1} otherwise
+     */
+    public int getRows() { return rows; }
+
+    /**
+     * @return 1, if the sample of the grid hit the front side of the surface, -1 for the back side and 0, if it missed the surface
+     */
+    public int getSide( int column, int row )
+    {
+        return ( int ) samples[ STRIDE * ( row * columns + column ) + SIDE ];
+    }
+
+    /**
+     * Stores the hit point of a sample of the grid in camera space in {@code p}; undefined, if the sample missed the surface.
+     */
+    public void getHitPoint( int column, int row, Tuple3f p )
+    {
+        int i = STRIDE * ( row * columns + column ) + POINT;
+        p.set( samples[ i ], samples[ i + 1 ], samples[ i + 2 ] );
+    }
+
+    /**
+     * Stores the unit normal of a sample of the grid in camera space, which faces the viewer, in {@code n};
+     * undefined, if the sample missed the surface.
+     */
+    public void getNormal( int column, int row, Tuple3f n )
+    {
+        int i = STRIDE * ( row * columns + column ) + NORMAL;
+        n.set( samples[ i ], samples[ i + 1 ], samples[ i + 2 ] );
+    }
+
+    /**
+     * @return fraction of pixel {@code (x,y)} that is covered by the surface, i.e. the weighted fraction of its samples that hit the surface
+     */
+    public float getCoverage( int x, int y )
+    {
+        float[][] arrays = new float[ maxSamplesPerPixel() ][];
+        int[] offsets = new int[ arrays.length ];
+        float[] weights = new float[ arrays.length ];
+        int count = getPixelSamples( x, y, arrays, offsets, weights );
+        float covered = 0f;
+        float total = 0f;
+        for( int i = 0; i < count; ++i )
+        {
+            if( arrays[ i ][ offsets[ i ] + SIDE ] != 0f )
+                covered += weights[ i ];
+            total += weights[ i ];
+        }
+        return total == 0f ? 0f : covered / total;
+    }
+
+    /**
+     * @return size of the arrays passed to {@link #getPixelSamples}
+     */
+    int maxSamplesPerPixel()
+    {
+        return Math.max( 4, pattern.size() );
+    }
+
+    /**
+     * Collects the samples of pixel {@code (x,y)}: sample {@code i} is stored in {@code arrays[i]} at {@code offsets[i]}
+     * and is weighted by {@code weights[i]}. The weights of an averaged pixel are 1/4 for each corner. The weights of
+     * a supersampled pixel are the ones of the pattern, which sum up to 1 only, if all sampling points are evaluated.
+     * @return number of samples
+     */
+    int getPixelSamples( int x, int y, float[][] arrays, int[] offsets, float[] weights )
+    {
+        if( evaluatedPoints == null )
+        {
+            arrays[ 0 ] = samples;
+            offsets[ 0 ] = STRIDE * ( y * columns + x );
+            weights[ 0 ] = 1f;
+            return 1;
+        }
+        int ll = STRIDE * ( y * columns + x );
+        int lr = ll + STRIDE;
+        int ul = ll + STRIDE * columns;
+        int ur = ul + STRIDE;
+        int pixel = y * width + x;
+        int points = evaluatedPoints[ pixel ];
+        if( points == 0 )
+        {
+            for( int i = 0; i < 4; ++i )
+            {
+                arrays[ i ] = samples;
+                weights[ i ] = 0.25f;
+            }
+            offsets[ 0 ] = ul;
+            offsets[ 1 ] = ur;
+            offsets[ 2 ] = ll;
+            offsets[ 3 ] = lr;
+            return 4;
+        }
+        int offset = supersampleOffsets[ pixel ];
+        for( int i = 0; i < points; ++i )
+        {
+            AntiAliasingPattern.SamplingPoint sp = pattern.get( i );
+            arrays[ i ] = samples;
+            if( sp.getU() == 0.0 && sp.getV() == 0.0 )
+                offsets[ i ] = ll;
+            else if( sp.getU() == 0.0 && sp.getV() == 1.0 )
+                offsets[ i ] = ul;
+            else if( sp.getU() == 1.0 && sp.getV() == 1.0 )
+                offsets[ i ] = ur;
+            else if( sp.getU() == 1.0 && sp.getV() == 0.0 )
+                offsets[ i ] = lr;
+            else
+            {
+                arrays[ i ] = supersamples[ pixel ];
+                offsets[ i ] = offset;
+                offset += STRIDE;
+            }
+            weights[ i ] = sp.getWeight();
+        }
+        return points;
+    }
+
+    /**
+     * @return the packed samples of the grid, see {@link #STRIDE}
+     */
+    float[] getGridSamples() { return samples; }
+
+    /**
+     * Adds the samples of the supersampled pixels of a tile. For the {@code i}-th pixel, {@code pixels[3*i]} is
+     * the index of the pixel, {@code pixels[3*i+1]} the number of evaluated sampling points and {@code pixels[3*i+2]}
+     * the offset of its first sample in {@code tileSamples}.
+     */
+    void addSupersamples( int[] pixels, int pixelCount, float[] tileSamples, int length )
+    {
+        float[] copy = new float[ length ];
+        System.arraycopy( tileSamples, 0, copy, 0, length );
+        for( int i = 0; i < pixelCount; ++i )
+        {
+            int pixel = pixels[ 3 * i ];
+            evaluatedPoints[ pixel ] = pixels[ 3 * i + 1 ];
+            supersamples[ pixel ] = copy;
+            supersampleOffsets[ pixel ] = pixels[ 3 * i + 2 ];
+        }
+    }
+}
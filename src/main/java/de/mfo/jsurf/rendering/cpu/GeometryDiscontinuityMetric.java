@@ -0,0 +1,87 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.mfo.jsurf.rendering.cpu;
+
+/**
+ * Decides, whether the geometry seen at two neighbouring samples is discontinuous, which triggers supersampling
+ * of the pixel in {@link CPUAlgebraicSurfaceRenderer.AntiAliasingMode#GEOMETRY_ADAPTIVE_SUPERSAMPLING}.
+ * The geometry is discontinuous, if
+ * <ul>
+ * <li>only one of the rays hits the surface (silhouettes and the border of the clipping sphere),</li>
+ * <li>the rays hit different sides of the surface, i.e. front and back material,</li>
+ * <li>the distances of the intersections to the eye differ by more than the relative depth threshold or</li>
+ * <li>the angle between the normals exceeds the normal angle threshold.</li>
+ * </ul>
+ * Instances are immutable.
+ */
+public final class GeometryDiscontinuityMetric
+{
+    public static final GeometryDiscontinuityMetric DEFAULT = new GeometryDiscontinuityMetric( 0.05, 20.0 );
+
+    // layout of the geometry of a sample in a packed float array
+    static final int STRIDE = 5;
+    static final int SIDE = 0; // 0 if the ray misses the surface, 1 for the front side and -1 for the back side
+    static final int DEPTH = 1; // distance of the intersection to the eye
+    static final int NORMAL = 2; // unit normal facing the eye
+
+    private final double relativeDepthThreshold;
+    private final double normalAngleThreshold;
+    private final double cosNormalAngleThreshold;
+
+    /**
+     * @param relativeDepthThreshold maximum difference of the distances to the eye relative to the smaller distance
+     * @param normalAngleThreshold maximum angle between the normals in degrees
+     */
+    public GeometryDiscontinuityMetric( double relativeDepthThreshold, double normalAngleThreshold )
+    {
+        if( !( relativeDepthThreshold >= 0.0 ) )
+            throw new IllegalArgumentException( "relative depth threshold must not be negative" );
+        if( !( normalAngleThreshold >= 0.0 && normalAngleThreshold <= 180.0 ) )
+            throw new IllegalArgumentException( "normal angle threshold must be between 0 and 180 degrees" );
+        this.relativeDepthThreshold = relativeDepthThreshold;
+        this.normalAngleThreshold = normalAngleThreshold;
+        this.cosNormalAngleThreshold = Math.cos( Math.toRadians( normalAngleThreshold ) );
+    }
+
+    public double getRelativeDepthThreshold() { return relativeDepthThreshold; }
+    public double getNormalAngleThreshold() { return normalAngleThreshold; }
+
+    /**
+     * Compares the samples starting at {@code a} and {@code b} in the packed array {@code geometry}.
+     */
+    boolean isDiscontinuous( float[] geometry, int a, int b )
+    {
+        float side = geometry[ a + SIDE ];
+        if( side != geometry[ b + SIDE ] )
+            return true;
+        if( side == 0f )
+            return false;
+        float depthA = geometry[ a + DEPTH ];
+        float depthB = geometry[ b + DEPTH ];
+        if( Math.abs( depthA - depthB ) > relativeDepthThreshold * Math.min( depthA, depthB ) )
+            return true;
+        double cos = geometry[ a + NORMAL ] * geometry[ b + NORMAL ] + geometry[ a + NORMAL + 1 ] * geometry[ b + NORMAL + 1 ] + geometry[ a + NORMAL + 2 ] * geometry[ b + NORMAL + 2 ];
+        return cos < cosNormalAngleThreshold;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "relative depth %.3f, normal angle %.1f degrees", relativeDepthThreshold, normalAngleThreshold );
+    }
+}
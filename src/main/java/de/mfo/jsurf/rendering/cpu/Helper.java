@@ -29,4 +29,16 @@ final class Helper
     {
         return new Point3d( p.x + dx.x * u + dy.x * v, p.y + dx.y * u + dy.y * v, p.z + dx.z * u + dy.z * v );
     }
+
+    // variants without allocation, which store the result in the last parameter
+
+    static void interpolate1D( Tuple3d p, Tuple3d d, double t, Tuple3d result )
+    {
+        result.set( p.x + d.x * t, p.y + d.y * t, p.z + d.z * t );
+    }
+
+    static void interpolate2D( Tuple3d p, Tuple3d dx, Tuple3d dy, double u, double v, Tuple3d result )
+    {
+        result.set( p.x + dx.x * u + dy.x * v, p.y + dx.y * u + dy.y * v, p.z + dx.z * u + dy.z * v );
+    }
 }
@@ -170,6 +170,27 @@ public class OrthographicCameraRayCreator extends RayCreator
         return new Ray( Helper.interpolate2D( this.clippingRayOrigin, this.clippingDu, this.clippingDv, u, v ), this.clippingRayDir );
     }
 
+    @Override
+    void createCameraSpaceRay( double u, double v, Ray result )
+    {
+        Helper.interpolate2D( this.rayOrigin, this.du, this.dv, u, v, result.o );
+        result.d.set( this.rayDir );
+    }
+
+    @Override
+    void createSurfaceSpaceRay( double u, double v, Ray result )
+    {
+        Helper.interpolate2D( this.surfaceRayOrigin, this.surfaceDu, this.surfaceDv, u, v, result.o );
+        result.d.set( this.surfaceRayDir );
+    }
+
+    @Override
+    void createClippingSpaceRay( double u, double v, Ray result )
+    {
+        Helper.interpolate2D( this.clippingRayOrigin, this.clippingDu, this.clippingDv, u, v, result.o );
+        result.d.set( this.clippingRayDir );
+    }
+
     @Override
     public double getEyeLocationOnRay()
     {
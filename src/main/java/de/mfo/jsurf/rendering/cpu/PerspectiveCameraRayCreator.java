@@ -113,6 +113,33 @@ public class PerspectiveCameraRayCreator extends RayCreator
         result.d.scale( scale );
         return result;
     }
+
+    @Override
+    void createCameraSpaceRay( double u, double v, Ray result )
+    {
+        createRay( this.upperLeft, this.dx, this.dy, this.rayOrigin, u, v, result );
+    }
+
+    @Override
+    void createSurfaceSpaceRay( double u, double v, Ray result )
+    {
+        createRay( this.surfaceUpperLeft, this.surfaceDx, this.surfaceDy, this.surfaceRayOrigin, u, v, result );
+    }
+
+    @Override
+    void createClippingSpaceRay( double u, double v, Ray result )
+    {
+        createRay( this.clippingUpperLeft, this.clippingDx, this.clippingDy, this.clippingRayOrigin, u, v, result );
+    }
+
+    // same arithmetic as create*Ray( u, v ), but without allocation
+    private void createRay( Point3d upperLeft, Vector3d dx, Vector3d dy, Point3d origin, double u, double v, Ray result )
+    {
+        Helper.interpolate2D( upperLeft, dx, dy, u, v, result.d );
+        result.d.sub( origin );
+        Helper.interpolate1D( origin, result.d, bestStart, result.o );
+        result.d.scale( scale );
+    }
     
     @Override
     public double getEyeLocationOnRay() { return -this.bestStart; }
@@ -0,0 +1,137 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Lets interactive draw calls preempt batch draw calls on a shared executor.
+ * Tiles of batch draw calls are not submitted to the executor directly. Instead,
+ * they are queued here and for each tile a token is submitted that runs the next
+ * queued batch tile. While an interactive draw call is in progress, tokens do not
+ * start batch tiles but are put aside and resubmitted once all interactive draw
+ * calls are finished. Thus batch tiles that are already running are completed,
+ * but no new batch tiles are started, and the batch draw calls continue afterwards.
+ */
+class PriorityTileScheduler
+{
+    private static final Map< Executor, PriorityTileScheduler > schedulers = new WeakHashMap< Executor, PriorityTileScheduler >();
+
+    /**
+     * Returns the scheduler, which is shared by all renderers using {@code executor}.
+     */
+    static PriorityTileScheduler forExecutor( Executor executor )
+    {
+        synchronized( schedulers )
+        {
+            PriorityTileScheduler scheduler = schedulers.get( executor );
+            if( scheduler == null )
+            {
+                scheduler = new PriorityTileScheduler( executor );
+                schedulers.put( executor, scheduler );
+            }
+            return scheduler;
+        }
+    }
+
+    // not a strong reference to the executor, otherwise the entry in the weak map would never be removed
+    private final java.lang.ref.WeakReference< Executor > executor;
+    private final Queue< Runnable > batchTiles;
+    private int interactiveDrawcalls;
+    private int deferredTokens;
+
+    private PriorityTileScheduler( Executor executor )
+    {
+        this.executor = new java.lang.ref.WeakReference< Executor >( executor );
+        this.batchTiles = new ConcurrentLinkedQueue< Runnable >();
+    }
+
+    private final Runnable token = new Runnable() {
+        public void run()
+        {
+            synchronized( PriorityTileScheduler.this )
+            {
+                if( interactiveDrawcalls > 0 )
+                {
+                    deferredTokens++;
+                    return;
+                }
+            }
+            Runnable tile = batchTiles.poll();
+            if( tile != null )
+                tile.run();
+        }
+    };
+
+    /**
+     * Queues a tile of a batch draw call.
+     */
+    void executeBatch( Runnable tile )
+    {
+        Executor executor = this.executor.get();
+        if( executor == null )
+            throw new RejectedExecutionException();
+        batchTiles.add( tile );
+        try
+        {
+            executor.execute( token );
+        }
+        catch( RejectedExecutionException ree )
+        {
+            batchTiles.remove( tile );
+            throw ree;
+        }
+    }
+
+    void interactiveDrawcallStarted()
+    {
+        synchronized( this )
+        {
+            interactiveDrawcalls++;
+        }
+    }
+
+    void interactiveDrawcallFinished()
+    {
+        int tokens;
+        synchronized( this )
+        {
+            if( --interactiveDrawcalls > 0 )
+                return;
+            tokens = deferredTokens;
+            deferredTokens = 0;
+        }
+        Executor executor = this.executor.get();
+        for( int i = 0; i < tokens; ++i )
+        {
+            try
+            {
+                if( executor == null )
+                    throw new RejectedExecutionException();
+                executor.execute( token );
+            }
+            catch( RejectedExecutionException ree )
+            {
+                // executor has been shut down -> cancel the tile, so that its draw call does not wait forever
+                Runnable tile = batchTiles.poll();
+                if( tile instanceof Future )
+                    ( ( Future< ? > ) tile ).cancel( false );
+            }
+        }
+    }
+}
@@ -91,10 +91,26 @@ public abstract class RayCreator
         return t_n;
     }
 
+    void surfaceSpaceNormalToCameraSpaceNormal( Vector3d n, Vector3d result )
+    {
+        surfaceSpaceNormalToCameraSpaceNormalMatrix.transform( n, result );
+    }
+
     public abstract Ray createCameraSpaceRay( double u, double v );
     public abstract Ray createSurfaceSpaceRay( double u, double v );
     public abstract Ray createClippingSpaceRay( double u, double v );
 
+    // variants without allocation, which store the ray in result (result must not share its origin or direction with other rays)
+    void createCameraSpaceRay( double u, double v, Ray result ) { set( createCameraSpaceRay( u, v ), result ); }
+    void createSurfaceSpaceRay( double u, double v, Ray result ) { set( createSurfaceSpaceRay( u, v ), result ); }
+    void createClippingSpaceRay( double u, double v, Ray result ) { set( createClippingSpaceRay( u, v ), result ); }
+
+    private static void set( Ray r, Ray result )
+    {
+        result.o.set( r.o );
+        result.d.set( r.d );
+    }
+
     public abstract double getEyeLocationOnRay();
 
     public abstract PolynomialOperation getXForSomeA();
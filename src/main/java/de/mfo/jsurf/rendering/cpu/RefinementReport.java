@@ -0,0 +1,76 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+/**
+ * Result of a deadline-bounded draw call, see
+ * {@link CPUAlgebraicSurfaceRenderer#draw(SceneSnapshot, int[], int, int, long, java.util.concurrent.TimeUnit)}.
+ */
+public final class RefinementReport
+{
+    private final int refinedPixels;
+    private final int totalPixels;
+    private final long basePassNanos;
+    private final long elapsedNanos;
+    private final boolean deadlineExpired;
+
+    RefinementReport( int refinedPixels, int totalPixels, long basePassNanos, long elapsedNanos, boolean deadlineExpired )
+    {
+        this.refinedPixels = refinedPixels;
+        this.totalPixels = totalPixels;
+        this.basePassNanos = basePassNanos;
+        this.elapsedNanos = elapsedNanos;
+        this.deadlineExpired = deadlineExpired;
+    }
+
+    /**
+     * @return number of pixels that have been rendered with the full anti-aliasing pattern
+     */
+    public int getRefinedPixels() { return refinedPixels; }
+
+    public int getTotalPixels() { return totalPixels; }
+
+    /**
+     * @return fraction of the image that has been rendered with the full anti-aliasing pattern
+     */
+    public double getRefinedFraction()
+    {
+        return totalPixels == 0 ? 1.0 : ( double ) refinedPixels / totalPixels;
+    }
+
+    /**
+     * @return time in nanoseconds that was spent on the base pass with one sample per pixel
+     */
+    public long getBasePassNanos() { return basePassNanos; }
+
+    /**
+     * @return total time of the draw call in nanoseconds
+     */
+    public long getElapsedNanos() { return elapsedNanos; }
+
+    /**
+     * @return {@code true}, if refinement was stopped because the deadline expired
+     */
+    public boolean isDeadlineExpired() { return deadlineExpired; }
+
+    @Override
+    public String toString()
+    {
+        return String.format( "%.1f%% of %d pixels refined in %.1fms (base pass %.1fms)%s",
+            100.0 * getRefinedFraction(), totalPixels, elapsedNanos / 1e6, basePassNanos / 1e6, deadlineExpired ? ", deadline expired" : "" );
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import java.util.concurrent.*;
+
+/**
+ * Pending result of an asynchronous draw call, see
+ * {@link CPUAlgebraicSurfaceRenderer#drawAsync(SceneSnapshot, int[], int, int, TileListener)}.
+ * The future yields the color buffer. If the draw call is interrupted, {@link #get()}
+ * throws an {@link ExecutionException} caused by a
+ * {@link de.mfo.jsurf.rendering.RenderingInterruptedException}.
+ */
+public final class RenderFuture extends FutureTask< int[] >
+{
+    private final RenderProgress progress;
+
+    RenderFuture( Callable< int[] > callable, RenderProgress progress )
+    {
+        super( callable );
+        this.progress = progress;
+    }
+
+    /**
+     * @return the progress of the draw call, which is updated while the tiles are completed,
+     * or {@code null}, if the image is empty
+     */
+    public RenderProgress getProgress()
+    {
+        return progress;
+    }
+
+    /**
+     * Cancels the draw call. Tiles that are being rendered are always stopped,
+     * regardless of {@code mayInterruptIfRunning}.
+     */
+    @Override
+    public boolean cancel( boolean mayInterruptIfRunning )
+    {
+        // interrupting the waiting thread cancels the tiles of the draw call
+        return super.cancel( true );
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Tracks which tiles of a draw call have been completed. The image is divided
+ * into a regular grid of {@code tileSize x tileSize} tiles (tiles at the right and
+ * bottom border may be smaller). If a draw call is interrupted, its progress is kept
+ * by the renderer, see {@link CPUAlgebraicSurfaceRenderer#getProgress(SceneSnapshot)},
+ * and a later draw call of the same snapshot into the same buffer renders only the
+ * tiles that are not complete.
+ */
+public final class RenderProgress
+{
+    private final SceneSnapshot snapshot;
+    private final int[] colorBuffer;
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final AtomicIntegerArray completedPixels; // per tile
+    private final AtomicInteger totalCompletedPixels;
+
+    RenderProgress( SceneSnapshot snapshot, int[] colorBuffer, int width, int height, int tileSize )
+    {
+        this.snapshot = snapshot;
+        this.colorBuffer = colorBuffer;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = ( width + tileSize - 1 ) / tileSize;
+        this.rows = ( height + tileSize - 1 ) / tileSize;
+        this.completedPixels = new AtomicIntegerArray( columns * rows );
+        this.totalCompletedPixels = new AtomicInteger();
+    }
+
+    public SceneSnapshot getSnapshot() { return snapshot; }
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getTileSize() { return tileSize; }
+    public int getColumns() { return columns; }
+    public int getRows() { return rows; }
+
+    /**
+     * Checks, if this progress belongs to a draw call of {@code snapshot} into {@code colorBuffer}.
+     */
+    boolean matches( SceneSnapshot snapshot, int[] colorBuffer, int width, int height )
+    {
+        return this.snapshot == snapshot && this.colorBuffer == colorBuffer && this.width == width && this.height == height;
+    }
+
+    private int tilePixels( int column, int row )
+    {
+        int w = Math.min( ( column + 1 ) * tileSize, width ) - column * tileSize;
+        int h = Math.min( ( row + 1 ) * tileSize, height ) - row * tileSize;
+        return w * h;
+    }
+
+    public boolean isTileComplete( int column, int row )
+    {
+        return completedPixels.get( row * columns + column ) >= tilePixels( column, row );
+    }
+
+    public int getCompletedPixels()
+    {
+        return Math.min( totalCompletedPixels.get(), width * height );
+    }
+
+    public double getCompletedFraction()
+    {
+        return ( double ) getCompletedPixels() / ( width * height );
+    }
+
+    public boolean isComplete()
+    {
+        return getCompletedPixels() == width * height;
+    }
+
+    /**
+     * Marks a rectangle (inclusive bounds) as completed. Rectangles must not overlap
+     * other completed rectangles, unless the tiles they belong to have been {@link #resetIncompleteTiles() reset}.
+     */
+    void completed( int xStart, int yStart, int xEnd, int yEnd )
+    {
+        for( int row = yStart / tileSize; row <= yEnd / tileSize; ++row )
+        {
+            int h = Math.min( yEnd + 1, ( row + 1 ) * tileSize ) - Math.max( yStart, row * tileSize );
+            for( int column = xStart / tileSize; column <= xEnd / tileSize; ++column )
+            {
+                int w = Math.min( xEnd + 1, ( column + 1 ) * tileSize ) - Math.max( xStart, column * tileSize );
+                completedPixels.addAndGet( row * columns + column, w * h );
+            }
+        }
+        totalCompletedPixels.addAndGet( ( xEnd - xStart + 1 ) * ( yEnd - yStart + 1 ) );
+    }
+
+    /**
+     * Forgets about the partially completed tiles, which are going to be rendered again.
+     */
+    void resetIncompleteTiles()
+    {
+        for( int row = 0; row < rows; ++row )
+        {
+            for( int column = 0; column < columns; ++column )
+            {
+                int index = row * columns + column;
+                int pixels = completedPixels.get( index );
+                if( pixels > 0 && pixels < tilePixels( column, row ) )
+                {
+                    completedPixels.set( index, 0 );
+                    totalCompletedPixels.addAndGet( -pixels );
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates the tasks for the tiles that are not complete in scanline order.
+     */
+    List< RenderingTask > createTasksForIncompleteTiles( DrawcallStaticData dcsd )
+    {
+        List< RenderingTask > tasks = new ArrayList< RenderingTask >();
+        for( int row = 0; row < rows; ++row )
+            for( int column = 0; column < columns; ++column )
+                if( !isTileComplete( column, row ) )
+                    tasks.add( new RenderingTask( dcsd, column * tileSize, row * tileSize, Math.min( ( column + 1 ) * tileSize, width ) - 1, Math.min( ( row + 1 ) * tileSize, height ) - 1 ) );
+        return tasks;
+    }
+}
@@ -19,6 +19,7 @@ package de.mfo.jsurf.rendering.cpu;
 import de.mfo.jsurf.algebra.*;
 import de.mfo.jsurf.debug.*;
 import de.mfo.jsurf.rendering.*;
+import de.mfo.jsurf.rendering.cpu.clipping.*;
 
 import javax.vecmath.*;
 import java.util.concurrent.*;
@@ -33,6 +34,149 @@ public class RenderingTask implements Callable<Boolean>
     private int yEnd;
     private DrawcallStaticData dcsd;
 
+    // statistics for the tile cost map
+    private long rays;
+    private long antiAliasingSamples;
+
+    // empty space culling: blocks of CULLING_BLOCK_SIZE x CULLING_BLOCK_SIZE samples of the tile, whose rays
+    // cannot hit the surface; adjacent blocks share their border samples; null if culling is disabled
+    private static final int CULLING_BLOCK_SIZE = 8;
+    private static final int CULLING_T_SUBDIVISIONS = 6;
+    private boolean[] culledBlocks;
+    private int culledBlockColumns;
+    private int culledBlockRows;
+    private long culledPixels;
+    private long samplesOutsideSilhouette;
+
+    // counters of the hinted root finder of the scratch objects when the task started
+    private long hintedRootSearchesAtStart;
+    private long depthHintHitsAtStart;
+
+    // temporal depth buffer of the sample grid of the tile or null, if there is none
+    private TemporalDepthBuffer depthBuffer;
+    private long temporalHintSearches;
+    private long temporalHintHits;
+
+    // pixel corners shared with the other tiles or null; the corners [claimedCorner, claimedCorner + claimedCorners)
+    // are claimed, but not yet published, and are released, if the task fails in between
+    private CornerSampleStore cornerSamples;
+    private int claimedCorner;
+    private int claimedCorners;
+    private long copiedCornerSamples;
+
+    // G-buffer of the draw call or null and the length of the samples and triples of the supersampled pixels of the tile in the scratch objects
+    private GBuffer gbuffer;
+    private int supersamplesLength;
+    private int supersampledPixelsLength;
+
+    /**
+     * Temporary objects of the hot path. They are reused by all tasks running on the same
+     * thread, so that tracing and shading a sample does not allocate anything.
+     */
+    private static class Scratch
+    {
+        final Ray ray = new Ray( new Point3d(), new Vector3d() );
+        final Ray clippingRay = new Ray( new Point3d(), new Vector3d() );
+        final Ray surfaceRay = new Ray( new Point3d(), new Vector3d() );
+        final Point3d eye = new Point3d();
+        final Point3d p = new Point3d();
+        final Point3d surfacePoint = new Point3d();
+        final Vector3d n_surfaceSpace = new Vector3d();
+        final Vector3d n = new Vector3d();
+        final Vector3d v = new Vector3d();
+        final Vector3d l = new Vector3d();
+        final Vector3d h = new Vector3d();
+        final Color3f color = new Color3f();
+        final Color3f sampleColor = new Color3f();
+        final Color3f previousEstimate = new Color3f();
+        double[] intervals = new double[ 4 ];
+        float[] tileColors = new float[ 0 ]; // packed RGB values of the pixel corners of a tile
+        float[] tileGeometry = new float[ 0 ]; // packed geometry of the pixel corners of a tile, see GeometryDiscontinuityMetric
+
+        // geometry of the last traced sample: side of the surface (0 if missed) and distance to the eye; the normal is in n
+        int hitSide;
+        double hitDepth;
+
+        // G-buffer samples of the supersampled pixels of a tile and the triples (pixel, evaluated points, offset), see GBuffer
+        float[] supersamples = new float[ 0 ];
+        int[] supersampledPixels = new int[ 0 ];
+
+        // ray packets
+        final PacketRootFinder packetRootFinder = new PacketRootFinder();
+        final UnivariatePolynomial[] packetPolynomials = new UnivariatePolynomial[ PacketRootFinder.MAX_PACKET_SIZE ];
+        final double[] packetU = new double[ PacketRootFinder.MAX_PACKET_SIZE ];
+        final double[] packetLowerBounds = new double[ PacketRootFinder.MAX_PACKET_SIZE ];
+        final double[] packetUpperBounds = new double[ PacketRootFinder.MAX_PACKET_SIZE ];
+        final double[] packetRoots = new double[ PacketRootFinder.MAX_PACKET_SIZE ];
+        final int[] packetSamples = new int[ PacketRootFinder.MAX_PACKET_SIZE ];
+        final float[] packetColors = new float[ 3 * PacketRootFinder.MAX_PACKET_SIZE ];
+
+        // empty space culling: bounds of the clipping and surface space rays of a block
+        final Point3d oMin = new Point3d();
+        final Point3d oMax = new Point3d();
+        final Vector3d dMin = new Vector3d();
+        final Vector3d dMax = new Vector3d();
+        final Point3d surfaceOMin = new Point3d();
+        final Point3d surfaceOMax = new Point3d();
+        final Vector3d surfaceDMin = new Vector3d();
+        final Vector3d surfaceDMax = new Vector3d();
+        final double[] tRange = new double[ 4 ];
+        final double[] surfaceBox = new double[ 6 ];
+        double[] boundsScratch = new double[ 0 ];
+        boolean[] culledBlocks = new boolean[ 0 ];
+
+        // first and last column of the samples of a row within the outline of the clipping sphere
+        final int[] span = new int[ 2 ];
+
+        // root search with the intersection of the previous sample of the scanline as a guess
+        final HintedRootFinder hintedRootFinder = new HintedRootFinder();
+        double depthHint = java.lang.Double.NaN;
+
+        // differences of the camera space rays of neighbouring samples for the root tolerance
+        final Vector3d footprintOU = new Vector3d();
+        final Vector3d footprintDU = new Vector3d();
+        final Vector3d footprintOV = new Vector3d();
+        final Vector3d footprintDV = new Vector3d();
+
+        float[] tileColors( int size )
+        {
+            if( tileColors.length < size )
+                tileColors = new float[ size ];
+            return tileColors;
+        }
+
+        float[] tileGeometry( int size )
+        {
+            if( tileGeometry.length < size )
+                tileGeometry = new float[ size ];
+            return tileGeometry;
+        }
+
+        float[] supersamples( int size )
+        {
+            if( supersamples.length < size )
+                supersamples = java.util.Arrays.copyOf( supersamples, Math.max( size, 2 * supersamples.length ) );
+            return supersamples;
+        }
+
+        int[] supersampledPixels( int size )
+        {
+            if( supersampledPixels.length < size )
+                supersampledPixels = java.util.Arrays.copyOf( supersampledPixels, Math.max( size, 2 * supersampledPixels.length ) );
+            return supersampledPixels;
+        }
+    }
+
+    private static final ThreadLocal< Scratch > scratchPerThread = new ThreadLocal< Scratch >() {
+        @Override
+        protected Scratch initialValue()
+        {
+            return new Scratch();
+        }
+    };
+
+    private Scratch scratch;
+
     public RenderingTask( DrawcallStaticData dcsd, int xStart, int yStart, int xEnd, int yEnd )
     {
         this.dcsd = dcsd;
@@ -44,9 +188,14 @@ public class RenderingTask implements Callable<Boolean>
 
     public Boolean call()
     {
+        long startTime = System.nanoTime();
         try
         {
             render();
+            if( dcsd.progress != null )
+                dcsd.progress.completed( xStart, yStart, xEnd, yEnd );
+            if( dcsd.tileListener != null )
+                dcsd.tileListener.tileCompleted( xStart, yStart, xEnd, yEnd );
             return true;
         }
         catch( RenderingInterruptedException rie )
@@ -61,26 +210,60 @@ public class RenderingTask implements Callable<Boolean>
         finally
         {
         	//Thread.interrupted(); // clear the interruption flag
+            if( dcsd.tileCosts != null )
+                dcsd.tileCosts.record( xStart, yStart, System.nanoTime() - startTime, rays, antiAliasingSamples );
+            dcsd.rays.addAndGet( rays );
+            dcsd.antiAliasingSamples.addAndGet( antiAliasingSamples );
+            if( culledPixels > 0 )
+                dcsd.culledPixels.addAndGet( culledPixels );
+            if( samplesOutsideSilhouette > 0 )
+                dcsd.samplesOutsideSilhouette.addAndGet( samplesOutsideSilhouette );
+            if( claimedCorners > 0 )
+                for( int i = 0; i < claimedCorners; ++i )
+                    cornerSamples.release( claimedCorner + i );
+            if( copiedCornerSamples > 0 )
+                dcsd.copiedCornerSamples.addAndGet( copiedCornerSamples );
+            if( temporalHintSearches > 0 )
+            {
+                dcsd.temporalHintSearches.addAndGet( temporalHintSearches );
+                dcsd.temporalHintHits.addAndGet( temporalHintHits );
+            }
+            if( scratch != null && dcsd.depthHints )
+            {
+                dcsd.hintedRootSearches.addAndGet( scratch.hintedRootFinder.getSearches() - hintedRootSearchesAtStart );
+                dcsd.depthHintHits.addAndGet( scratch.hintedRootFinder.getHits() - depthHintHitsAtStart );
+            }
         }
         
         return false;
     }
 
-    private class ColumnSubstitutorPair
+    private boolean isInterrupted()
     {
-        ColumnSubstitutorPair( ColumnSubstitutor scs, ColumnSubstitutorForGradient gcs )
-        {
-            this.scs = scs;
-            this.gcs = gcs;
-        }
-
-        ColumnSubstitutor scs;
-        ColumnSubstitutorForGradient gcs;
+        return dcsd.cancelled || Thread.currentThread().isInterrupted();
     }
 
     protected void render()
     	throws RenderingInterruptedException
     {
+        scratch = scratchPerThread.get();
+        hintedRootSearchesAtStart = scratch.hintedRootFinder.getSearches();
+        depthHintHitsAtStart = scratch.hintedRootFinder.getHits();
+        depthBuffer = dcsd.depthBuffer;
+        if( depthBuffer != null && !depthBuffer.matches( TemporalDepthBuffer.columns( dcsd.width, dcsd.antiAliasingPattern ), TemporalDepthBuffer.rows( dcsd.height, dcsd.antiAliasingPattern ) ) )
+            depthBuffer = null;
+        if( dcsd.rootTolerance > 0.0 )
+            computeFootprint();
+        cornerSamples = dcsd.cornerSamples;
+        if( dcsd.reshadedGBuffer != null )
+        {
+            reshade( dcsd.reshadedGBuffer );
+            return;
+        }
+        gbuffer = dcsd.gbuffer;
+        supersamplesLength = 0;
+        supersampledPixelsLength = 0;
+        Color3f color = scratch.color;
         switch( dcsd.antiAliasingPattern )
         {
             case OG_1x1:
@@ -88,22 +271,71 @@ public class RenderingTask implements Callable<Boolean>
                 // no antialising -> sample pixel center
                 int internal_width = xEnd - xStart + 1;
                 int internal_height = yEnd - yStart + 1;
-                double u_start = dcsd.rayCreator.transformU( xStart / ( dcsd.width - 1.0 ) );
-                double v_start = dcsd.rayCreator.transformV( yStart / ( dcsd.height - 1.0 ) );
+                // sample positions are derived from the global pixel position, so that the result
+                // does not depend on how the image is split into tiles
+                double u_start = dcsd.rayCreator.transformU( 0.0 );
+                double v_start = dcsd.rayCreator.transformV( 0.0 );
                 double u_incr = ( dcsd.rayCreator.getUInterval().y - dcsd.rayCreator.getUInterval().x ) / ( dcsd.width - 1.0 );
                 double v_incr = ( dcsd.rayCreator.getVInterval().y - dcsd.rayCreator.getVInterval().x ) / ( dcsd.height - 1.0 );
+                cullBlocks( internal_width, internal_height, u_start, u_incr, v_start, v_incr );
                 for( int y = 0; y < internal_height; y++ )
                 {
-                    double v = v_start + y * v_incr;
-                    ColumnSubstitutor scs = dcsd.surfaceRowSubstitutor.setV( v );
-                    ColumnSubstitutorForGradient gcs = dcsd.gradientRowSubstitutor.setV( v );
+                    double v = v_start + ( yStart + y ) * v_incr;
+                    int rowOffset = dcsd.width * ( yStart + y ) + xStart;
+                    int bg = toRGB( dcsd.backgroundColor );
+                    scratch.depthHint = java.lang.Double.NaN;
+                    rowSpan( internal_width, u_start, u_incr, v );
+                    int first = scratch.span[ 0 ];
+                    int last = scratch.span[ 1 ];
+                    if( first > last || isRowCulled( y ) )
+                    {
+                        // nothing to trace -> do not even substitute the scanline
+                        Arrays.fill( dcsd.colorBuffer, rowOffset, rowOffset + internal_width, bg );
+                        culledPixels += Math.max( 0, last - first + 1 );
+                        continue;
+                    }
+                    Arrays.fill( dcsd.colorBuffer, rowOffset, rowOffset + first, bg );
+                    Arrays.fill( dcsd.colorBuffer, rowOffset + last + 1, rowOffset + internal_width, bg );
+                    RowSubstitutorCache.Row row = dcsd.rowSubstitutors.getScanline( yStart + y, v );
+                    ColumnSubstitutor scs = scanlineSubstitutor( row, u_start, u_incr );
+                    ColumnSubstitutorForGradient gcs = row.gcs;
             
-                    for( int x = 0; x < internal_width; x++ )
+                    if( dcsd.rayPacketSize > 1 )
                     {
-                        if( Thread.currentThread().isInterrupted() )
+                        float[] colors = scratch.packetColors;
+                        for( int x = first; x <= last; x += dcsd.rayPacketSize )
+                        {
+                            if( isInterrupted() )
+                                throw new RenderingInterruptedException();
+                            int count = Math.min( dcsd.rayPacketSize, last + 1 - x );
+                            tracePacket( scs, gcs, u_start, u_incr, xStart + x, count, y, v, colors, 0, null );
+                            for( int i = 0; i < count; ++i )
+                            {
+                                color.set( colors[ 3 * i ], colors[ 3 * i + 1 ], colors[ 3 * i + 2 ] );
+                                dcsd.colorBuffer[ rowOffset + x + i ] = toRGB( color );
+                            }
+                        }
+                        continue;
+                    }
+            
+                    for( int x = first; x <= last; x++ )
+                    {
+                        if( isInterrupted() )
                             throw new RenderingInterruptedException();
-                        double u = u_start + x * u_incr;
-                        dcsd.colorBuffer[ dcsd.width * ( yStart + y ) + xStart + x ] = tracePolynomial( scs, gcs, u, v ).get().getRGB();
+                        double u = u_start + ( xStart + x ) * u_incr;
+                        if( isCulled( x, y ) )
+                        {
+                            ++culledPixels;
+                            color.set( dcsd.backgroundColor );
+                        }
+                        else
+                        {
+                            ++rays;
+                            tracePolynomial( scs, gcs, u, v, sample( x, y ), color );
+                            if( gbuffer != null )
+                                storeGBufferSample( gbuffer.getGridSamples(), GBuffer.STRIDE * gridSample( x, y ) );
+                        }
+                        dcsd.colorBuffer[ rowOffset + x ] = toRGB( color );
                         //dcsd.colorBuffer[ dcsd.width * y + x ] = traceRay( u, v ).get().getRGB();
                     }
                 }
@@ -115,159 +347,697 @@ public class RenderingTask implements Callable<Boolean>
                 // first sample canvas at pixel corners and cast primary rays
                 int internal_width = xEnd - xStart + 2;
                 int internal_height = yEnd - yStart + 2;
-                Color3f[] internalColorBuffer = new Color3f[ internal_width * internal_height ];
+                float[] internalColorBuffer = scratch.tileColors( 3 * internal_width * internal_height );
+                float[] geometry = dcsd.discontinuityMetric == null ? null : scratch.tileGeometry( GeometryDiscontinuityMetric.STRIDE * internal_width * internal_height );
                 
-                ColumnSubstitutor scs = null;
-                ColumnSubstitutorForGradient gcs = null;
-                HashMap< java.lang.Double, ColumnSubstitutorPair > csp_hm = new HashMap< java.lang.Double, ColumnSubstitutorPair >();
-                double u_start = dcsd.rayCreator.transformU( ( xStart - 0.5 ) / ( dcsd.width - 1.0 ) );
-                double v_start = dcsd.rayCreator.transformV( ( yStart - 0.5 ) / ( dcsd.height - 1.0 ) );
+                RowSubstitutorCache.Row row = null;
+                double u_start = dcsd.rayCreator.transformU( -0.5 / ( dcsd.width - 1.0 ) );
+                double v_start = dcsd.rayCreator.transformV( -0.5 / ( dcsd.height - 1.0 ) );
                 double u_incr = ( dcsd.rayCreator.getUInterval().y - dcsd.rayCreator.getUInterval().x ) / ( dcsd.width - 1.0 );
                 double v_incr = ( dcsd.rayCreator.getVInterval().y - dcsd.rayCreator.getVInterval().x ) / ( dcsd.height - 1.0 );
+                cullBlocks( internal_width, internal_height, u_start, u_incr, v_start, v_incr );
                 double v = 0.0;
                 for( int y = 0; y < internal_height; ++y )
                 {
-                    csp_hm.clear(); csp_hm.put( v, new ColumnSubstitutorPair( scs, gcs ) );
+                    // the scanline of the previous row of pixel corners
+                    double prev_v = v;
+                    RowSubstitutorCache.Row prev_row = row;
 
-                    v = v_start + y * v_incr;
-                    scs = dcsd.surfaceRowSubstitutor.setV( v );
-                    gcs = dcsd.gradientRowSubstitutor.setV( v );
-                    
-                    csp_hm.put( v, new ColumnSubstitutorPair( scs, gcs ) );
+                    v = v_start + ( yStart + y ) * v_incr;
+                    row = dcsd.rowSubstitutors.getScanline( yStart + y, v );
+                    scratch.depthHint = java.lang.Double.NaN;
+                    ColumnSubstitutor scs = scanlineSubstitutor( row, u_start, u_incr );
+                    ColumnSubstitutorForGradient gcs = row.gcs;
+                    rowSpan( internal_width, u_start, u_incr, v );
+                    int first = scratch.span[ 0 ];
+                    int last = scratch.span[ 1 ];
 
-                    for( int x = 0; x < internal_width; ++x )
+                    for( int x = 0, packetEnd = first; x < internal_width; ++x )
                     {
-                        if( Thread.currentThread().isInterrupted() )
+                        if( isInterrupted() )
                             throw new RenderingInterruptedException();
                         
                         // current position on viewing plane
-                        double u = u_start + x * u_incr;
+                        double u = u_start + ( xStart + x ) * u_incr;
                         // trace rays corresponding to (u,v)-coordinates on viewing plane
 
-                        internalColorBuffer[ y * internal_width + x ] = tracePolynomial( scs, gcs, u, v );
+                        if( x < first || x > last )
+                        {
+                            // outside of the clipping sphere
+                            store( dcsd.backgroundColor, internalColorBuffer, 3 * ( y * internal_width + x ) );
+                            if( geometry != null )
+                                storeMiss( geometry, y * internal_width + x );
+                        }
+                        else if( dcsd.rayPacketSize > 1 )
+                        {
+                            // trace the corners of the next pixels at once
+                            if( x == packetEnd )
+                            {
+                                int count = Math.min( dcsd.rayPacketSize, last + 1 - x );
+                                if( cornerSamples != null )
+                                    count = claimCorners( x, y, count, internal_width, internalColorBuffer, geometry );
+                                if( count > 0 )
+                                {
+                                    tracePacket( scs, gcs, u_start, u_incr, xStart + x, count, y, v, internalColorBuffer, 3 * ( y * internal_width + x ), geometry );
+                                    publishCorners( y * internal_width + x, internalColorBuffer, geometry );
+                                    packetEnd += count;
+                                }
+                                else
+                                {
+                                    ++packetEnd;
+                                }
+                            }
+                        }
+                        else if( claimCorners( x, y, 1, internal_width, internalColorBuffer, geometry ) > 0 )
+                        {
+                            if( isCulled( x, y ) )
+                            {
+                                color.set( dcsd.backgroundColor );
+                                scratch.hitSide = 0;
+                            }
+                            else
+                            {
+                                ++rays;
+                                tracePolynomial( scs, gcs, u, v, sample( x, y ), color );
+                                if( gbuffer != null )
+                                    storeGBufferSample( gbuffer.getGridSamples(), GBuffer.STRIDE * gridSample( x, y ) );
+                            }
+                            store( color, internalColorBuffer, 3 * ( y * internal_width + x ) );
+                            if( geometry != null )
+                                storeGeometry( geometry, y * internal_width + x );
+                            publishCorners( y * internal_width + x, internalColorBuffer, geometry );
+                        }
                         if( x > 0 && y > 0 )
                         {
-                            Color3f ulColor = internalColorBuffer[ y * internal_width + x - 1 ];
-                            Color3f urColor = internalColorBuffer[ y * internal_width + x ];
-                            Color3f llColor = internalColorBuffer[ ( y - 1 ) * internal_width + x - 1];
-                            Color3f lrColor = internalColorBuffer[ ( y - 1 ) * internal_width + x ];
+                            int ul = 3 * ( y * internal_width + x - 1 );
+                            int ur = 3 * ( y * internal_width + x );
+                            int ll = 3 * ( ( y - 1 ) * internal_width + x - 1 );
+                            int lr = 3 * ( ( y - 1 ) * internal_width + x );
 
-                            dcsd.colorBuffer[ ( yStart + y - 1 ) * dcsd.width + ( xStart + x - 1 ) ] = antiAliasPixel( u - u_incr, v - v_incr, u_incr, v_incr, dcsd.antiAliasingPattern, ulColor, urColor, llColor, lrColor, csp_hm ).get().getRGB();
+                            // the block of the lower left corner contains the whole pixel
+                            boolean culled = isCulled( x - 1, y - 1 );
+                            if( culled )
+                                ++culledPixels;
+                            int firstSupersample = supersamplesLength;
+                            int points = antiAliasPixel( u - u_incr, prev_v, v, u_incr, v_incr, yStart + y - 1, prev_row, row, dcsd.antiAliasingPattern, internalColorBuffer, geometry, ul, ur, ll, lr, culled, color );
+                            dcsd.colorBuffer[ ( yStart + y - 1 ) * dcsd.width + ( xStart + x - 1 ) ] = toRGB( color );
+                            if( gbuffer != null && points > 0 )
+                            {
+                                int[] pixels = scratch.supersampledPixels( supersampledPixelsLength + 3 );
+                                pixels[ supersampledPixelsLength++ ] = ( yStart + y - 1 ) * dcsd.width + ( xStart + x - 1 );
+                                pixels[ supersampledPixelsLength++ ] = points;
+                                pixels[ supersampledPixelsLength++ ] = firstSupersample;
+                            }
                         }
                     }
                 }
+                if( supersampledPixelsLength > 0 )
+                    gbuffer.addSupersamples( scratch.supersampledPixels, supersampledPixelsLength / 3, scratch.supersamples, supersamplesLength );
+            }
+        }
+    }
+
+    /**
+     * Claims up to {@code count} consecutive pixel corners of the tile, starting at {@code (x,y)}, for tracing.
+     * If the first corner has been claimed by another tile, its sample is copied into the buffers of this
+     * tile, once it has been traced. If the other tile releases the corner without a sample instead, this
+     * tile claims and traces it itself. Without shared corner samples, all corners are claimed.
+     * @return number of claimed corners, which must be traced and published
+     */
+    private int claimCorners( int x, int y, int count, int internal_width, float[] colors, float[] geometry )
+    {
+        if( cornerSamples == null )
+            return count;
+        int corner = cornerSamples.index( xStart + x, yStart + y );
+        int claimed = 0;
+        while( claimed < count && cornerSamples.claim( corner + claimed ) )
+            ++claimed;
+        if( claimed == 0 )
+        {
+            // the other tile is tracing this corner right now or has already done so
+            while( !cornerSamples.isTraced( corner ) )
+            {
+                // the other tile has failed and released the corner
+                if( cornerSamples.claim( corner ) )
+                {
+                    claimed = 1;
+                    break;
+                }
+                if( isInterrupted() )
+                    throw new RenderingInterruptedException();
+                Thread.yield();
+            }
+            if( claimed == 0 )
+            {
+                cornerSamples.copy( corner, colors, geometry, y * internal_width + x );
+                ++copiedCornerSamples;
+            }
+        }
+        claimedCorner = corner;
+        claimedCorners = claimed;
+        return claimed;
+    }
+
+    /**
+     * Publishes the samples of the corners of the last call of {@link #claimCorners}, which start at sample {@code first} of the tile.
+     */
+    private void publishCorners( int first, float[] colors, float[] geometry )
+    {
+        if( cornerSamples == null )
+            return;
+        for( int i = 0; i < claimedCorners; ++i )
+            cornerSamples.publish( claimedCorner + i, colors, geometry, first + i );
+        claimedCorners = 0;
+    }
+
+    /**
+     * Stores the first and the last column of the samples of the tile on the scanline at {@code v}, whose
+     * rays may intersect the clipping sphere, in {@code scratch.span}. The first column is greater than
+     * the last one, if none of the rays intersects the sphere.
+     */
+    private void rowSpan( int samplesX, double u_start, double u_incr, double v )
+    {
+        int[] span = scratch.span;
+        if( dcsd.silhouette == null )
+        {
+            span[ 0 ] = 0;
+            span[ 1 ] = samplesX - 1;
+            return;
+        }
+        if( dcsd.silhouette.span( v, u_start, u_incr, xStart, xStart + samplesX - 1, span ) )
+        {
+            span[ 0 ] -= xStart;
+            span[ 1 ] -= xStart;
+        }
+        else
+        {
+            span[ 0 ] = samplesX;
+            span[ 1 ] = samplesX - 1;
+        }
+        samplesOutsideSilhouette += samplesX - ( span[ 1 ] - span[ 0 ] + 1 );
+    }
+
+    /**
+     * Marks the blocks of samples of the tile, in which the surface provably has no points within the
+     * clipping sphere. The rays of a block are bounded by the rays at its corners. The sample in column {@code x} and row {@code y} of the tile is located at
+     * {@code ( u_start + ( xStart + x ) * u_incr, v_start + ( yStart + y ) * v_incr )}.
+     */
+    private void cullBlocks( int samplesX, int samplesY, double u_start, double u_incr, double v_start, double v_incr )
+    {
+        culledBlocks = null;
+        if( dcsd.surfaceBounds == null )
+            return;
+
+        Scratch s = scratch;
+        ClipToSphere sphere = ( ClipToSphere ) dcsd.rayClipper;
+        if( s.boundsScratch.length < dcsd.surfaceBounds.getScratchSize() )
+            s.boundsScratch = new double[ dcsd.surfaceBounds.getScratchSize() ];
+        culledBlockColumns = Math.max( 1, ( samplesX - 2 ) / CULLING_BLOCK_SIZE + 1 );
+        culledBlockRows = Math.max( 1, ( samplesY - 2 ) / CULLING_BLOCK_SIZE + 1 );
+        if( s.culledBlocks.length < culledBlockColumns * culledBlockRows )
+            s.culledBlocks = new boolean[ culledBlockColumns * culledBlockRows ];
+        culledBlocks = s.culledBlocks;
+
+        for( int row = 0; row < culledBlockRows; ++row )
+        {
+            double v0 = v_start + ( yStart + row * CULLING_BLOCK_SIZE ) * v_incr;
+            double v1 = v_start + ( yStart + Math.min( ( row + 1 ) * CULLING_BLOCK_SIZE, samplesY - 1 ) ) * v_incr;
+            for( int column = 0; column < culledBlockColumns; ++column )
+            {
+                double u0 = u_start + ( xStart + column * CULLING_BLOCK_SIZE ) * u_incr;
+                double u1 = u_start + ( xStart + Math.min( ( column + 1 ) * CULLING_BLOCK_SIZE, samplesX - 1 ) ) * u_incr;
+
+                // the rays depend affinely on (u,v), so the rays at the corners bound the rays of the whole block
+                s.oMin.set( java.lang.Double.POSITIVE_INFINITY, java.lang.Double.POSITIVE_INFINITY, java.lang.Double.POSITIVE_INFINITY );
+                s.oMax.set( java.lang.Double.NEGATIVE_INFINITY, java.lang.Double.NEGATIVE_INFINITY, java.lang.Double.NEGATIVE_INFINITY );
+                s.dMin.set( s.oMin );
+                s.dMax.set( s.oMax );
+                s.surfaceOMin.set( s.oMin );
+                s.surfaceOMax.set( s.oMax );
+                s.surfaceDMin.set( s.oMin );
+                s.surfaceDMax.set( s.oMax );
+                includeRays( u0, v0 );
+                includeRays( u1, v0 );
+                includeRays( u0, v1 );
+                includeRays( u1, v1 );
+
+                boolean culled;
+                if( !sphere.bound( s.oMin, s.oMax, s.dMin, s.dMax, s.tRange ) )
+                    culled = true;
+                else if( java.lang.Double.isInfinite( s.tRange[ 0 ] ) || java.lang.Double.isInfinite( s.tRange[ 1 ] ) )
+                    culled = false;
+                else
+                    culled = !mayHitSurface( s.tRange[ 0 ], s.tRange[ 1 ], CULLING_T_SUBDIVISIONS );
+                culledBlocks[ row * culledBlockColumns + column ] = culled;
             }
         }
     }
 
-    private Color3f antiAliasPixel( double ll_u, double ll_v, double u_incr, double v_incr, AntiAliasingPattern aap, Color3f ulColor, Color3f urColor, Color3f llColor, Color3f lrColor, HashMap< java.lang.Double, ColumnSubstitutorPair > csp_hm )
+    private void includeRays( double u, double v )
     {
-        // first average pixel-corner colors
-        Color3f finalColor;
+        Scratch s = scratch;
+        dcsd.rayCreator.createClippingSpaceRay( u, v, s.clippingRay );
+        include( s.clippingRay, s.oMin, s.oMax, s.dMin, s.dMax );
+        dcsd.rayCreator.createSurfaceSpaceRay( u, v, s.surfaceRay );
+        include( s.surfaceRay, s.surfaceOMin, s.surfaceOMax, s.surfaceDMin, s.surfaceDMax );
+    }
 
+    private static void include( Ray r, Tuple3d oMin, Tuple3d oMax, Tuple3d dMin, Tuple3d dMax )
+    {
+        oMin.set( Math.min( oMin.x, r.o.x ), Math.min( oMin.y, r.o.y ), Math.min( oMin.z, r.o.z ) );
+        oMax.set( Math.max( oMax.x, r.o.x ), Math.max( oMax.y, r.o.y ), Math.max( oMax.z, r.o.z ) );
+        dMin.set( Math.min( dMin.x, r.d.x ), Math.min( dMin.y, r.d.y ), Math.min( dMin.z, r.d.z ) );
+        dMax.set( Math.max( dMax.x, r.d.x ), Math.max( dMax.y, r.d.y ), Math.max( dMax.z, r.d.z ) );
+    }
+
+    /**
+     * Checks, if the surface may have points on the segments {@code t0 <= t <= t1} of the surface space
+     * rays of the current block. The segments are bisected up to {@code depth} times to tighten the bounds.
+     */
+    private boolean mayHitSurface( double t0, double t1, int depth )
+    {
+        Scratch s = scratch;
+        double[] box = s.surfaceBox;
+        sweep( s.surfaceOMin.x, s.surfaceOMax.x, s.surfaceDMin.x, s.surfaceDMax.x, t0, t1, box, 0 );
+        sweep( s.surfaceOMin.y, s.surfaceOMax.y, s.surfaceDMin.y, s.surfaceDMax.y, t0, t1, box, 2 );
+        sweep( s.surfaceOMin.z, s.surfaceOMax.z, s.surfaceDMin.z, s.surfaceDMax.z, t0, t1, box, 4 );
+        if( !dcsd.surfaceBounds.mayVanish( box[ 0 ], box[ 1 ], box[ 2 ], box[ 3 ], box[ 4 ], box[ 5 ], s.boundsScratch ) )
+            return false;
+        if( depth == 0 )
+            return true;
+        double t = 0.5 * ( t0 + t1 );
+        return mayHitSurface( t0, t, depth - 1 ) || mayHitSurface( t, t1, depth - 1 );
+    }
+
+    // stores the range of o + t * d for o in [oMin,oMax], d in [dMin,dMax] and t in [t0,t1] at offset
+    private static void sweep( double oMin, double oMax, double dMin, double dMax, double t0, double t1, double[] box, int offset )
+    {
+        double a = dMin * t0;
+        double b = dMin * t1;
+        double c = dMax * t0;
+        double d = dMax * t1;
+        box[ offset ] = oMin + Math.min( Math.min( a, b ), Math.min( c, d ) );
+        box[ offset + 1 ] = oMax + Math.max( Math.max( a, b ), Math.max( c, d ) );
+    }
+
+    /**
+     * Checks, if the sample in column {@code x} and row {@code y} of the tile has been culled.
+     * If a sample belongs to two blocks, the block to its right or below is decisive.
+     */
+    private boolean isCulled( int x, int y )
+    {
+        if( culledBlocks == null )
+            return false;
+        int column = Math.min( x / CULLING_BLOCK_SIZE, culledBlockColumns - 1 );
+        int row = Math.min( y / CULLING_BLOCK_SIZE, culledBlockRows - 1 );
+        return culledBlocks[ row * culledBlockColumns + column ];
+    }
+
+    private boolean isRowCulled( int y )
+    {
+        if( culledBlocks == null )
+            return false;
+        int row = Math.min( y / CULLING_BLOCK_SIZE, culledBlockRows - 1 );
+        for( int column = 0; column < culledBlockColumns; ++column )
+            if( !culledBlocks[ row * culledBlockColumns + column ] )
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the column substitutor for the samples at {@code u_start + column * u_incr} of a scanline.
+     */
+    private ColumnSubstitutor scanlineSubstitutor( RowSubstitutorCache.Row row, double u_start, double u_incr )
+    {
+        if( !dcsd.forwardDifferencing )
+            return row.scs;
+        // reseed often enough to bound the error, but amortize the uDegree + 1 evaluations per seed
+        int reseedInterval = Math.max( 16, 2 * ( dcsd.surfaceTotalDegree + 1 ) );
+        return new ForwardDifferenceColumnSubstitutor( row.scs, dcsd.surfaceTotalDegree, u_start, u_incr, reseedInterval );
+    }
+
+    /**
+     * Computes the color of a pixel from the colors of its corners, which are stored at
+     * the given offsets in {@code colors}, and supersamples the pixel, if the corner colors differ too much.
+     * The sampling points are traced with the column substitutors of the scanlines of the pixel
+     * corners ({@code lowerRow} at {@code ll_v} and {@code upperRow} at {@code ul_v}) or of the sub-rows of {@code pixelRow}.
+     * Culled pixels are not supersampled, because the surface does not intersect them.
+     * Progressive patterns may stop before all sampling points are traced, see {@link CPUAlgebraicSurfaceRenderer#setConvergenceTolerance(float)}.
+     * @return number of evaluated sampling points of the pattern or 0, if the pixel has not been supersampled
+     */
+    private int antiAliasPixel( double ll_u, double ll_v, double ul_v, double u_incr, double v_incr, int pixelRow, RowSubstitutorCache.Row lowerRow, RowSubstitutorCache.Row upperRow, AntiAliasingPattern aap, float[] colors, float[] geometry, int ul, int ur, int ll, int lr, boolean culled, Color3f finalColor )
+    {
         // adaptive supersampling
+        int points = 0;
         float thresholdSqr = dcsd.antiAliasingThreshold * dcsd.antiAliasingThreshold;
-        if( aap != AntiAliasingPattern.OG_2x2 && ( colorDiffSqr( ulColor, urColor ) >= thresholdSqr ||
-            colorDiffSqr( ulColor, llColor ) >= thresholdSqr ||
-            colorDiffSqr( ulColor, lrColor ) >= thresholdSqr ||
-            colorDiffSqr( urColor, llColor ) >= thresholdSqr ||
-            colorDiffSqr( urColor, lrColor ) >= thresholdSqr ||
-            colorDiffSqr( llColor, lrColor ) >= thresholdSqr ) )
+        boolean supersample;
+        if( culled || aap == AntiAliasingPattern.OG_2x2 )
+            supersample = false;
+        else if( geometry != null )
+            supersample = isGeometryDiscontinuous( geometry, ul / 3, ur / 3, ll / 3, lr / 3 );
+        else
+            supersample = colorDiffSqr( colors, ul, ur ) >= thresholdSqr ||
+                colorDiffSqr( colors, ul, ll ) >= thresholdSqr ||
+                colorDiffSqr( colors, ul, lr ) >= thresholdSqr ||
+                colorDiffSqr( colors, ur, ll ) >= thresholdSqr ||
+                colorDiffSqr( colors, ur, lr ) >= thresholdSqr ||
+                colorDiffSqr( colors, ll, lr ) >= thresholdSqr;
+        if( supersample )
         {
             // anti-alias pixel with advanced sampling pattern
-            finalColor = new Color3f();
-            for( AntiAliasingPattern.SamplingPoint sp : aap )
+            finalColor.set( 0f, 0f, 0f );
+            Color3f ss_color = scratch.sampleColor;
+            float weightSum = 0f;
+            points = aap.size();
+            int checkpoint = aap.isProgressive() && dcsd.convergenceTolerance > 0f ? 8 : aap.size();
+            for( int i = 0; i < aap.size(); ++i )
             {
-                if( Thread.currentThread().isInterrupted() )
+                AntiAliasingPattern.SamplingPoint sp = aap.get( i );
+                if( isInterrupted() )
                     throw new RenderingInterruptedException();
 
-                Color3f ss_color;
                 if( sp.getU() == 0.0 && sp.getV() == 0.0 )
-                    ss_color = llColor;
+                    ss_color.set( colors[ ll ], colors[ ll + 1 ], colors[ ll + 2 ] );
                 else if( sp.getU() == 0.0 && sp.getV() == 1.0 )
-                    ss_color = ulColor;
+                    ss_color.set( colors[ ul ], colors[ ul + 1 ], colors[ ul + 2 ] );
                 else if( sp.getU() == 1.0 && sp.getV() == 1.0 )
-                    ss_color = urColor;
+                    ss_color.set( colors[ ur ], colors[ ur + 1 ], colors[ ur + 2 ] );
                 else if( sp.getU() == 1.0 && sp.getV() == 0.0 )
-                    ss_color = lrColor;
+                    ss_color.set( colors[ lr ], colors[ lr + 1 ], colors[ lr + 2 ] );
                 else
                 {
                     // color of this sample point is not known -> calculate
-                    double v = ll_v + sp.getV() * v_incr;
                     double u = ll_u + sp.getU() * u_incr;
-                    ColumnSubstitutorPair csp = csp_hm.get( v );
-                    if( csp == null )
+                    double v;
+                    RowSubstitutorCache.Row csp;
+                    int subRow = aap.getSubRow( i );
+                    if( subRow < 0 )
+                    {
+                        v = ll_v;
+                        csp = lowerRow;
+                    }
+                    else if( subRow == aap.getSubRows() )
+                    {
+                        v = ul_v;
+                        csp = upperRow;
+                    }
+                    else
+                    {
+                        v = ll_v + sp.getV() * v_incr;
+                        csp = dcsd.rowSubstitutors.getSubRow( pixelRow, subRow, v );
+                    }
+                    ++antiAliasingSamples;
+                    tracePolynomial( csp.scs, csp.gcs, u, v, -1, ss_color );
+                    if( gbuffer != null )
                     {
-                        csp = new ColumnSubstitutorPair( dcsd.surfaceRowSubstitutor.setV( v ), dcsd.gradientRowSubstitutor.setV( v ) );
-                        csp_hm.put( v, csp );
+                        float[] supersamples = scratch.supersamples( supersamplesLength + GBuffer.STRIDE );
+                        storeGBufferSample( supersamples, supersamplesLength );
+                        supersamplesLength += GBuffer.STRIDE;
                     }
-                    ss_color = tracePolynomial( csp.scs, csp.gcs, u, v );
                 }
                 finalColor.scaleAdd( sp.getWeight(), ss_color, finalColor );
-                
-                if( false )
-                    return new Color3f( 0, 0, 0 ); // paint pixels, that are supposed to be anti-aliased in black
+                weightSum += sp.getWeight();
+                if( i + 1 == checkpoint && checkpoint < aap.size() )
+                {
+                    // progressive pattern: stop, if the weighted mean has not changed since the last power of two;
+                    // 8 sampling points often miss small features entirely, so they never end the supersampling
+                    Color3f estimate = ss_color;
+                    estimate.scale( 1f / weightSum, finalColor );
+                    if( checkpoint > 8 && hasConverged( estimate, scratch.previousEstimate, dcsd.convergenceTolerance ) )
+                    {
+                        points = checkpoint;
+                        break;
+                    }
+                    scratch.previousEstimate.set( estimate );
+                    checkpoint *= 2;
+                }
             }
+            if( aap.isProgressive() )
+                finalColor.scale( 1f / weightSum );
         }
         else
         {
-            finalColor = new Color3f( ulColor );
-            finalColor.add( urColor );
-            finalColor.add( llColor );
-            finalColor.add( lrColor );
-            finalColor.scale( 0.25f );
+            // average pixel-corner colors
+            finalColor.set( ( colors[ ul ] + colors[ ur ] + colors[ ll ] + colors[ lr ] ) * 0.25f,
+                ( colors[ ul + 1 ] + colors[ ur + 1 ] + colors[ ll + 1 ] + colors[ lr + 1 ] ) * 0.25f,
+                ( colors[ ul + 2 ] + colors[ ur + 2 ] + colors[ ll + 2 ] + colors[ lr + 2 ] ) * 0.25f );
         }
 
         // clamp color, because floating point operations may yield values outside [0,1]
         finalColor.clamp( 0f, 1f );
-        return finalColor;
+        return points;
     }
 
-    private Color3f tracePolynomial( ColumnSubstitutor scs, ColumnSubstitutorForGradient gcs, double u, double v )
+    /**
+     * Returns the tolerance of the root search on the current ray of the scratch objects, which
+     * is {@code dcsd.rootTolerance} times the footprint of a pixel at the parameter {@code t}, or 0, if the
+     * default tolerance of the root finder is used. The footprint grows along the rays of the perspective camera,
+     * so the start of the search interval yields the smallest tolerance.
+     */
+    private double rootTolerance( double t )
     {
-        // create rays
-        Ray ray = dcsd.rayCreator.createCameraSpaceRay( u, v );
-        Ray clippingRay = dcsd.rayCreator.createClippingSpaceRay( u, v );
-        Ray surfaceRay = dcsd.rayCreator.createSurfaceSpaceRay( u, v );
+        if( dcsd.rootTolerance <= 0.0 )
+            return 0.0;
+        Scratch s = scratch;
+        double footprint = Math.min( length( s.footprintOU, s.footprintDU, t ), length( s.footprintOV, s.footprintDV, t ) );
+        return dcsd.rootTolerance * footprint / s.ray.d.length();
+    }
+
+    private static double length( Vector3d o, Vector3d d, double t )
+    {
+        double x = o.x + t * d.x;
+        double y = o.y + t * d.y;
+        double z = o.z + t * d.z;
+        return Math.sqrt( x * x + y * y + z * z );
+    }
+
+    /**
+     * Stores the differences of the camera space rays of neighbouring samples in u and v direction in the scratch objects.
+     * The rays depend affinely on (u,v), so the differences are the same for all samples.
+     */
+    private void computeFootprint()
+    {
+        Scratch s = scratch;
+        double u = dcsd.rayCreator.transformU( 0.0 );
+        double v = dcsd.rayCreator.transformV( 0.0 );
+        double u_incr = ( dcsd.rayCreator.getUInterval().y - dcsd.rayCreator.getUInterval().x ) / ( dcsd.width - 1.0 );
+        double v_incr = ( dcsd.rayCreator.getVInterval().y - dcsd.rayCreator.getVInterval().x ) / ( dcsd.height - 1.0 );
+        dcsd.rayCreator.createCameraSpaceRay( u, v, s.ray );
+        dcsd.rayCreator.createCameraSpaceRay( u + u_incr, v, s.clippingRay );
+        s.footprintOU.sub( s.clippingRay.o, s.ray.o );
+        s.footprintDU.sub( s.clippingRay.d, s.ray.d );
+        dcsd.rayCreator.createCameraSpaceRay( u, v + v_incr, s.clippingRay );
+        s.footprintOV.sub( s.clippingRay.o, s.ray.o );
+        s.footprintDV.sub( s.clippingRay.d, s.ray.d );
+    }
+
+    /**
+     * Returns the index of the sample in column {@code x} and row {@code y} of the tile in the temporal depth buffer
+     * or -1, if there is none.
+     */
+    private int sample( int x, int y )
+    {
+        return depthBuffer == null ? -1 : ( yStart + y ) * depthBuffer.getColumns() + xStart + x;
+    }
 
-        Point3d eye = ray.at( dcsd.rayCreator.getEyeLocationOnRay() );
-        UnivariatePolynomialVector3d gradientPolys = null;
+    /**
+     * Traces the sample at {@code (u,v)}. If {@code sample} is not negative, the intersection of its ray in the
+     * previous draw call is used as a guess for the root search and the new intersection is stored in the
+     * temporal depth buffer.
+     */
+    private void tracePolynomial( ColumnSubstitutor scs, ColumnSubstitutorForGradient gcs, double u, double v, int sample, Color3f color )
+    {
+        Scratch s = scratch;
+
+        // create rays
+        dcsd.rayCreator.createCameraSpaceRay( u, v, s.ray );
+        dcsd.rayCreator.createClippingSpaceRay( u, v, s.clippingRay );
+        dcsd.rayCreator.createSurfaceSpaceRay( u, v, s.surfaceRay );
 
-        // optimize rays and root-finder parameters
-        //optimizeRays( ray, clippingRay, surfaceRay );
+        double eyeLocation = dcsd.rayCreator.getEyeLocationOnRay();
+        Helper.interpolate1D( s.ray.o, s.ray.d, eyeLocation, s.eye );
 
         // clip ray
-        List< Vector2d > intervals = dcsd.rayClipper.clipRay( clippingRay );
-        if( !intervals.isEmpty() )
+        int intervals = dcsd.rayClipper.clipRay( s.clippingRay, s.intervals );
+        if( 2 * intervals > s.intervals.length )
+        {
+            s.intervals = new double[ 2 * intervals ];
+            dcsd.rayClipper.clipRay( s.clippingRay, s.intervals );
+        }
+        if( intervals > 0 )
         {
             UnivariatePolynomial surfacePoly = scs.setU( u );
-            for( Vector2d interval : intervals )
+            double hint = dcsd.depthHints ? s.depthHint : java.lang.Double.NaN;
+            boolean temporal = false;
+            if( sample >= 0 )
+            {
+                double previousHit = depthBuffer.hint( sample, s.surfaceRay );
+                if( !java.lang.Double.isNaN( previousHit ) )
+                {
+                    hint = previousHit;
+                    temporal = true;
+                    ++temporalHintSearches;
+                }
+            }
+            for( int i = 0; i < intervals; ++i )
             {
                 // adjust interval, so that it does not start before the eye point
-                double eyeLocation = dcsd.rayCreator.getEyeLocationOnRay();
-                if( interval.x < eyeLocation && eyeLocation < interval.y )
-                    interval.x = Math.max( interval.x, eyeLocation );
+                double start = s.intervals[ 2 * i ];
+                double end = s.intervals[ 2 * i + 1 ];
+                if( start < eyeLocation && eyeLocation < end )
+                    start = Math.max( start, eyeLocation );
 
                 // intersect ray with surface and shade pixel
-                //double[] hits = hits = dcsd.realRootFinder.findAllRootsIn( surfacePoly, interval.x, interval.y );
-                double[] hits = { dcsd.realRootFinder.findFirstRootIn( surfacePoly, interval.x, interval.y ) };
-                if( java.lang.Double.isNaN( hits[ 0 ]  ))
-                    hits = new double[ 0 ];
-                for( double hit : hits )
+                double hit;
+                double tolerance = rootTolerance( start );
+                if( dcsd.depthHints || sample >= 0 )
                 {
-                    if( dcsd.rayClipper.clipPoint( surfaceRay.at( hit ), true ) )
+                    long hits = s.hintedRootFinder.getHits();
+                    hit = s.hintedRootFinder.findFirstRootIn( surfacePoly, start, end, hint, tolerance, dcsd.realRootFinder );
+                    if( temporal && s.hintedRootFinder.getHits() != hits )
+                        ++temporalHintHits;
+                }
+                else if( tolerance > 0.0 )
+                {
+                    hit = ( ( DescartesRootFinder ) dcsd.realRootFinder ).findFirstRootIn( surfacePoly, start, end, tolerance );
+                }
+                else
+                {
+                    hit = dcsd.realRootFinder.findFirstRootIn( surfacePoly, start, end );
+                }
+                if( !java.lang.Double.isNaN( hit ) && shadeHit( gcs, u, hit, color ) )
+                {
+                    s.depthHint = hit;
+                    if( sample >= 0 )
                     {
-                        if( gradientPolys == null )
-                            gradientPolys = gcs.setU( u );
-                        Vector3d n_surfaceSpace = gradientPolys.setT( hit );
-                        Vector3d n_cameraSpace = dcsd.rayCreator.surfaceSpaceNormalToCameraSpaceNormal( n_surfaceSpace );
-
-                        return shade( ray.at( hit ), n_cameraSpace, eye );
+                        Helper.interpolate1D( s.surfaceRay.o, s.surfaceRay.d, hit, s.surfacePoint );
+                        depthBuffer.store( sample, s.surfacePoint );
                     }
+                    return;
                 }
             }
         }
-        return dcsd.backgroundColor;
+        s.depthHint = java.lang.Double.NaN;
+        s.hitSide = 0;
+        if( sample >= 0 )
+            depthBuffer.clear( sample );
+        color.set( dcsd.backgroundColor );
+    }
+
+    /**
+     * Shades the intersection of the current rays of the scratch objects with the surface at {@code hit},
+     * if it is not clipped.
+     * @return {@code false}, if the intersection is clipped
+     */
+    private boolean shadeHit( ColumnSubstitutorForGradient gcs, double u, double hit, Color3f color )
+    {
+        Scratch s = scratch;
+        Helper.interpolate1D( s.surfaceRay.o, s.surfaceRay.d, hit, s.p );
+        if( !dcsd.rayClipper.clipPoint( s.p, true ) )
+            return false;
+
+        gcs.setU( u ).setT( hit, s.n_surfaceSpace );
+        dcsd.rayCreator.surfaceSpaceNormalToCameraSpaceNormal( s.n_surfaceSpace, s.n );
+
+        Helper.interpolate1D( s.ray.o, s.ray.d, hit, s.p );
+        shade( s.p, s.n, s.eye, color );
+        return true;
+    }
+
+    /**
+     * Traces the samples at {@code u_start + column * u_incr} for {@code count} consecutive columns
+     * starting at {@code firstColumn} and stores their colors packed into {@code colors} starting at {@code offset}.
+     * The samples are in the row {@code sampleRow} of the tile. If {@code geometry} is not null, the geometry of the
+     * samples is stored in it starting at the sample {@code offset / 3}.
+     * The first roots of the rays that are clipped to a single interval are found in lockstep,
+     * all other rays are traced one by one.
+     */
+    private void tracePacket( ColumnSubstitutor scs, ColumnSubstitutorForGradient gcs, double u_start, double u_incr, int firstColumn, int count, int sampleRow, double v, float[] colors, int offset, float[] geometry )
+    {
+        Scratch s = scratch;
+        Color3f color = s.color;
+        double eyeLocation = dcsd.rayCreator.getEyeLocationOnRay();
+
+        int packetSize = 0;
+        for( int i = 0; i < count; ++i )
+        {
+            if( isCulled( firstColumn - xStart + i, sampleRow ) )
+            {
+                if( dcsd.antiAliasingPattern == AntiAliasingPattern.OG_1x1 )
+                    ++culledPixels;
+                color.set( dcsd.backgroundColor );
+                store( color, colors, offset + 3 * i );
+                if( geometry != null )
+                    storeMiss( geometry, offset / 3 + i );
+                continue;
+            }
+            ++rays;
+            double u = u_start + ( firstColumn + i ) * u_incr;
+            dcsd.rayCreator.createClippingSpaceRay( u, v, s.clippingRay );
+            int intervals = dcsd.rayClipper.clipRay( s.clippingRay, s.intervals );
+            if( intervals == 1 )
+            {
+                double start = s.intervals[ 0 ];
+                double end = s.intervals[ 1 ];
+                if( start < eyeLocation && eyeLocation < end )
+                    start = Math.max( start, eyeLocation );
+                s.packetPolynomials[ packetSize ] = scs.setU( u );
+                s.packetU[ packetSize ] = u;
+                s.packetLowerBounds[ packetSize ] = start;
+                s.packetUpperBounds[ packetSize ] = end;
+                s.packetSamples[ packetSize ] = i;
+                ++packetSize;
+                continue;
+            }
+            if( intervals == 0 )
+            {
+                color.set( dcsd.backgroundColor );
+                s.hitSide = 0;
+            }
+            else
+            {
+                tracePolynomial( scs, gcs, u, v, sample( firstColumn - xStart + i, sampleRow ), color );
+            }
+            store( color, colors, offset + 3 * i );
+            if( geometry != null )
+                storeGeometry( geometry, offset / 3 + i );
+            if( gbuffer != null )
+                storeGBufferSample( gbuffer.getGridSamples(), GBuffer.STRIDE * gridSample( firstColumn - xStart + i, sampleRow ) );
+        }
+
+        s.packetRootFinder.findFirstRootsIn( s.packetPolynomials, s.packetLowerBounds, s.packetUpperBounds, packetSize, dcsd.realRootFinder, s.packetRoots );
+
+        for( int j = 0; j < packetSize; ++j )
+        {
+            double u = s.packetU[ j ];
+            double hit = s.packetRoots[ j ];
+            s.packetPolynomials[ j ] = null;
+            boolean shaded = false;
+            if( !java.lang.Double.isNaN( hit ) )
+            {
+                dcsd.rayCreator.createCameraSpaceRay( u, v, s.ray );
+                dcsd.rayCreator.createSurfaceSpaceRay( u, v, s.surfaceRay );
+                Helper.interpolate1D( s.ray.o, s.ray.d, eyeLocation, s.eye );
+                shaded = shadeHit( gcs, u, hit, color );
+            }
+            if( !shaded )
+            {
+                color.set( dcsd.backgroundColor );
+                s.hitSide = 0;
+            }
+            store( color, colors, offset + 3 * s.packetSamples[ j ] );
+            if( geometry != null )
+                storeGeometry( geometry, offset / 3 + s.packetSamples[ j ] );
+            if( gbuffer != null )
+                storeGBufferSample( gbuffer.getGridSamples(), GBuffer.STRIDE * gridSample( firstColumn - xStart + s.packetSamples[ j ], sampleRow ) );
+        }
+    }
+
+    private static void store( Color3f color, float[] colors, int index )
+    {
+        colors[ index ] = color.x;
+        colors[ index + 1 ] = color.y;
+        colors[ index + 2 ] = color.z;
     }
     
 //    private Color3f traceRay( double u, double v )
@@ -312,11 +1082,181 @@ public class RenderingTask implements Callable<Boolean>
 //        return dcsd.backgroundColor;
 //    }
 
-    private float colorDiffSqr( Color3f c1, Color3f c2 )
+    /**
+     * Compares the geometry of each pair of the corners of a pixel, which are given as sample indices of {@code geometry}.
+     */
+    private boolean isGeometryDiscontinuous( float[] geometry, int ul, int ur, int ll, int lr )
+    {
+        GeometryDiscontinuityMetric metric = dcsd.discontinuityMetric;
+        int stride = GeometryDiscontinuityMetric.STRIDE;
+        ul *= stride;
+        ur *= stride;
+        ll *= stride;
+        lr *= stride;
+        return metric.isDiscontinuous( geometry, ul, ur ) ||
+            metric.isDiscontinuous( geometry, ul, ll ) ||
+            metric.isDiscontinuous( geometry, ul, lr ) ||
+            metric.isDiscontinuous( geometry, ur, ll ) ||
+            metric.isDiscontinuous( geometry, ur, lr ) ||
+            metric.isDiscontinuous( geometry, ll, lr );
+    }
+
+    /**
+     * Stores the geometry of the last traced sample of the scratch objects for the sample {@code index} in {@code geometry}.
+     */
+    private void storeGeometry( float[] geometry, int index )
+    {
+        Scratch s = scratch;
+        int i = GeometryDiscontinuityMetric.STRIDE * index;
+        geometry[ i + GeometryDiscontinuityMetric.SIDE ] = s.hitSide;
+        if( s.hitSide != 0 )
+        {
+            geometry[ i + GeometryDiscontinuityMetric.DEPTH ] = ( float ) s.hitDepth;
+            geometry[ i + GeometryDiscontinuityMetric.NORMAL ] = ( float ) s.n.x;
+            geometry[ i + GeometryDiscontinuityMetric.NORMAL + 1 ] = ( float ) s.n.y;
+            geometry[ i + GeometryDiscontinuityMetric.NORMAL + 2 ] = ( float ) s.n.z;
+        }
+    }
+
+    /**
+     * Returns the index of the sample in column {@code x} and row {@code y} of the tile in the grid of the G-buffer.
+     */
+    private int gridSample( int x, int y )
+    {
+        return ( yStart + y ) * gbuffer.getColumns() + xStart + x;
+    }
+
+    /**
+     * Stores the last traced sample of the scratch objects at {@code offset} in {@code samples}, see {@link GBuffer}.
+     */
+    private void storeGBufferSample( float[] samples, int offset )
     {
-        Vector3f diff = new Vector3f( c1 );
-        diff.sub( c2 );
-        return diff.dot( diff );
+        Scratch s = scratch;
+        samples[ offset + GBuffer.SIDE ] = s.hitSide;
+        if( s.hitSide != 0 )
+        {
+            samples[ offset + GBuffer.POINT ] = ( float ) s.p.x;
+            samples[ offset + GBuffer.POINT + 1 ] = ( float ) s.p.y;
+            samples[ offset + GBuffer.POINT + 2 ] = ( float ) s.p.z;
+            samples[ offset + GBuffer.NORMAL ] = ( float ) s.n.x;
+            samples[ offset + GBuffer.NORMAL + 1 ] = ( float ) s.n.y;
+            samples[ offset + GBuffer.NORMAL + 2 ] = ( float ) s.n.z;
+            samples[ offset + GBuffer.VIEW ] = ( float ) s.v.x;
+            samples[ offset + GBuffer.VIEW + 1 ] = ( float ) s.v.y;
+            samples[ offset + GBuffer.VIEW + 2 ] = ( float ) s.v.z;
+        }
+    }
+
+    /**
+     * Shades the samples of the pixels of the tile in {@code gbuffer} and resolves them
+     * with the weights of the anti-aliasing pattern of the draw call, that recorded the G-buffer.
+     * The pixel corners are shaded once and their colors are shared by the adjacent pixels of the tile.
+     */
+    private void reshade( GBuffer gbuffer )
+    {
+        int maxSamples = gbuffer.maxSamplesPerPixel();
+        float[][] arrays = new float[ maxSamples ][];
+        int[] offsets = new int[ maxSamples ];
+        float[] weights = new float[ maxSamples ];
+        boolean normalize = gbuffer.getAntiAliasingPattern().isProgressive();
+        float[] gridSamples = gbuffer.getGridSamples();
+        int columns = gbuffer.getColumns();
+        Color3f color = scratch.color;
+        Color3f sampleColor = scratch.sampleColor;
+
+        float[] cornerColors = null;
+        int cornerColumns = xEnd - xStart + 2;
+        if( gbuffer.getAntiAliasingPattern() != AntiAliasingPattern.OG_1x1 )
+        {
+            cornerColors = scratch.tileColors( 3 * cornerColumns * ( yEnd - yStart + 2 ) );
+            for( int y = yStart; y <= yEnd + 1; ++y )
+            {
+                if( isInterrupted() )
+                    throw new RenderingInterruptedException();
+                for( int x = xStart; x <= xEnd + 1; ++x )
+                {
+                    shadeGBufferSample( gridSamples, GBuffer.STRIDE * ( y * columns + x ), sampleColor );
+                    store( sampleColor, cornerColors, 3 * ( ( y - yStart ) * cornerColumns + x - xStart ) );
+                }
+            }
+        }
+
+        for( int y = yStart; y <= yEnd; ++y )
+        {
+            if( isInterrupted() )
+                throw new RenderingInterruptedException();
+            for( int x = xStart; x <= xEnd; ++x )
+            {
+                int count = gbuffer.getPixelSamples( x, y, arrays, offsets, weights );
+                float weightSum = 0f;
+                color.set( 0f, 0f, 0f );
+                for( int i = 0; i < count; ++i )
+                {
+                    if( cornerColors != null && arrays[ i ] == gridSamples )
+                    {
+                        int corner = offsets[ i ] / GBuffer.STRIDE;
+                        int c = 3 * ( ( corner / columns - yStart ) * cornerColumns + corner % columns - xStart );
+                        sampleColor.set( cornerColors[ c ], cornerColors[ c + 1 ], cornerColors[ c + 2 ] );
+                    }
+                    else
+                    {
+                        shadeGBufferSample( arrays[ i ], offsets[ i ], sampleColor );
+                    }
+                    color.scaleAdd( weights[ i ], sampleColor, color );
+                    weightSum += weights[ i ];
+                }
+                if( normalize )
+                    color.scale( 1f / weightSum );
+                color.clamp( 0f, 1f );
+                dcsd.colorBuffer[ y * dcsd.width + x ] = toRGB( color );
+            }
+        }
+    }
+
+    private void shadeGBufferSample( float[] samples, int offset, Color3f color )
+    {
+        Scratch s = scratch;
+        float side = samples[ offset + GBuffer.SIDE ];
+        if( side == 0f )
+        {
+            color.set( dcsd.backgroundColor );
+            return;
+        }
+        s.p.set( samples[ offset + GBuffer.POINT ], samples[ offset + GBuffer.POINT + 1 ], samples[ offset + GBuffer.POINT + 2 ] );
+        s.n.set( samples[ offset + GBuffer.NORMAL ], samples[ offset + GBuffer.NORMAL + 1 ], samples[ offset + GBuffer.NORMAL + 2 ] );
+        s.v.set( samples[ offset + GBuffer.VIEW ], samples[ offset + GBuffer.VIEW + 1 ], samples[ offset + GBuffer.VIEW + 2 ] );
+        if( side > 0f )
+            shadeWithMaterial( s.p, s.v, s.n, dcsd.frontAmbientColor, dcsd.frontLightProducts, color );
+        else
+            shadeWithMaterial( s.p, s.v, s.n, dcsd.backAmbientColor, dcsd.backLightProducts, color );
+    }
+
+    private static void storeMiss( float[] geometry, int index )
+    {
+        geometry[ GeometryDiscontinuityMetric.STRIDE * index + GeometryDiscontinuityMetric.SIDE ] = 0f;
+    }
+
+    private static boolean hasConverged( Color3f estimate, Color3f previousEstimate, float tolerance )
+    {
+        return Math.abs( estimate.x - previousEstimate.x ) <= tolerance &&
+            Math.abs( estimate.y - previousEstimate.y ) <= tolerance &&
+            Math.abs( estimate.z - previousEstimate.z ) <= tolerance;
+    }
+
+    private static float colorDiffSqr( float[] colors, int i, int j )
+    {
+        float r = colors[ i ] - colors[ j ];
+        float g = colors[ i + 1 ] - colors[ j + 1 ];
+        float b = colors[ i + 2 ] - colors[ j + 2 ];
+        return r * r + g * g + b * b;
+    }
+
+    /**
+     * Same as {@code c.get().getRGB()} for colors in [0,1], but without allocating a {@link java.awt.Color}.
+     */
+    private static int toRGB( Color3f c )
+    {
+        return 0xff000000 | ( ( Math.round( c.x * 255.0f ) & 0xff ) << 16 ) | ( ( Math.round( c.y * 255.0f ) & 0xff ) << 8 ) | ( Math.round( c.z * 255.0f ) & 0xff );
     }
 
     protected boolean intersectPolynomial( UnivariatePolynomial p, double rayStart, double rayEnd, double[] hit )
@@ -361,9 +1301,9 @@ public class RenderingTask implements Callable<Boolean>
      * @param p The hit point on the surface in camera space.
      * @param n The surface normal at the hit point in camera space.
      * @param eye The eye point in camera space.
-     * @return
+     * @param color Receives the color of the point.
      */
-    protected Color3f shade( Point3d p, Vector3d n, Point3d eye )
+    protected void shade( Point3d p, Vector3d n, Point3d eye, Color3f color )
     {        
         // normalize only if point is not singular
         float nLength = (float) n.length();
@@ -371,8 +1311,9 @@ public class RenderingTask implements Callable<Boolean>
             n.scale( 1.0f / nLength );
 
         // compute view vector
-        Vector3d v = new Vector3d( eye );
-        v.sub( p );
+        Vector3d v = scratch.v;
+        v.sub( eye, p );
+        scratch.hitDepth = v.length();
         v.normalize();
 /*
         // special coloring for blowup-visualization
@@ -390,12 +1331,14 @@ public class RenderingTask implements Callable<Boolean>
         // compute, which material to use
         if( n.dot( v ) > 0.0f )
         {
-            return shadeWithMaterial( p, v, n, dcsd.frontAmbientColor, dcsd.frontLightProducts );
+            scratch.hitSide = 1;
+            shadeWithMaterial( p, v, n, dcsd.frontAmbientColor, dcsd.frontLightProducts, color );
         }
         else
         {
+            scratch.hitSide = -1;
             n.negate();
-            return shadeWithMaterial( p, v, n, dcsd.backAmbientColor, dcsd.backLightProducts );
+            shadeWithMaterial( p, v, n, dcsd.backAmbientColor, dcsd.backLightProducts, color );
         }
     }
 
@@ -406,14 +1349,14 @@ public class RenderingTask implements Callable<Boolean>
      * @param v View vector (from intersection point to eye).
      * @param n Surface normal.
      * @param material Surface material.
-     * @return
+     * @param color Receives the color of the point.
      */
-    protected Color3f shadeWithMaterial( Point3d hitPoint, Vector3d v, Vector3d n, Color3f ambientColor, LightProducts[] lightProducts )
+    protected void shadeWithMaterial( Point3d hitPoint, Vector3d v, Vector3d n, Color3f ambientColor, LightProducts[] lightProducts, Color3f color )
     {
-        Vector3d l = new Vector3d();
-        Vector3d h = new Vector3d();
+        Vector3d l = scratch.l;
+        Vector3d h = scratch.h;
 
-        Color3f color = new Color3f( ambientColor );
+        color.set( ambientColor );
 
         for( int i = 0; i < dcsd.lightSources.length; i++ )
         {
@@ -437,8 +1380,6 @@ public class RenderingTask implements Callable<Boolean>
         }
 
         color.clampMax( 1.0f );
-
-        return color;
     }
 }
     
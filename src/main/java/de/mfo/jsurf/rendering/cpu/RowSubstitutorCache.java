@@ -0,0 +1,116 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import de.mfo.jsurf.algebra.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Column substitutors of the scanlines of a draw call. Besides the scanlines through
+ * the pixel centers or pixel corners, the cache has a fixed number of sub-rows per pixel
+ * row, which are used for the sampling points of an anti-aliasing pattern, that lie
+ * between the pixel corners. A scanline is substituted
+ * when the first tile needs it and the result is shared by all other tiles of the
+ * draw call. Column substitutors are not modified by {@code setU}, so they can be
+ * used by several tiles at the same time.
+ */
+final class RowSubstitutorCache
+{
+    static final class Row
+    {
+        final ColumnSubstitutor scs;
+        final ColumnSubstitutorForGradient gcs;
+
+        Row( ColumnSubstitutor scs, ColumnSubstitutorForGradient gcs )
+        {
+            this.scs = scs;
+            this.gcs = gcs;
+        }
+    }
+
+    private static final int LOCKS = 64;
+
+    private final RowSubstitutor surfaceRowSubstitutor;
+    private final RowSubstitutorForGradient gradientRowSubstitutor;
+    private final int scanlines;
+    private final int subRows;
+    private final AtomicReferenceArray< Row > rows;
+    private final Object[] locks;
+    private final AtomicInteger substitutedRows;
+
+    /**
+     * @param scanlines number of scanlines through the pixel centers or corners
+     * @param subRows number of sub-rows per pixel row
+     */
+    RowSubstitutorCache( RowSubstitutor surfaceRowSubstitutor, RowSubstitutorForGradient gradientRowSubstitutor, int scanlines, int subRows )
+    {
+        this.surfaceRowSubstitutor = surfaceRowSubstitutor;
+        this.gradientRowSubstitutor = gradientRowSubstitutor;
+        this.scanlines = scanlines;
+        this.subRows = subRows;
+        int size = scanlines + Math.max( scanlines - 1, 0 ) * subRows;
+        this.rows = new AtomicReferenceArray< Row >( size );
+        this.locks = new Object[ Math.min( LOCKS, Math.max( size, 1 ) ) ];
+        for( int i = 0; i < locks.length; ++i )
+            locks[ i ] = new Object();
+        this.substitutedRows = new AtomicInteger();
+    }
+
+    /**
+     * Returns the column substitutors of scanline {@code index}, which is at
+     * position {@code v} on the viewing plane. Each scanline is substituted only once,
+     * even if several tiles ask for it at the same time.
+     */
+    Row getScanline( int index, double v )
+    {
+        return get( index, v );
+    }
+
+    /**
+     * Returns the column substitutors of sub-row {@code subRow} between the scanlines
+     * {@code pixelRow} and {@code pixelRow + 1}, which is at position {@code v} on the viewing plane.
+     */
+    Row getSubRow( int pixelRow, int subRow, double v )
+    {
+        return get( scanlines + pixelRow * subRows + subRow, v );
+    }
+
+    private Row get( int index, double v )
+    {
+        Row row = rows.get( index );
+        if( row == null )
+        {
+            synchronized( locks[ index % locks.length ] )
+            {
+                row = rows.get( index );
+                if( row == null )
+                {
+                    row = new Row( surfaceRowSubstitutor.setV( v ), gradientRowSubstitutor.setV( v ) );
+                    rows.set( index, row );
+                    substitutedRows.incrementAndGet();
+                }
+            }
+        }
+        return row;
+    }
+
+    /**
+     * @return number of scanlines that have been substituted so far
+     */
+    int getSubstitutedRows() { return substitutedRows.get(); }
+}
@@ -0,0 +1,94 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import de.mfo.jsurf.rendering.*;
+
+import javax.vecmath.*;
+
+import java.util.*;
+
+/**
+ * Immutable copy of everything that determines the image of a
+ * {@link CPUAlgebraicSurfaceRenderer}: surface, parameters, transforms, camera,
+ * materials, lights, background and anti-aliasing settings.
+ * Snapshots are created by {@link CPUAlgebraicSurfaceRenderer#createSnapshot()}.
+ * Changing the renderer afterwards does not affect the snapshot, so a snapshot
+ * can be drawn while the renderer is being modified, and several snapshots can be
+ * drawn at the same time from different threads.
+ * Snapshots of the same surface share its expanded polynomials and substitutors.
+ */
+public final class SceneSnapshot
+{
+    final String surfaceFamilyString;
+    final Map< String, java.lang.Double > parameters;
+    final int surfaceTotalDegree;
+    final ExpandedSurface expandedSurface;
+
+    final Matrix4d transform;
+    final Matrix4d surfaceTransform;
+    final Camera camera;
+    final Material frontMaterial;
+    final Material backMaterial;
+    final LightSource[] lightSources;
+    final Color3f backgroundColor;
+
+    final AntiAliasingPattern antiAliasingPattern;
+    final float antiAliasingThreshold;
+    final GeometryDiscontinuityMetric discontinuityMetric; // null, if the colors decide about supersampling
+
+    SceneSnapshot( CPUAlgebraicSurfaceRenderer asr, ExpandedSurface expandedSurface, AntiAliasingPattern antiAliasingPattern, float antiAliasingThreshold, GeometryDiscontinuityMetric discontinuityMetric )
+    {
+        this.surfaceFamilyString = asr.getSurfaceFamilyString();
+        Map< String, java.lang.Double > parameters = new HashMap< String, java.lang.Double >();
+        for( Map.Entry< String, java.lang.Double > e : asr.getAssignedParameters() )
+            parameters.put( e.getKey(), e.getValue() );
+        this.parameters = Collections.unmodifiableMap( parameters );
+        this.surfaceTotalDegree = asr.getSurfaceTotalDegree();
+        this.expandedSurface = expandedSurface;
+
+        this.transform = asr.getTransform();
+        this.surfaceTransform = asr.getSurfaceTransform();
+        this.camera = new Camera( asr.getCamera() );
+        this.frontMaterial = new Material( asr.getFrontMaterial() );
+        this.backMaterial = new Material( asr.getBackMaterial() );
+        this.lightSources = new LightSource[ AlgebraicSurfaceRenderer.MAX_LIGHTS ];
+        for( int i = 0; i < this.lightSources.length; i++ )
+            if( asr.getLightSource( i ) != null )
+                this.lightSources[ i ] = new LightSource( asr.getLightSource( i ) );
+        this.backgroundColor = new Color3f( asr.getBackgroundColor() );
+
+        this.antiAliasingPattern = antiAliasingPattern;
+        this.antiAliasingThreshold = antiAliasingThreshold;
+        this.discontinuityMetric = discontinuityMetric;
+    }
+
+    public String getSurfaceFamilyString()
+    {
+        return this.surfaceFamilyString;
+    }
+
+    public Map< String, java.lang.Double > getAssignedParameters()
+    {
+        return this.parameters;
+    }
+
+    public AntiAliasingPattern getAntiAliasingPattern()
+    {
+        return this.antiAliasingPattern;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import de.mfo.jsurf.algebra.*;
+
+import java.util.*;
+
+/**
+ * Process-wide cache of the {@link SurfaceKernel}s of renderers that use
+ * {@link CPUAlgebraicSurfaceRenderer#setSpecializedKernels(boolean) specialized kernels}.
+ * A kernel is kept per surface and ray parametrization, so consecutive draw calls without changes
+ * of the surface or the camera share it. The least recently used kernels are evicted, if the cache
+ * holds more than {@link #getCapacity()} kernels. Evicted kernels and their generated classes are
+ * unloaded by the garbage collector as soon as no draw call uses them anymore.
+ */
+public final class SurfaceKernelCache
+{
+    private static class Entry
+    {
+        final ExpandedSurface surface;
+        final SurfaceKernel kernel; // null, if no kernel can be generated for the surface
+
+        Entry( ExpandedSurface surface, SurfaceKernel kernel )
+        {
+            this.surface = surface;
+            this.kernel = kernel;
+        }
+    }
+
+    // least recently used first
+    private static final LinkedHashMap< ExpandedSurface.Substitutors, Entry > kernels = new LinkedHashMap< ExpandedSurface.Substitutors, Entry >( 16, 0.75f, true );
+    private static int capacity = 16;
+
+    private SurfaceKernelCache()
+    {
+    }
+
+    /**
+     * Returns the kernel for {@code substitutors} and generates it, if it is not cached.
+     * @return {@code null}, if no kernel can be generated for the surface
+     */
+    static SurfaceKernel get( ExpandedSurface surface, ExpandedSurface.Substitutors substitutors )
+    {
+        synchronized( kernels )
+        {
+            Entry entry = kernels.get( substitutors );
+            if( entry != null )
+                return entry.kernel;
+        }
+
+        // generate without holding the lock, because other draw calls may need other kernels
+        SurfaceKernel kernel = SurfaceKernel.create( substitutors.surfaceRowSubstitutor, substitutors.gradientRowSubstitutor );
+        synchronized( kernels )
+        {
+            Entry entry = kernels.get( substitutors );
+            if( entry != null )
+                return entry.kernel; // generated concurrently
+            kernels.put( substitutors, new Entry( surface, kernel ) );
+            evictLeastRecentlyUsed();
+        }
+        return kernel;
+    }
+
+    /**
+     * Sets the maximum number of cached kernels. Kernels above the new capacity are evicted immediately.
+     * @param capacity
+     */
+    public static void setCapacity( int capacity )
+    {
+        if( capacity < 0 )
+            throw new IllegalArgumentException( "capacity must not be negative" );
+        synchronized( kernels )
+        {
+            SurfaceKernelCache.capacity = capacity;
+            evictLeastRecentlyUsed();
+        }
+    }
+
+    public static int getCapacity()
+    {
+        synchronized( kernels )
+        {
+            return capacity;
+        }
+    }
+
+    /**
+     * @return number of cached kernels
+     */
+    public static int size()
+    {
+        synchronized( kernels )
+        {
+            return kernels.size();
+        }
+    }
+
+    /**
+     * Evicts the kernels of the surface of {@code snapshot}.
+     */
+    public static void evict( SceneSnapshot snapshot )
+    {
+        synchronized( kernels )
+        {
+            for( Iterator< Entry > it = kernels.values().iterator(); it.hasNext(); )
+                if( it.next().surface == snapshot.expandedSurface )
+                    it.remove();
+        }
+    }
+
+    /**
+     * Evicts all kernels.
+     */
+    public static void clear()
+    {
+        synchronized( kernels )
+        {
+            kernels.clear();
+        }
+    }
+
+    private static void evictLeastRecentlyUsed()
+    {
+        for( Iterator< Entry > it = kernels.values().iterator(); kernels.size() > capacity; )
+        {
+            it.next();
+            it.remove();
+        }
+    }
+}
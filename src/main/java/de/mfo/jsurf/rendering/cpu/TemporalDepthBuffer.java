@@ -0,0 +1,89 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package de.mfo.jsurf.rendering.cpu;
+
+import javax.vecmath.*;
+
+/**
+ * Intersections of the rays of the samples of the previous draw call with the surface, which serve as
+ * guesses for the root search of the next draw call with the same sample grid, see
+ * {@link CPUAlgebraicSurfaceRenderer#setTemporalDepthHints(boolean)}. The intersections are stored in
+ * surface space, so that they follow changes of the camera and the transformations: the guess for a ray
+ * of the next draw call is the parameter of the point of the ray closest to the stored intersection.
+ * Entries of samples that are not traced keep their values. Concurrent draw calls may overwrite each
+ * other's entries, which only affects the quality of the guesses.
+ */
+final class TemporalDepthBuffer
+{
+    private final int columns;
+    private final int rows;
+    private final float[] points; // packed xyz per sample, NaN if the ray did not hit the surface
+
+    TemporalDepthBuffer( int columns, int rows )
+    {
+        this.columns = columns;
+        this.rows = rows;
+        this.points = new float[ 3 * columns * rows ];
+        java.util.Arrays.fill( this.points, java.lang.Float.NaN );
+    }
+
+    /**
+     * The samples are located at the pixel centers for {@link AntiAliasingPattern#OG_1x1} and at the pixel corners
+     * for all other patterns.
+     */
+    static int columns( int width, AntiAliasingPattern aap ) { return aap == AntiAliasingPattern.OG_1x1 ? width : width + 1; }
+    static int rows( int height, AntiAliasingPattern aap ) { return aap == AntiAliasingPattern.OG_1x1 ? height : height + 1; }
+
+    boolean matches( int columns, int rows )
+    {
+        return this.columns == columns && this.rows == rows;
+    }
+
+    int getColumns() { return columns; }
+
+    /**
+     * @return parameter of the point of {@code surfaceRay} closest to the stored intersection of {@code sample}
+     * or {@code Double.NaN}, if there is none
+     */
+    double hint( int sample, Ray surfaceRay )
+    {
+        int i = 3 * sample;
+        float x = points[ i ];
+        if( java.lang.Float.isNaN( x ) )
+            return java.lang.Double.NaN;
+        Vector3d d = surfaceRay.d;
+        double dd = d.dot( d );
+        if( dd == 0.0 )
+            return java.lang.Double.NaN;
+        Point3d o = surfaceRay.o;
+        return ( ( x - o.x ) * d.x + ( points[ i + 1 ] - o.y ) * d.y + ( points[ i + 2 ] - o.z ) * d.z ) / dd;
+    }
+
+    void store( int sample, Tuple3d p )
+    {
+        int i = 3 * sample;
+        points[ i ] = ( float ) p.x;
+        points[ i + 1 ] = ( float ) p.y;
+        points[ i + 2 ] = ( float ) p.z;
+    }
+
+    void clear( int sample )
+    {
+        points[ 3 * sample ] = java.lang.Float.NaN;
+    }
+}
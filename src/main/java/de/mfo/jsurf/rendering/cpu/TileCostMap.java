@@ -0,0 +1,141 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Measured rendering cost of each tile of a frame. The image is divided into a
+ * regular grid of {@code tileSize x tileSize} tiles (tiles at the right and bottom
+ * border may be smaller). For each tile the rendering time, the number of primary
+ * rays and the number of additional anti-aliasing samples are recorded.
+ */
+public final class TileCostMap
+{
+    private final int width;
+    private final int height;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final long[] nanos;
+    private final long[] rays;
+    private final long[] antiAliasingSamples;
+
+    private TileCostMap( int width, int height, int tileSize, long[] nanos, long[] rays, long[] antiAliasingSamples )
+    {
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.columns = columns( width, tileSize );
+        this.rows = columns( height, tileSize );
+        this.nanos = nanos;
+        this.rays = rays;
+        this.antiAliasingSamples = antiAliasingSamples;
+    }
+
+    private static int columns( int width, int tileSize )
+    {
+        return ( width + tileSize - 1 ) / tileSize;
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+    public int getTileSize() { return tileSize; }
+    public int getColumns() { return columns; }
+    public int getRows() { return rows; }
+
+    /**
+     * @return time in nanoseconds that was spent on rendering the tile at {@code column} and {@code row}
+     */
+    public long getNanos( int column, int row ) { return nanos[ row * columns + column ]; }
+
+    /**
+     * @return number of rays that were traced for the pixel corners or centers of the tile
+     */
+    public long getRays( int column, int row ) { return rays[ row * columns + column ]; }
+
+    /**
+     * @return number of additional rays that were traced for adaptive anti-aliasing of the tile
+     */
+    public long getAntiAliasingSamples( int column, int row ) { return antiAliasingSamples[ row * columns + column ]; }
+
+    public long getTotalNanos()
+    {
+        long total = 0;
+        for( long n : nanos )
+            total += n;
+        return total;
+    }
+
+    /**
+     * Checks, if this map belongs to a frame of the given size and tiling.
+     */
+    public boolean matches( int width, int height, int tileSize )
+    {
+        return this.width == width && this.height == height && this.tileSize == tileSize;
+    }
+
+    /**
+     * Collects the costs of the tiles while they are rendered concurrently.
+     */
+    static class Recorder
+    {
+        private final int width;
+        private final int height;
+        private final int tileSize;
+        private final int columns;
+        private final AtomicLongArray nanos;
+        private final AtomicLongArray rays;
+        private final AtomicLongArray antiAliasingSamples;
+
+        Recorder( int width, int height, int tileSize )
+        {
+            this.width = width;
+            this.height = height;
+            this.tileSize = tileSize;
+            this.columns = columns( width, tileSize );
+            int length = this.columns * columns( height, tileSize );
+            this.nanos = new AtomicLongArray( length );
+            this.rays = new AtomicLongArray( length );
+            this.antiAliasingSamples = new AtomicLongArray( length );
+        }
+
+        /**
+         * Adds the cost of a rendered region to the tile that contains its upper left pixel.
+         */
+        void record( int x, int y, long nanos, long rays, long antiAliasingSamples )
+        {
+            int index = ( y / tileSize ) * columns + x / tileSize;
+            this.nanos.addAndGet( index, nanos );
+            this.rays.addAndGet( index, rays );
+            this.antiAliasingSamples.addAndGet( index, antiAliasingSamples );
+        }
+
+        TileCostMap toTileCostMap()
+        {
+            return new TileCostMap( width, height, tileSize, toArray( nanos ), toArray( rays ), toArray( antiAliasingSamples ) );
+        }
+
+        private static long[] toArray( AtomicLongArray a )
+        {
+            long[] result = new long[ a.length() ];
+            for( int i = 0; i < result.length; ++i )
+                result[ i ] = a.get( i );
+            return result;
+        }
+    }
+}
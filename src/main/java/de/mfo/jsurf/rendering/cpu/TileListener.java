@@ -0,0 +1,34 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+/**
+ * Receives the rectangles of the color buffer that have been completed by a draw
+ * call, see {@link CPUAlgebraicSurfaceRenderer#drawAsync(SceneSnapshot, int[], int, int, TileListener)}.
+ * The listener is called by the rendering threads, possibly concurrently, and should
+ * return quickly. The pixels of the rectangle do not change anymore during the draw call.
+ */
+public interface TileListener
+{
+    /**
+     * @param xStart first column of the rectangle
+     * @param yStart first row of the rectangle
+     * @param xEnd last column of the rectangle (inclusive)
+     * @param yEnd last row of the rectangle (inclusive)
+     */
+    void tileCompleted( int xStart, int yStart, int xEnd, int yEnd );
+}
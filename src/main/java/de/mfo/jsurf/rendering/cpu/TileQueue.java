@@ -0,0 +1,141 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Fixed sequence of tiles that is processed by any number of workers. Each
+ * worker takes the next tile of the sequence when it is started, so the tiles are
+ * started in the order of the sequence regardless of the order in which the
+ * executor runs the workers.
+ */
+class TileQueue
+{
+    // tiles, whose cost exceeds the average cost by this factor, are split into quadrants
+    private static final int SPLIT_FACTOR = 4;
+
+    private final List< Callable< Boolean > > tiles;
+    private final AtomicInteger next;
+
+    TileQueue( List< ? extends Callable< Boolean > > tiles )
+    {
+        this.tiles = new ArrayList< Callable< Boolean > >( tiles );
+        this.next = new AtomicInteger();
+    }
+
+    int size()
+    {
+        return tiles.size();
+    }
+
+    /**
+     * Creates a task that renders the next tile of the queue.
+     */
+    Callable< Boolean > createWorker()
+    {
+        return new Callable< Boolean >() {
+            public Boolean call()
+                throws Exception
+            {
+                return tiles.get( next.getAndIncrement() ).call();
+            }
+        };
+    }
+
+    private static class Tile implements Comparable< Tile >
+    {
+        int xStart, yStart, xEnd, yEnd; // inclusive
+        long cost;
+
+        Tile( int xStart, int yStart, int xEnd, int yEnd, long cost )
+        {
+            this.xStart = xStart;
+            this.yStart = yStart;
+            this.xEnd = xEnd;
+            this.yEnd = yEnd;
+            this.cost = cost;
+        }
+
+        public int compareTo( Tile t )
+        {
+            // most expensive first
+            return cost < t.cost ? 1 : ( cost > t.cost ? -1 : 0 );
+        }
+    }
+
+    /**
+     * Creates a queue with the tiles of {@code costs}, which must match the size of
+     * the drawcall. Tiles are ordered by decreasing cost, so that the expensive tiles
+     * do not delay the end of the frame. Tiles that are much more expensive than the
+     * average are split into quadrants to balance the load even further.
+     */
+    static TileQueue orderByCost( DrawcallStaticData dcsd, TileCostMap costs )
+    {
+        int tileSize = costs.getTileSize();
+        long averageCost = costs.getTotalNanos() / ( costs.getColumns() * costs.getRows() );
+
+        List< Tile > tiles = new ArrayList< Tile >();
+        for( int row = 0; row < costs.getRows(); ++row )
+        {
+            for( int column = 0; column < costs.getColumns(); ++column )
+            {
+                int xStart = column * tileSize;
+                int yStart = row * tileSize;
+                int xEnd = Math.min( xStart + tileSize, dcsd.width ) - 1;
+                int yEnd = Math.min( yStart + tileSize, dcsd.height ) - 1;
+                long cost = costs.getNanos( column, row );
+                if( cost > SPLIT_FACTOR * averageCost && ( xEnd > xStart || yEnd > yStart ) )
+                {
+                    int xSplit = ( xStart + xEnd + 1 ) / 2;
+                    int ySplit = ( yStart + yEnd + 1 ) / 2;
+                    int parts = ( xEnd > xStart ? 2 : 1 ) * ( yEnd > yStart ? 2 : 1 );
+                    long partCost = cost / parts;
+                    if( xEnd > xStart && yEnd > yStart )
+                    {
+                        tiles.add( new Tile( xStart, yStart, xSplit - 1, ySplit - 1, partCost ) );
+                        tiles.add( new Tile( xSplit, yStart, xEnd, ySplit - 1, partCost ) );
+                        tiles.add( new Tile( xStart, ySplit, xSplit - 1, yEnd, partCost ) );
+                        tiles.add( new Tile( xSplit, ySplit, xEnd, yEnd, partCost ) );
+                    }
+                    else if( xEnd > xStart )
+                    {
+                        tiles.add( new Tile( xStart, yStart, xSplit - 1, yEnd, partCost ) );
+                        tiles.add( new Tile( xSplit, yStart, xEnd, yEnd, partCost ) );
+                    }
+                    else
+                    {
+                        tiles.add( new Tile( xStart, yStart, xEnd, ySplit - 1, partCost ) );
+                        tiles.add( new Tile( xStart, ySplit, xEnd, yEnd, partCost ) );
+                    }
+                }
+                else
+                {
+                    tiles.add( new Tile( xStart, yStart, xEnd, yEnd, cost ) );
+                }
+            }
+        }
+        Collections.sort( tiles ); // stable, so tiles of equal cost stay in scanline order
+
+        List< RenderingTask > tasks = new ArrayList< RenderingTask >( tiles.size() );
+        for( Tile t : tiles )
+            tasks.add( new RenderingTask( dcsd, t.xStart, t.yStart, t.xEnd, t.yEnd ) );
+        return new TileQueue( tasks );
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *    Copyright 2008 Christian Stussak
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package de.mfo.jsurf.rendering.cpu;
+
+import de.mfo.jsurf.rendering.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Recursively splits a region of the image into tiles of at most
+ * {@code tileSize x tileSize} pixels and renders them on a {@link ForkJoinPool}.
+ * Split positions are always multiples of {@code tileSize} (relative to the
+ * origin of the region), so the leaves form a regular grid of tiles.
+ * Idle workers steal the largest pending regions from busy workers, which keeps
+ * all cores busy even if some tiles are much more expensive than others.
+ */
+class TileRenderingAction extends RecursiveAction
+{
+    private DrawcallStaticData dcsd;
+    private int xStart;
+    private int yStart;
+    private int xEnd; // inclusive
+    private int yEnd; // inclusive
+    private int tileSize;
+    private boolean mortonOrder;
+
+    TileRenderingAction( DrawcallStaticData dcsd, int xStart, int yStart, int xEnd, int yEnd, int tileSize, boolean mortonOrder )
+    {
+        this.dcsd = dcsd;
+        this.xStart = xStart;
+        this.yStart = yStart;
+        this.xEnd = xEnd;
+        this.yEnd = yEnd;
+        this.tileSize = tileSize;
+        this.mortonOrder = mortonOrder;
+    }
+
+    @Override
+    protected void compute()
+    {
+        if( dcsd.cancelled )
+            throw new RenderingInterruptedException( "Rendering interrupted" );
+
+        TileRenderingAction[] subregions = split();
+        if( subregions == null )
+        {
+            if( !toRenderingTask().call() )
+                throw new RenderingInterruptedException( "Rendering interrupted" );
+            return;
+        }
+
+        // fork in reverse order, so that this worker pops the subregions from its
+        // own queue in the intended order, while thieves steal the most distant ones
+        for( int i = subregions.length - 1; i > 0; --i )
+            subregions[ i ].fork();
+        // join all subregions, even if one of them fails, so that no tile is still
+        // rendering when the drawcall has finished
+        RuntimeException failure = null;
+        try
+        {
+            subregions[ 0 ].compute();
+        }
+        catch( RuntimeException re )
+        {
+            failure = re;
+            dcsd.cancelled = true; // the drawcall fails anyway, so stop the other tiles early
+        }
+        for( int i = 1; i < subregions.length; ++i )
+        {
+            try
+            {
+                subregions[ i ].join();
+            }
+            catch( RuntimeException re )
+            {
+                if( failure == null )
+                    failure = re;
+                dcsd.cancelled = true;
+            }
+        }
+        if( failure != null )
+            throw failure;
+    }
+
+    RenderingTask toRenderingTask()
+    {
+        return new RenderingTask( dcsd, xStart, yStart, xEnd, yEnd );
+    }
+
+    /**
+     * Returns the tiles of this region in the order in which they are traversed by {@link #compute()}.
+     */
+    List< TileRenderingAction > getTiles()
+    {
+        List< TileRenderingAction > tiles = new ArrayList< TileRenderingAction >();
+        collectTiles( tiles );
+        return tiles;
+    }
+
+    private void collectTiles( List< TileRenderingAction > tiles )
+    {
+        TileRenderingAction[] subregions = split();
+        if( subregions == null )
+            tiles.add( this );
+        else
+            for( TileRenderingAction subregion : subregions )
+                subregion.collectTiles( tiles );
+    }
+
+    /**
+     * @return the subregions of this region in traversal order or {@code null}, if this region is a single tile
+     */
+    private TileRenderingAction[] split()
+    {
+        int xTiles = ( xEnd - xStart + tileSize ) / tileSize;
+        int yTiles = ( yEnd - yStart + tileSize ) / tileSize;
+
+        if( xTiles == 1 && yTiles == 1 )
+            return null;
+
+        int xSplit = xStart + ( xTiles / 2 ) * tileSize;
+        int ySplit = yStart + ( yTiles / 2 ) * tileSize;
+
+        if( mortonOrder && xTiles > 1 && yTiles > 1 )
+        {
+            // quadrants in Z-order
+            return new TileRenderingAction[] {
+                subregion( xStart, yStart, xSplit - 1, ySplit - 1 ),
+                subregion( xSplit, yStart, xEnd, ySplit - 1 ),
+                subregion( xStart, ySplit, xSplit - 1, yEnd ),
+                subregion( xSplit, ySplit, xEnd, yEnd )
+            };
+        }
+        else if( yTiles > 1 )
+        {
+            // split into bands of rows first, which results in scanline order
+            return new TileRenderingAction[] {
+                subregion( xStart, yStart, xEnd, ySplit - 1 ),
+                subregion( xStart, ySplit, xEnd, yEnd )
+            };
+        }
+        else
+        {
+            return new TileRenderingAction[] {
+                subregion( xStart, yStart, xSplit - 1, yEnd ),
+                subregion( xSplit, yStart, xEnd, yEnd )
+            };
+        }
+    }
+
+    private TileRenderingAction subregion( int xStart, int yStart, int xEnd, int yEnd )
+    {
+        return new TileRenderingAction( dcsd, xStart, yStart, xEnd, yEnd, tileSize, mortonOrder );
+    }
+}
@@ -30,6 +30,8 @@ public class ClipToSphere extends Clipper
     public ClipToSphere() { this( 1.0 ); }
     public ClipToSphere( double radius ) { super(); this.radius = radius; }
 
+    public double getRadius() { return radius; }
+
     @Override
     public List< Vector2d > clipRay( Ray r )
     {
@@ -54,6 +56,124 @@ public class ClipToSphere extends Clipper
         return intervals;
     }
 
+    @Override
+    public int clipRay( Ray r, double[] bounds )
+    {
+        // same arithmetic as clipRay( r ), but without allocation
+        double length = Math.sqrt( r.d.x * r.d.x + r.d.y * r.d.y + r.d.z * r.d.z );
+        double s = 1.0f / length;
+        double dx = r.d.x * s;
+        double dy = r.d.y * s;
+        double dz = r.d.z * s;
+
+        double B = -( r.o.x * dx + r.o.y * dy + r.o.z * dz );
+        double C = ( r.o.x * r.o.x + r.o.y * r.o.y + r.o.z * r.o.z ) - radius * radius;
+        double D = B * B - C;
+
+        if( D >= 0.0 )
+        {
+            double sqrtD = Math.sqrt( D );
+            if( bounds.length >= 2 )
+            {
+                bounds[ 0 ] = ( B - sqrtD ) * ( 1.0 / length );
+                bounds[ 1 ] = ( B + sqrtD ) * ( 1.0 / length );
+            }
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Bounds the parameters t of the points inside the sphere on all rays o + t * d, whose components
+     * are within the given ranges, e.g. the rays of a block of pixels. The bounds are derived from the
+     * bounding cube of the sphere and from the distances of the points on the rays to the closest points
+     * to the center, so they are conservative, but not tight.
+     * @param range array of at least four elements, whose first two elements receive the lower and
+     * the upper bound, which may be infinite
+     * @return {@code false}, if none of the rays intersects the sphere
+     */
+    public boolean bound( Tuple3d oMin, Tuple3d oMax, Tuple3d dMin, Tuple3d dMax, double[] range )
+    {
+        // range of t >= 0 in range[ 0..1 ] and of t <= 0 in range[ 2..3 ]
+        range[ 0 ] = 0.0;
+        range[ 1 ] = java.lang.Double.POSITIVE_INFINITY;
+        range[ 2 ] = java.lang.Double.NEGATIVE_INFINITY;
+        range[ 3 ] = 0.0;
+        constrain( oMin.x, oMax.x, dMin.x, dMax.x, range );
+        constrain( oMin.y, oMax.y, dMin.y, dMax.y, range );
+        constrain( oMin.z, oMax.z, dMin.z, dMax.z, range );
+
+        boolean hitsPositive = range[ 0 ] <= range[ 1 ];
+        boolean hitsNegative = range[ 2 ] <= range[ 3 ];
+        if( !hitsPositive && !hitsNegative )
+            return false;
+        double lower = hitsNegative ? range[ 2 ] : range[ 0 ];
+        double upper = hitsPositive ? range[ 1 ] : range[ 3 ];
+
+        // the points inside the sphere are within r / |d| of the closest point t = -o.d / |d|^2 to the center
+        double odMin = 0.0;
+        double odMax = 0.0;
+        double ddMin = 0.0;
+        double ddMax = 0.0;
+        for( int i = 0; i < 3; ++i )
+        {
+            double oLo = i == 0 ? oMin.x : i == 1 ? oMin.y : oMin.z;
+            double oHi = i == 0 ? oMax.x : i == 1 ? oMax.y : oMax.z;
+            double dLo = i == 0 ? dMin.x : i == 1 ? dMin.y : dMin.z;
+            double dHi = i == 0 ? dMax.x : i == 1 ? dMax.y : dMax.z;
+            double a = oLo * dLo;
+            double b = oLo * dHi;
+            double c = oHi * dLo;
+            double d = oHi * dHi;
+            odMin += Math.min( Math.min( a, b ), Math.min( c, d ) );
+            odMax += Math.max( Math.max( a, b ), Math.max( c, d ) );
+            if( dLo > 0.0 || dHi < 0.0 )
+                ddMin += Math.min( dLo * dLo, dHi * dHi );
+            ddMax += Math.max( dLo * dLo, dHi * dHi );
+        }
+        if( ddMin > 0.0 )
+        {
+            double tMin = Math.min( Math.min( -odMax / ddMin, -odMax / ddMax ), Math.min( -odMin / ddMin, -odMin / ddMax ) );
+            double tMax = Math.max( Math.max( -odMax / ddMin, -odMax / ddMax ), Math.max( -odMin / ddMin, -odMin / ddMax ) );
+            double h = radius / Math.sqrt( ddMin );
+            lower = Math.max( lower, tMin - h );
+            upper = Math.min( upper, tMax + h );
+            if( lower > upper + 1e-9 * ( Math.abs( lower ) + Math.abs( upper ) ) )
+                return false;
+        }
+        double slack = 1e-9 * ( Math.abs( lower ) + Math.abs( upper ) );
+        range[ 0 ] = lower - slack;
+        range[ 1 ] = upper + slack;
+        return true;
+    }
+
+    // the smallest and the largest value of the component o + t * d of the rays must not be outside the sphere's bounding cube
+    private void constrain( double oMin, double oMax, double dMin, double dMax, double[] range )
+    {
+        // slightly larger, to cover the rounding errors of clipRay
+        double r = radius * ( 1.0 + 1e-9 );
+        // t >= 0
+        constrain( range, 0, oMin, dMin, r );
+        constrain( range, 0, -oMax, -dMax, r );
+        // t <= 0
+        constrain( range, 2, oMin, dMax, r );
+        constrain( range, 2, -oMax, -dMin, r );
+    }
+
+    // restricts the range at offset to the values of t with p + t * q <= r
+    private static void constrain( double[] range, int offset, double p, double q, double r )
+    {
+        if( q > 0.0 )
+            range[ offset + 1 ] = Math.min( range[ offset + 1 ], ( r - p ) / q );
+        else if( q < 0.0 )
+            range[ offset ] = Math.max( range[ offset ], ( r - p ) / q );
+        else if( p > r )
+        {
+            range[ offset ] = java.lang.Double.POSITIVE_INFINITY; // empty
+            range[ offset + 1 ] = java.lang.Double.NEGATIVE_INFINITY;
+        }
+    }
+
     @Override
     public boolean clipPoint( Point3d p )
     {
@@ -28,6 +28,24 @@ public abstract class Clipper
     // returns sorted list of disjoint intervals
     public abstract List< Vector2d > clipRay( Ray r );
 
+    // stores the intervals of clipRay( r ) as consecutive lower and upper bounds in bounds
+    // and returns their number; intervals that do not fit into bounds are not stored
+    public int clipRay( Ray r, double[] bounds )
+    {
+        List< Vector2d > intervals = clipRay( r );
+        int i = 0;
+        for( Vector2d interval : intervals )
+        {
+            if( 2 * i + 1 < bounds.length )
+            {
+                bounds[ 2 * i ] = interval.x;
+                bounds[ 2 * i + 1 ] = interval.y;
+            }
+            ++i;
+        }
+        return i;
+    }
+
     // returns true, if the point is not clipped
     public abstract boolean clipPoint( Point3d p );
 
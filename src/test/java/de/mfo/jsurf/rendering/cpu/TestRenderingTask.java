@@ -0,0 +1,265 @@
+package de.mfo.jsurf.rendering.cpu;
+
+import org.junit.*;
+
+import de.mfo.jsurf.algebra.*;
+import de.mfo.jsurf.rendering.Camera;
+import de.mfo.jsurf.rendering.RenderingInterruptedException;
+import de.mfo.jsurf.util.FileFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Vector3d;
+
+// needs access to the package private data of a draw call to let a tile fail or to replace the algebra
+public class TestRenderingTask
+{
+	/**
+	 * Fails every ray of the first thread, that traces a ray, after a while. The rays of the other threads
+	 * are slowed down by {@code delay} milliseconds.
+	 */
+	private static class FailingRootFinder extends DescartesRootFinder
+	{
+		final AtomicReference< Thread > failingThread = new AtomicReference< Thread >();
+		final AtomicInteger finishedCalls = new AtomicInteger();
+		private final long delay;
+
+		FailingRootFinder( long delay )
+		{
+			super( false );
+			this.delay = delay;
+		}
+
+		@Override
+		public double findFirstRootIn( UnivariatePolynomial p, double lowerBound, double upperBound )
+		{
+			failingThread.compareAndSet( null, Thread.currentThread() );
+			if( failingThread.get() == Thread.currentThread() )
+			{
+				sleep( 100 );
+				throw new IllegalStateException( "failing tile" );
+			}
+			if( delay > 0 )
+				sleep( delay );
+			double root = super.findFirstRootIn( p, lowerBound, upperBound );
+			finishedCalls.incrementAndGet();
+			return root;
+		}
+
+		private static void sleep( long millis )
+		{
+			try { Thread.sleep( millis ); } catch( InterruptedException ie ) { Thread.currentThread().interrupt(); }
+		}
+	}
+
+	private static CPUAlgebraicSurfaceRenderer loadTutorialScene( ExecutorService executor )
+		throws java.io.IOException, Exception
+	{
+		CPUAlgebraicSurfaceRenderer asr = new CPUAlgebraicSurfaceRenderer( executor, true );
+		Properties jsurf = new Properties();
+		jsurf.load( TestRenderingTask.class.getResourceAsStream( "/de/mfo/jsurf/test/tutorial_wuerfel.jsurf" ) );
+		FileFormat.load( jsurf, asr );
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_4x4 );
+		asr.setTileScheduling( CPUAlgebraicSurfaceRenderer.TileScheduling.WORK_STEALING );
+		asr.setTileSize( 8 );
+		asr.setSharedCornerSamples( true );
+		return asr;
+	}
+
+	/**
+	 * Draws a 64x64 image with the given root finder and checks that the draw call is interrupted within 30 seconds.
+	 */
+	private static void drawWithFailingTiles( final CPUAlgebraicSurfaceRenderer asr, FailingRootFinder rootFinder )
+		throws Exception
+	{
+		final DrawcallStaticData dcsd = asr.collectDrawCallStaticData( asr.createSnapshot(), new int[ 64 * 64 ], 64, 64 );
+		dcsd.realRootFinder = rootFinder;
+		dcsd.rayPacketSize = 1;
+		dcsd.rootTolerance = 0.0;
+
+		FutureTask< Void > drawcall = new FutureTask< Void >( new Runnable() {
+			public void run() {
+				asr.draw( dcsd );
+			}
+		}, null );
+		new Thread( drawcall ).start();
+		try
+		{
+			drawcall.get( 30, TimeUnit.SECONDS );
+			Assert.fail( "a draw call with a failed tile must be interrupted" );
+		}
+		catch( ExecutionException ee )
+		{
+			Assert.assertTrue( "a draw call with a failed tile must be interrupted", ee.getCause() instanceof RenderingInterruptedException );
+		}
+		catch( TimeoutException te )
+		{
+			dcsd.cancelled = true;
+			Assert.fail( "the tiles must not wait for the corners of a failed tile" );
+		}
+	}
+
+	@Test
+	public void failingTileShouldNotBlockTheTilesSharingItsCorners()
+		throws java.io.IOException, Exception
+	{
+		// every tile on the first thread, that traces a ray, fails after it has claimed a corner, while the
+		// neighbouring tiles on the other threads reach this corner
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene( Executors.newFixedThreadPool( 4 ) );
+		try
+		{
+			drawWithFailingTiles( asr, new FailingRootFinder( 0 ) );
+		}
+		finally
+		{
+			asr.close();
+		}
+	}
+
+	@Test
+	public void failingLeafShouldStopAllTilesOfTheWorkStealingDrawcall()
+		throws java.io.IOException, Exception
+	{
+		// the tiles of the other workers are still rendering, when the leaf fails
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene( new ForkJoinPool( 4 ) );
+		try
+		{
+			FailingRootFinder rootFinder = new FailingRootFinder( 20 );
+			drawWithFailingTiles( asr, rootFinder );
+			int finishedCalls = rootFinder.finishedCalls.get();
+			Thread.sleep( 200 );
+			Assert.assertEquals( "no tile may trace rays after the draw call has returned", finishedCalls, rootFinder.finishedCalls.get() );
+		}
+		finally
+		{
+			asr.close();
+		}
+	}
+
+	/**
+	 * Hits the surface in the middle of the interval of each ray within the clipping sphere.
+	 */
+	private static class StubRootFinder implements RealRootFinder
+	{
+		int calls;
+
+		public double[] findAllRoots( UnivariatePolynomial p ) { throw new UnsupportedOperationException(); }
+		public double[] findAllRootsIn( UnivariatePolynomial p, double lowerBound, double upperBound ) { throw new UnsupportedOperationException(); }
+
+		public double findFirstRootIn( UnivariatePolynomial p, double lowerBound, double upperBound )
+		{
+			++calls;
+			return 0.5 * ( lowerBound + upperBound );
+		}
+	}
+
+	/**
+	 * Replaces the algebra of {@code dcsd} by stubs, that do not allocate: every ray hits the surface
+	 * and the normal of the surface is constant.
+	 */
+	private static StubRootFinder replaceAlgebraByStubs( DrawcallStaticData dcsd )
+	{
+		final UnivariatePolynomial surfacePolynomial = new UnivariatePolynomial( 0.0, 1.0 );
+		final ColumnSubstitutor scs = new ColumnSubstitutor() {
+			public UnivariatePolynomial setU( double u ) { return surfacePolynomial; }
+		};
+		dcsd.surfaceRowSubstitutor = new RowSubstitutor() {
+			public ColumnSubstitutor setV( double v ) { return scs; }
+		};
+		final UnivariatePolynomialVector3d gradientPolynomials = new UnivariatePolynomialVector3d() {
+			private final Vector3d gradient = new Vector3d( 0.0, 0.0, 1.0 );
+			public Vector3d setT( double t ) { return gradient; }
+			public void setT( double t, Vector3d result ) { result.set( gradient ); }
+		};
+		final ColumnSubstitutorForGradient gcs = new ColumnSubstitutorForGradient() {
+			public UnivariatePolynomialVector3d setU( double u ) { return gradientPolynomials; }
+		};
+		dcsd.gradientRowSubstitutor = new RowSubstitutorForGradient() {
+			public ColumnSubstitutorForGradient setV( double v ) { return gcs; }
+		};
+		StubRootFinder rootFinder = new StubRootFinder();
+		dcsd.realRootFinder = rootFinder;
+		dcsd.rayPacketSize = 1;
+		dcsd.rootTolerance = 0.0;
+		return rootFinder;
+	}
+
+	/**
+	 * Draws images of {@code 256 x height} and {@code 1024 x height} pixels with the stub algebra and returns the
+	 * bytes allocated by the calling thread per additional pixel.
+	 */
+	private static double allocatedBytesPerPixel( CPUAlgebraicSurfaceRenderer asr, com.sun.management.ThreadMXBean allocations, int height )
+	{
+		long threadId = Thread.currentThread().getId();
+		DrawcallStaticData small = asr.collectDrawCallStaticData( asr.createSnapshot(), new int[ 256 * height ], 256, height );
+		replaceAlgebraByStubs( small );
+		DrawcallStaticData large = asr.collectDrawCallStaticData( asr.createSnapshot(), new int[ 1024 * height ], 1024, height );
+		StubRootFinder rootFinder = replaceAlgebraByStubs( large );
+		long before = allocations.getThreadAllocatedBytes( threadId );
+		asr.draw( small );
+		long smallBytes = allocations.getThreadAllocatedBytes( threadId ) - before;
+		before = allocations.getThreadAllocatedBytes( threadId );
+		asr.draw( large );
+		long largeBytes = allocations.getThreadAllocatedBytes( threadId ) - before;
+		DrawStatistics statistics = asr.getDrawStatistics();
+		Assert.assertEquals( "every ray must reach the surface", statistics.getRays() + statistics.getAntiAliasingSamples(), rootFinder.calls );
+		return ( largeBytes - smallBytes ) / ( double ) ( ( 1024 - 256 ) * height );
+	}
+
+	@Test
+	public void tracingAndShadingOfHitsShouldNotAllocatePerPixel()
+		throws java.io.IOException, Exception
+	{
+		java.lang.management.ThreadMXBean threadMXBean = java.lang.management.ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue( threadMXBean instanceof com.sun.management.ThreadMXBean );
+		final com.sun.management.ThreadMXBean allocations = ( com.sun.management.ThreadMXBean ) threadMXBean;
+		Assume.assumeTrue( allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled() );
+
+		// render on the calling thread, so that all allocations are counted
+		ExecutorService callerRuns = new AbstractExecutorService() {
+			public void execute( Runnable r ) { r.run(); }
+			public void shutdown() {}
+			public List< Runnable > shutdownNow() { return new ArrayList< Runnable >(); }
+			public boolean isShutdown() { return false; }
+			public boolean isTerminated() { return false; }
+			public boolean awaitTermination( long timeout, TimeUnit unit ) { return true; }
+		};
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene( callerRuns );
+		// The algebra of rays that reach the surface still allocates the polynomials along the ray, their roots
+		// and the gradient along the ray. It is replaced by stubs, so that only tracing, shading and anti-aliasing
+		// are measured: all rays are within the clipping sphere and hit the surface.
+		Matrix4d identity = new Matrix4d();
+		identity.setIdentity();
+		asr.setTransform( identity );
+		asr.setSurfaceTransform( identity );
+		Camera camera = new Camera( asr.getCamera() );
+		camera.setHeight( 0.001 );
+		asr.setCamera( camera );
+		// a single tile per image, so that per-row and per-tile allocations do not depend on the width
+		asr.setTileSize( 4096 );
+		asr.setSharedCornerSamples( false );
+		// supersampling every pixel runs the same code as the anti-aliasing of the edges
+		asr.setAntiAliasingMode( CPUAlgebraicSurfaceRenderer.AntiAliasingMode.SUPERSAMPLING );
+		final int height = 16;
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			allocatedBytesPerPixel( asr, allocations, height ); // warm up
+			double bytesPerPixel = allocatedBytesPerPixel( asr, allocations, height );
+			System.out.println( aap + " with hits: " + bytesPerPixel + " bytes allocated per pixel" );
+			Assert.assertTrue( aap + " allocates " + bytesPerPixel + " bytes per pixel", bytesPerPixel < 1.0 );
+		}
+		asr.close();
+	}
+}
@@ -0,0 +1,75 @@
+package de.mfo.jsurf.test;
+
+import de.mfo.jsurf.rendering.cpu.*;
+import de.mfo.jsurf.util.FileFormat;
+import java.util.Properties;
+
+/**
+ * Compares the anti-aliasing modes and patterns by the number of samples per pixel and the error of
+ * the image with respect to supersampling every pixel with {@link AntiAliasingPattern#OG_8x8}.
+ * The error is the root mean square and the maximum difference of the color channels in 8 bit units.
+ * Run with {@code java de.mfo.jsurf.test.AntiAliasingBenchmark [resolution] [jsurf files]},
+ * e.g. with the files in the {@code examples} directory.
+ */
+public class AntiAliasingBenchmark
+{
+    public static void main( String[] args )
+        throws Exception
+    {
+        int resolution = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 200;
+        if( args.length <= 1 )
+            benchmark( "tutorial_wuerfel.jsurf", AntiAliasingBenchmark.class.getResourceAsStream( "tutorial_wuerfel.jsurf" ), resolution );
+        for( int i = 1; i < args.length; ++i )
+            benchmark( args[ i ], new java.io.FileInputStream( args[ i ] ), resolution );
+    }
+
+    private static void benchmark( String name, java.io.InputStream in, int resolution )
+        throws Exception
+    {
+        CPUAlgebraicSurfaceRenderer asr = new CPUAlgebraicSurfaceRenderer();
+        Properties jsurf = new Properties();
+        jsurf.load( in );
+        in.close();
+        FileFormat.load( jsurf, asr );
+        System.out.println( name );
+
+        asr.setAntiAliasingMode( CPUAlgebraicSurfaceRenderer.AntiAliasingMode.SUPERSAMPLING );
+        asr.setAntiAliasingPattern( AntiAliasingPattern.OG_8x8 );
+        int[] reference = new int[ resolution * resolution ];
+        asr.draw( reference, resolution, resolution );
+        report( "supersampling OG_8x8", asr, reference, reference );
+
+        for( CPUAlgebraicSurfaceRenderer.AntiAliasingMode mode : CPUAlgebraicSurfaceRenderer.AntiAliasingMode.values() )
+        {
+            asr.setAntiAliasingMode( mode );
+            for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_4x4, AntiAliasingPattern.OG_8x8, AntiAliasingPattern.PROGRESSIVE_8x8 } )
+            {
+                if( mode == CPUAlgebraicSurfaceRenderer.AntiAliasingMode.SUPERSAMPLING && aap == AntiAliasingPattern.OG_8x8 )
+                    continue;
+                asr.setAntiAliasingPattern( aap );
+                int[] image = new int[ resolution * resolution ];
+                asr.draw( image, resolution, resolution );
+                report( mode.toString().toLowerCase().replace( '_', ' ' ) + " " + aap, asr, reference, image );
+            }
+        }
+        asr.close();
+    }
+
+    private static void report( String label, CPUAlgebraicSurfaceRenderer asr, int[] reference, int[] image )
+    {
+        double squaredError = 0.0;
+        int maxError = 0;
+        for( int i = 0; i < image.length; ++i )
+        {
+            for( int shift = 0; shift < 24; shift += 8 )
+            {
+                int error = Math.abs( ( ( reference[ i ] >> shift ) & 0xff ) - ( ( image[ i ] >> shift ) & 0xff ) );
+                squaredError += error * error;
+                maxError = Math.max( maxError, error );
+            }
+        }
+        DrawStatistics statistics = asr.getDrawStatistics();
+        System.out.println( String.format( "  %-45s %6.2f samples/pixel, %7.1fms, rms error %.3f, max. error %d",
+            label, statistics.getSamplesPerPixel(), statistics.getTraceNanos() / 1e6, Math.sqrt( squaredError / ( 3.0 * image.length ) ), maxError ) );
+    }
+}
@@ -0,0 +1,101 @@
+package de.mfo.jsurf.test;
+
+import de.mfo.jsurf.algebra.*;
+import de.mfo.jsurf.parser.*;
+
+/**
+ * Compares the number of rays per second of the scalar {@link DescartesRootFinder} and
+ * of the {@link PacketRootFinder} for packets of neighbouring rays. The rays are parallel
+ * rays through a square grid, clipped to a sphere, as rendered by an orthographic camera.
+ * Run with {@code java de.mfo.jsurf.test.RootFinderBenchmark [resolution]}.
+ */
+public class RootFinderBenchmark
+{
+    static final String[] SURFACES = {
+        "x^6+y^6+z^6-1",
+        "4*(2.618*x^2-y^2)*(2.618*y^2-z^2)*(2.618*z^2-x^2)-(1+2*2.618)*(x^2+y^2+z^2-1)^2",
+    };
+
+    static final double RADIUS = 1.5;
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        int resolution = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 256;
+        for( String surface : SURFACES )
+        {
+            System.out.println( surface );
+            // x = t, y = u, z = v; rays are slightly tilted, so that they are not aligned with the surface
+            RowSubstitutor rs = new TransformedPolynomialRowSubstitutor( AlgebraicExpressionParser.parse( surface ),
+                AlgebraicExpressionParser.parse( "y+0.2*x" ), AlgebraicExpressionParser.parse( "z+0.1*x" ), AlgebraicExpressionParser.parse( "x" ) );
+
+            // rays that hit the clipping sphere, in scanline order
+            UnivariatePolynomial[] polynomials = new UnivariatePolynomial[ resolution * resolution ];
+            double[] lower = new double[ polynomials.length ];
+            double[] upper = new double[ polynomials.length ];
+            int rays = 0;
+            for( int row = 0; row < resolution; ++row )
+            {
+                double v = RADIUS * ( 2.0 * row / ( resolution - 1 ) - 1.0 );
+                ColumnSubstitutor cs = rs.setV( v );
+                for( int column = 0; column < resolution; ++column )
+                {
+                    double u = RADIUS * ( 2.0 * column / ( resolution - 1 ) - 1.0 );
+                    // |( u + 0.2 t, v + 0.1 t, t )|^2 = RADIUS^2
+                    double a = 1.05, b = 0.4 * u + 0.2 * v, c = u * u + v * v - RADIUS * RADIUS;
+                    double discriminant = b * b - 4.0 * a * c;
+                    if( discriminant <= 0.0 )
+                        continue;
+                    polynomials[ rays ] = cs.setU( u );
+                    lower[ rays ] = ( -b - Math.sqrt( discriminant ) ) / ( 2.0 * a );
+                    upper[ rays ] = ( -b + Math.sqrt( discriminant ) ) / ( 2.0 * a );
+                    ++rays;
+                }
+            }
+
+            DescartesRootFinder scalar = new DescartesRootFinder( false );
+            double[] roots = new double[ rays ];
+            System.out.println( String.format( "  scalar     %8.0f rays/s", benchmark( scalar, null, 1, polynomials, lower, upper, rays, roots ) ) );
+            for( int packetSize : new int[] { 4, 8, 16 } )
+            {
+                PacketRootFinder packet = new PacketRootFinder();
+                double raysPerSecond = benchmark( scalar, packet, packetSize, polynomials, lower, upper, rays, roots );
+                System.out.println( String.format( "  packet %2d  %8.0f rays/s, %.1f%% fallbacks", packetSize, raysPerSecond, 100.0 * packet.getFallbacks() / packet.getPolynomials() ) );
+            }
+        }
+    }
+
+    private static double benchmark( DescartesRootFinder scalar, PacketRootFinder packet, int packetSize, UnivariatePolynomial[] polynomials, double[] lower, double[] upper, int rays, double[] roots )
+    {
+        UnivariatePolynomial[] packetPolynomials = new UnivariatePolynomial[ packetSize ];
+        double[] packetLower = new double[ packetSize ];
+        double[] packetUpper = new double[ packetSize ];
+        double[] packetRoots = new double[ packetSize ];
+        long bestNanos = Long.MAX_VALUE;
+        // the first rounds warm up the JIT compiler
+        for( int round = 0; round < 30; ++round )
+        {
+            long start = System.nanoTime();
+            if( packet == null )
+            {
+                for( int i = 0; i < rays; ++i )
+                    roots[ i ] = scalar.findFirstRootIn( polynomials[ i ], lower[ i ], upper[ i ] );
+            }
+            else
+            {
+                for( int i = 0; i < rays; i += packetSize )
+                {
+                    int count = Math.min( packetSize, rays - i );
+                    System.arraycopy( polynomials, i, packetPolynomials, 0, count );
+                    System.arraycopy( lower, i, packetLower, 0, count );
+                    System.arraycopy( upper, i, packetUpper, 0, count );
+                    packet.findFirstRootsIn( packetPolynomials, packetLower, packetUpper, count, scalar, packetRoots );
+                    System.arraycopy( packetRoots, 0, roots, i, count );
+                }
+            }
+            if( round >= 10 )
+                bestNanos = Math.min( bestNanos, System.nanoTime() - start );
+        }
+        return rays / ( bestNanos / 1e9 );
+    }
+}
@@ -0,0 +1,84 @@
+package de.mfo.jsurf.test;
+
+import de.mfo.jsurf.algebra.*;
+import de.mfo.jsurf.parser.*;
+
+/**
+ * Measures the saving of the pixel footprint adaptive tolerance of {@link DescartesRootFinder} at several
+ * image resolutions. The rays are the same as in {@link RootFinderBenchmark}, but only a window of
+ * {@link #WINDOW}x{@link #WINDOW} rays around the center of the image of each resolution is traced.
+ * Run with {@code java de.mfo.jsurf.test.RootToleranceBenchmark [fraction of a pixel]}.
+ */
+public class RootToleranceBenchmark
+{
+    private static final int WINDOW = 256;
+
+    private static final int[] RESOLUTIONS = { 256, 1024, 4096, 16384 };
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        double fraction = args.length > 0 ? java.lang.Double.parseDouble( args[ 0 ] ) : 0.1;
+        for( String surface : RootFinderBenchmark.SURFACES )
+        {
+            System.out.println( surface );
+            RowSubstitutor rs = new TransformedPolynomialRowSubstitutor( AlgebraicExpressionParser.parse( surface ),
+                AlgebraicExpressionParser.parse( "y+0.2*x" ), AlgebraicExpressionParser.parse( "z+0.1*x" ), AlgebraicExpressionParser.parse( "x" ) );
+            for( int resolution : RESOLUTIONS )
+            {
+                // distance of the rays of neighbouring pixels, the rays are parallel
+                double pixel = 2.0 * RootFinderBenchmark.RADIUS / ( resolution - 1 );
+                UnivariatePolynomial[] polynomials = new UnivariatePolynomial[ WINDOW * WINDOW ];
+                double[] lower = new double[ polynomials.length ];
+                double[] upper = new double[ polynomials.length ];
+                int rays = 0;
+                for( int row = 0; row < WINDOW; ++row )
+                {
+                    double v = ( row - WINDOW / 2 ) * pixel;
+                    ColumnSubstitutor cs = rs.setV( v );
+                    for( int column = 0; column < WINDOW; ++column )
+                    {
+                        double u = ( column - WINDOW / 2 ) * pixel;
+                        double a = 1.05, b = 0.4 * u + 0.2 * v, c = u * u + v * v - RootFinderBenchmark.RADIUS * RootFinderBenchmark.RADIUS;
+                        double discriminant = b * b - 4.0 * a * c;
+                        if( discriminant <= 0.0 )
+                            continue;
+                        polynomials[ rays ] = cs.setU( u );
+                        lower[ rays ] = ( -b - Math.sqrt( discriminant ) ) / ( 2.0 * a );
+                        upper[ rays ] = ( -b + Math.sqrt( discriminant ) ) / ( 2.0 * a );
+                        ++rays;
+                    }
+                }
+
+                // the rays ( u + 0.2 t, v + 0.1 t, t ) advance by sqrt( 1.05 ) per unit of t
+                double tolerance = fraction * pixel / Math.sqrt( 1.05 );
+                DescartesRootFinder finder = new DescartesRootFinder( false );
+                double[] fixedRoots = new double[ rays ];
+                double[] adaptiveRoots = new double[ rays ];
+                double fixed = benchmark( finder, 0.0, polynomials, lower, upper, rays, fixedRoots );
+                double adaptive = benchmark( finder, tolerance, polynomials, lower, upper, rays, adaptiveRoots );
+                double maxError = 0.0;
+                for( int i = 0; i < rays; ++i )
+                    if( !java.lang.Double.isNaN( fixedRoots[ i ] ) )
+                        maxError = Math.max( maxError, Math.abs( fixedRoots[ i ] - adaptiveRoots[ i ] ) * Math.sqrt( 1.05 ) / pixel );
+                System.out.println( String.format( "  %5dpx  fixed %8.0f rays/s, adaptive %8.0f rays/s (%+.1f%%), max. deviation %.3f px",
+                    resolution, fixed, adaptive, 100.0 * ( adaptive / fixed - 1.0 ), maxError ) );
+            }
+        }
+    }
+
+    private static double benchmark( DescartesRootFinder finder, double tolerance, UnivariatePolynomial[] polynomials, double[] lower, double[] upper, int rays, double[] roots )
+    {
+        long bestNanos = Long.MAX_VALUE;
+        // the first rounds warm up the JIT compiler
+        for( int round = 0; round < 30; ++round )
+        {
+            long start = System.nanoTime();
+            for( int i = 0; i < rays; ++i )
+                roots[ i ] = finder.findFirstRootIn( polynomials[ i ], lower[ i ], upper[ i ], tolerance );
+            if( round >= 10 )
+                bestNanos = Math.min( bestNanos, System.nanoTime() - start );
+        }
+        return rays / ( bestNanos / 1e9 );
+    }
+}
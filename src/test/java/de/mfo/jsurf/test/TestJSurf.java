@@ -2,17 +2,38 @@ package de.mfo.jsurf.test;
 
 import org.junit.*;
 
+import de.mfo.jsurf.rendering.cpu.AntiAliasingPattern;
 import de.mfo.jsurf.rendering.cpu.CPUAlgebraicSurfaceRenderer;
+import de.mfo.jsurf.rendering.cpu.DrawStatistics;
+import de.mfo.jsurf.rendering.cpu.FramePipeline;
+import de.mfo.jsurf.rendering.cpu.GBuffer;
+import de.mfo.jsurf.rendering.cpu.GeometryDiscontinuityMetric;
+import de.mfo.jsurf.rendering.cpu.RefinementReport;
+import de.mfo.jsurf.rendering.cpu.RenderFuture;
+import de.mfo.jsurf.rendering.cpu.RenderProgress;
+import de.mfo.jsurf.rendering.cpu.SceneSnapshot;
+import de.mfo.jsurf.rendering.cpu.SurfaceKernelCache;
+import de.mfo.jsurf.rendering.cpu.TileCostMap;
+import de.mfo.jsurf.rendering.cpu.TileListener;
+import de.mfo.jsurf.rendering.Camera;
+import de.mfo.jsurf.rendering.Material;
 import de.mfo.jsurf.rendering.RenderingInterruptedException;
 import de.mfo.jsurf.algebra.*;
 import de.mfo.jsurf.parser.*;
 import de.mfo.jsurf.util.FileFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import javax.swing.SwingWorker;
+import javax.vecmath.Matrix4d;
+import javax.vecmath.Vector3d;
 
 public class TestJSurf
 {
@@ -71,6 +92,1166 @@ public class TestJSurf
 		Assert.assertTrue( "stopDrawing must interrupt and stop the rendering process", br.interrupted );
 	}
 
+	private CPUAlgebraicSurfaceRenderer loadTutorialScene()
+		throws java.io.IOException, Exception
+	{
+		CPUAlgebraicSurfaceRenderer asr = new CPUAlgebraicSurfaceRenderer();
+		Properties jsurf = new Properties();
+		jsurf.load( this.getClass().getResourceAsStream( "tutorial_wuerfel.jsurf" ) );
+		FileFormat.load( jsurf, asr );
+		return asr;
+	}
+
+	@Test
+	public void tileSchedulingShouldNotChangeTheImage()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+
+			asr.setTileScheduling( CPUAlgebraicSurfaceRenderer.TileScheduling.FIXED_GRID );
+			int[] reference = new int[ width * height ];
+			asr.draw( reference, width, height );
+
+			asr.setTileScheduling( CPUAlgebraicSurfaceRenderer.TileScheduling.WORK_STEALING );
+			for( int tileSize : new int[] { 1, 7, 32, 1000 } )
+			{
+				for( boolean mortonOrder : new boolean[] { false, true } )
+				{
+					asr.setTileSize( tileSize );
+					asr.setMortonOrder( mortonOrder );
+					int[] image = new int[ width * height ];
+					asr.draw( image, width, height );
+					Assert.assertArrayEquals( "work stealing with tile size " + tileSize + " and pattern " + aap + " must reproduce the image of the fixed grid", reference, image );
+				}
+			}
+		}
+	}
+
+	@Test
+	public void costAwareSchedulingShouldNotChangeTheImage()
+		throws java.io.IOException, Exception
+	{
+		final int width = 150;
+		final int height = 110;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		asr.setTileSize( 16 );
+
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_1x1 );
+		asr.draw( new int[ width * height ], width, height );
+		TileCostMap costs = asr.getTileCostMap();
+		Assert.assertNotNull( "a completed frame must provide a cost map", costs );
+		Assert.assertEquals( 10, costs.getColumns() );
+		Assert.assertEquals( 7, costs.getRows() );
+		long rays = 0;
+		for( int row = 0; row < costs.getRows(); ++row )
+			for( int column = 0; column < costs.getColumns(); ++column )
+				rays += costs.getRays( column, row );
+		Assert.assertEquals( "one ray per pixel within the clipping sphere must be recorded without anti-aliasing", width * height, rays + asr.getDrawStatistics().getSamplesOutsideSilhouette() );
+
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_4x4 );
+		asr.setCostAwareScheduling( false );
+		int[] expected = new int[ width * height ];
+		asr.draw( expected, width, height );
+
+		asr.setCostAwareScheduling( true );
+		int[] image = new int[ width * height ];
+		asr.draw( image, width, height );
+		Assert.assertArrayEquals( "cost-ordered tiles must reproduce the image", expected, image );
+		Assert.assertNotSame( costs, asr.getTileCostMap() );
+	}
+
+	@Test
+	public void deadlineBoundedDrawShouldRefineWithinItsBudget()
+		throws java.io.IOException, Exception
+	{
+		final int width = 120;
+		final int height = 90;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		SceneSnapshot snapshot = asr.createSnapshot();
+
+		int[] expected = new int[ width * height ];
+		asr.draw( snapshot, expected, width, height );
+		int[] image = new int[ width * height ];
+		RefinementReport report = asr.draw( snapshot, image, width, height, 1, TimeUnit.HOURS );
+		Assert.assertArrayEquals( "a sufficient budget must yield the fully anti-aliased image", expected, image );
+		Assert.assertEquals( 1.0, report.getRefinedFraction(), 0.0 );
+		Assert.assertFalse( report.isDeadlineExpired() );
+
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_1x1 );
+		int[] basePass = new int[ width * height ];
+		asr.draw( basePass, width, height );
+		report = asr.draw( snapshot, image, width, height, 0, TimeUnit.NANOSECONDS );
+		Assert.assertArrayEquals( "an expired deadline must yield the base pass", basePass, image );
+		Assert.assertEquals( 0, report.getRefinedPixels() );
+		Assert.assertTrue( report.isDeadlineExpired() );
+	}
+
+	@Test
+	public void interruptedDrawShouldResumeWithMissingTiles()
+		throws java.io.IOException, Exception
+	{
+		final int size = 800;
+		final CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		final SceneSnapshot snapshot = asr.createSnapshot();
+		final int[] image = new int[ size * size ];
+
+		Thread drawingThread = new Thread() {
+			public void run() {
+				try {
+					asr.draw( snapshot, image, size, size );
+				}
+				catch( RenderingInterruptedException rie ) {}
+			}
+		};
+		drawingThread.start();
+		drawingThread.join( 100 );
+		while( drawingThread.isAlive() )
+		{
+			asr.stopDrawing();
+			drawingThread.join( 10 );
+		}
+
+		RenderProgress progress = asr.getProgress( snapshot );
+		Assert.assertNotNull( "the progress of an interrupted draw must be kept", progress );
+		Assert.assertFalse( progress.isComplete() );
+
+		// completed tiles must not be rendered again
+		final int marker = 0x123456;
+		int markedPixels = 0;
+		for( int row = 0; row < progress.getRows(); ++row )
+		{
+			for( int column = 0; column < progress.getColumns(); ++column )
+			{
+				if( progress.isTileComplete( column, row ) )
+				{
+					image[ row * progress.getTileSize() * size + column * progress.getTileSize() ] = marker;
+					markedPixels++;
+				}
+			}
+		}
+
+		asr.draw( snapshot, image, size, size );
+		Assert.assertNull( "the progress must be discarded after the draw has been resumed", asr.getProgress( snapshot ) );
+
+		int[] expected = new int[ size * size ];
+		asr.draw( snapshot, expected, size, size );
+		int foundMarkers = 0;
+		for( int i = 0; i < image.length; ++i )
+		{
+			if( image[ i ] == marker )
+			{
+				foundMarkers++;
+				image[ i ] = expected[ i ];
+			}
+		}
+		Assert.assertEquals( "completed tiles must be kept", markedPixels, foundMarkers );
+		Assert.assertArrayEquals( "resumed draw must complete the image", expected, image );
+	}
+
+	@Test
+	public void asynchronousDrawShouldReportAllTiles()
+		throws java.io.IOException, Exception
+	{
+		final int width = 200;
+		final int height = 150;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		SceneSnapshot snapshot = asr.createSnapshot();
+
+		final boolean[] covered = new boolean[ width * height ];
+		final int[] overlaps = { 0 };
+		TileListener listener = new TileListener() {
+			public synchronized void tileCompleted( int xStart, int yStart, int xEnd, int yEnd ) {
+				for( int y = yStart; y <= yEnd; ++y )
+					for( int x = xStart; x <= xEnd; ++x )
+					{
+						if( covered[ y * width + x ] )
+							overlaps[ 0 ]++;
+						covered[ y * width + x ] = true;
+					}
+			}
+		};
+		int[] image = new int[ width * height ];
+		RenderFuture future = asr.drawAsync( snapshot, image, width, height, listener );
+		Assert.assertSame( image, future.get() );
+		Assert.assertTrue( future.getProgress().isComplete() );
+
+		int[] expected = new int[ width * height ];
+		asr.draw( snapshot, expected, width, height );
+		Assert.assertArrayEquals( "asynchronous draw must reproduce the image", expected, image );
+		synchronized( listener )
+		{
+			Assert.assertEquals( "tiles must be reported once", 0, overlaps[ 0 ] );
+			for( boolean c : covered )
+				Assert.assertTrue( "all tiles must be reported", c );
+		}
+
+		future = asr.drawAsync( snapshot, new int[ 1024 * 1024 ], 1024, 1024, null );
+		future.cancel( false );
+		try
+		{
+			future.get();
+			Assert.fail( "cancelled draw must not yield an image" );
+		}
+		catch( java.util.concurrent.CancellationException ce ) {}
+	}
+
+	@Test
+	public void drawStatisticsShouldSeparateSetupAndTraceTime()
+		throws java.io.IOException, Exception
+	{
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		Assert.assertNull( asr.getDrawStatistics() );
+		asr.draw( new int[ 64 * 48 ], 64, 48 );
+		DrawStatistics statistics = asr.getDrawStatistics();
+		Assert.assertNotNull( "a completed draw must provide statistics", statistics );
+		Assert.assertEquals( 64, statistics.getWidth() );
+		Assert.assertEquals( 48, statistics.getHeight() );
+		Assert.assertTrue( statistics.getSetupNanos() > 0 );
+		Assert.assertTrue( statistics.getTraceNanos() > 0 );
+	}
+
+	@Test
+	public void tilesShouldShareTheSubstitutedScanlines()
+		throws java.io.IOException, Exception
+	{
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		asr.setTileSize( 8 );
+		// scanlines outside the clipping sphere would not be substituted at all
+		asr.setSilhouetteSpans( false );
+
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_1x1 );
+		asr.draw( new int[ 64 * 48 ], 64, 48 );
+		Assert.assertEquals( "each pixel row must be substituted once", 48, asr.getDrawStatistics().getSubstitutedRows() );
+
+		// OG_2x2 only samples the pixel corners
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_2x2 );
+		asr.draw( new int[ 64 * 48 ], 64, 48 );
+		Assert.assertEquals( "each row of pixel corners must be substituted once", 49, asr.getDrawStatistics().getSubstitutedRows() );
+
+		// OG_4x4 has two rows of sampling points between the pixel corners
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_4x4 );
+		asr.draw( new int[ 64 * 48 ], 64, 48 );
+		int substitutedRows = asr.getDrawStatistics().getSubstitutedRows();
+		Assert.assertTrue( "supersampled pixels must substitute sub-rows", substitutedRows > 49 );
+		Assert.assertTrue( "each sub-row must be substituted at most once, but " + substitutedRows + " rows were substituted", substitutedRows <= 49 + 2 * 48 );
+	}
+
+	@Test
+	public void interactiveDrawShouldPreemptBatchDraw()
+		throws java.io.IOException, Exception
+	{
+		final int threads = 2;
+		java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool( threads );
+		CPUAlgebraicSurfaceRenderer batch = new CPUAlgebraicSurfaceRenderer( executor );
+		CPUAlgebraicSurfaceRenderer interactive = new CPUAlgebraicSurfaceRenderer( executor );
+		Properties jsurf = new Properties();
+		jsurf.load( this.getClass().getResourceAsStream( "tutorial_wuerfel.jsurf" ) );
+		FileFormat.load( jsurf, batch );
+		FileFormat.load( jsurf, interactive );
+		batch.setRenderPriority( CPUAlgebraicSurfaceRenderer.RenderPriority.BATCH );
+
+		final java.util.List< Long > batchTileTimes = java.util.Collections.synchronizedList( new java.util.ArrayList< Long >() );
+		final java.util.List< Long > interactiveTileTimes = java.util.Collections.synchronizedList( new java.util.ArrayList< Long >() );
+		final int width = 400;
+		final int height = 300;
+		RenderFuture batchFuture = batch.drawAsync( batch.createSnapshot(), new int[ width * height ], width, height, new TileListener() {
+			public void tileCompleted( int xStart, int yStart, int xEnd, int yEnd ) {
+				batchTileTimes.add( System.nanoTime() );
+			}
+		} );
+		while( batchTileTimes.isEmpty() )
+			Thread.sleep( 1 );
+
+		interactive.drawAsync( interactive.createSnapshot(), new int[ 64 * 64 ], 64, 64, new TileListener() {
+			public void tileCompleted( int xStart, int yStart, int xEnd, int yEnd ) {
+				interactiveTileTimes.add( System.nanoTime() );
+			}
+		} ).get();
+		Assert.assertFalse( "batch draw must still be in progress", batchFuture.isDone() );
+
+		long first = java.util.Collections.min( interactiveTileTimes );
+		long last = java.util.Collections.max( interactiveTileTimes );
+		int preemptedBatchTiles = 0;
+		synchronized( batchTileTimes )
+		{
+			for( long t : batchTileTimes )
+				if( first < t && t < last )
+					preemptedBatchTiles++;
+		}
+		Assert.assertTrue( "only batch tiles started before the interactive draw may be finished during the interactive draw", preemptedBatchTiles <= threads );
+
+		int[] expected = new int[ width * height ];
+		interactive.draw( expected, width, height );
+		Assert.assertArrayEquals( "preempted batch draw must complete the image", expected, batchFuture.get() );
+		executor.shutdown();
+	}
+
+	@Test
+	public void renderersSharingAnExecutorShouldOnlyStopTheirOwnTasks()
+		throws java.io.IOException, Exception
+	{
+		final int width = 256;
+		final int height = 256;
+		java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool( 2 );
+		final CPUAlgebraicSurfaceRenderer reference = loadTutorialScene();
+		final CPUAlgebraicSurfaceRenderer stopped = new CPUAlgebraicSurfaceRenderer( executor, true );
+		final CPUAlgebraicSurfaceRenderer running = new CPUAlgebraicSurfaceRenderer( executor );
+		Properties jsurf = new Properties();
+		jsurf.load( this.getClass().getResourceAsStream( "tutorial_wuerfel.jsurf" ) );
+		FileFormat.load( jsurf, stopped );
+		FileFormat.load( jsurf, running );
+
+		final int[] expected = new int[ width * height ];
+		reference.draw( expected, width, height );
+
+		final int[] image = new int[ width * height ];
+		final boolean[] interrupted = { false };
+		Thread stoppedThread = new Thread() {
+			public void run() {
+				try {
+					stopped.draw( new int[ 1024 * 1024 ], 1024, 1024 );
+				}
+				catch( RenderingInterruptedException rie ) {
+					interrupted[ 0 ] = true;
+				}
+			}
+		};
+		Thread runningThread = new Thread() {
+			public void run() {
+				running.draw( image, width, height );
+			}
+		};
+		stoppedThread.start();
+		runningThread.start();
+		while( stoppedThread.isAlive() )
+		{
+			stopped.stopDrawing();
+			stoppedThread.join( 10 );
+		}
+		runningThread.join();
+		stopped.close();
+
+		Assert.assertTrue( "stopDrawing must interrupt the rendering process", interrupted[ 0 ] );
+		Assert.assertArrayEquals( "renderers on a non-fork/join executor must reproduce the image", expected, image );
+		Assert.assertTrue( "close() must shut down an owned executor", executor.isShutdown() );
+		try
+		{
+			stopped.draw( new int[ width * height ], width, height );
+			Assert.fail( "closed renderer must not draw" );
+		}
+		catch( IllegalStateException ise ) {}
+	}
+
+	@Test
+	public void snapshotsShouldBeDrawableConcurrentlyAndUnaffectedByLaterChanges()
+		throws java.io.IOException, Exception
+	{
+		final CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		final SceneSnapshot snapshot = asr.createSnapshot();
+		final int[] sizes = { 64, 97, 128 };
+
+		final int[][] expected = new int[ sizes.length ][];
+		for( int i = 0; i < sizes.length; ++i )
+		{
+			expected[ i ] = new int[ sizes[ i ] * sizes[ i ] ];
+			asr.draw( snapshot, expected[ i ], sizes[ i ], sizes[ i ] );
+		}
+
+		asr.setBackgroundColor( new javax.vecmath.Color3f( 0.0f, 0.0f, 0.0f ) );
+		asr.setFrontMaterial( new Material() );
+
+		final int[][] images = new int[ sizes.length ][];
+		Thread[] threads = new Thread[ sizes.length ];
+		for( int i = 0; i < sizes.length; ++i )
+		{
+			final int index = i;
+			images[ i ] = new int[ sizes[ i ] * sizes[ i ] ];
+			threads[ i ] = new Thread() {
+				public void run() {
+					asr.draw( snapshot, images[ index ], sizes[ index ], sizes[ index ] );
+				}
+			};
+			threads[ i ].start();
+		}
+		for( Thread t : threads )
+			t.join();
+
+		for( int i = 0; i < sizes.length; ++i )
+			Assert.assertArrayEquals( "concurrent draws of a snapshot must match sequential draws", expected[ i ], images[ i ] );
+
+		int[] modified = new int[ sizes[ 0 ] * sizes[ 0 ] ];
+		asr.draw( modified, sizes[ 0 ], sizes[ 0 ] );
+		Assert.assertFalse( "changes of the renderer must only affect new snapshots", java.util.Arrays.equals( expected[ 0 ], modified ) );
+	}
+
+	@Test
+	public void pipelinedFramesShouldMatchSequentiallyDrawnFrames()
+		throws java.io.IOException, Exception
+	{
+		final int size = 64;
+		final int frames = 6;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+
+		SceneSnapshot[] snapshots = new SceneSnapshot[ frames ];
+		javax.vecmath.Matrix4d rotation = new javax.vecmath.Matrix4d();
+		for( int i = 0; i < frames; ++i )
+		{
+			rotation.rotY( 2.0 * Math.PI * i / frames );
+			asr.setTransform( rotation );
+			snapshots[ i ] = asr.createSnapshot();
+		}
+
+		FramePipeline pipeline = new FramePipeline( asr, 2 );
+		java.util.List< java.util.concurrent.Future< int[] > > results = new java.util.ArrayList< java.util.concurrent.Future< int[] > >();
+		for( SceneSnapshot snapshot : snapshots )
+			results.add( pipeline.submit( snapshot, new int[ size * size ], size, size ) );
+
+		for( int i = 0; i < frames; ++i )
+		{
+			int[] expected = new int[ size * size ];
+			asr.draw( snapshots[ i ], expected, size, size );
+			Assert.assertArrayEquals( "pipelined frame " + i + " must match the sequentially drawn frame", expected, results.get( i ).get() );
+		}
+		pipeline.close();
+	}
+
+	@Test
+	public void allocationFreeShadingShouldReproduceTheReferenceImages()
+		throws java.io.IOException, Exception
+	{
+		assertReferenceImages( false, false );
+	}
+
+	@Test
+	public void specializedKernelsShouldReproduceTheReferenceImages()
+		throws java.io.IOException, Exception
+	{
+		assertReferenceImages( true, false );
+	}
+
+	@Test
+	public void emptySpaceCullingShouldReproduceTheReferenceImages()
+		throws java.io.IOException, Exception
+	{
+		assertReferenceImages( false, true );
+	}
+
+	private void assertReferenceImages( boolean specializedKernels, boolean emptySpaceCulling )
+		throws java.io.IOException, Exception
+	{
+		// hash codes of the images rendered by the former, allocating shading code
+		int[][] expectedHashCodes = {
+			{ -1163303355, 919751460, 1460294940 }, // orthographic camera
+			{ -1741896357, 275290605, 768668874 } // perspective camera
+		};
+		AntiAliasingPattern[] patterns = { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_2x2, AntiAliasingPattern.OG_4x4 };
+		Camera.CameraType[] cameraTypes = { Camera.CameraType.ORTHOGRAPHIC_CAMERA, Camera.CameraType.PERSPECTIVE_CAMERA };
+		for( int c = 0; c < cameraTypes.length; ++c )
+		{
+			for( int p = 0; p < patterns.length; ++p )
+			{
+				CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+				asr.getCamera().setCameraType( cameraTypes[ c ] );
+				asr.setAntiAliasingPattern( patterns[ p ] );
+				asr.setSpecializedKernels( specializedKernels );
+				asr.setEmptySpaceCulling( emptySpaceCulling );
+				int[] image = new int[ 173 * 129 ];
+				asr.draw( image, 173, 129 );
+				Assert.assertEquals( cameraTypes[ c ] + " with pattern " + patterns[ p ] + " must reproduce the reference image", expectedHashCodes[ c ][ p ], Arrays.hashCode( image ) );
+				if( emptySpaceCulling )
+					Assert.assertTrue( "some pixels must be culled", asr.getDrawStatistics().getCulledPixels() > 0 );
+				else
+					Assert.assertEquals( 0, asr.getDrawStatistics().getCulledPixels() );
+				asr.close();
+			}
+		}
+	}
+
+	@Test
+	public void surfaceKernelsShouldBeCachedAndEvictable()
+		throws java.io.IOException, Exception
+	{
+		SurfaceKernelCache.clear();
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		asr.setSpecializedKernels( true );
+		SceneSnapshot snapshot = asr.createSnapshot();
+		int generated = SurfaceKernel.getGeneratedKernels();
+		asr.draw( snapshot, new int[ 64 * 64 ], 64, 64 );
+		asr.draw( snapshot, new int[ 64 * 64 ], 64, 64 );
+		Assert.assertEquals( "the kernel must be generated once for both draw calls", generated + 1, SurfaceKernel.getGeneratedKernels() );
+		Assert.assertEquals( 1, SurfaceKernelCache.size() );
+
+		SurfaceKernelCache.evict( snapshot );
+		Assert.assertEquals( 0, SurfaceKernelCache.size() );
+		asr.draw( snapshot, new int[ 64 * 64 ], 64, 64 );
+		Assert.assertEquals( "an evicted kernel must be generated again", generated + 2, SurfaceKernel.getGeneratedKernels() );
+
+		int capacity = SurfaceKernelCache.getCapacity();
+		SurfaceKernelCache.setCapacity( 0 );
+		Assert.assertEquals( 0, SurfaceKernelCache.size() );
+		SurfaceKernelCache.setCapacity( capacity );
+		asr.close();
+	}
+
+	@Test
+	public void equalSurfacesShouldShareTheirExpansion()
+		throws java.io.IOException, Exception
+	{
+		// the kernels are cached per expanded surface, so a kernel is only generated again for another expansion
+		SurfaceKernelCache.clear();
+		CPUAlgebraicSurfaceRenderer first = loadTutorialScene();
+		CPUAlgebraicSurfaceRenderer second = loadTutorialScene();
+		first.setSpecializedKernels( true );
+		second.setSpecializedKernels( true );
+		int generated = SurfaceKernel.getGeneratedKernels();
+		first.draw( new int[ 64 * 64 ], 64, 64 );
+		second.draw( new int[ 64 * 64 ], 64, 64 );
+		Assert.assertEquals( "renderers that have parsed the same surface must share its expansion", generated + 1, SurfaceKernel.getGeneratedKernels() );
+
+		first.setSurfaceFamily( "x^6+y^6+z^6-a" );
+		first.setParameterValue( "a", 0.5 );
+		first.draw( new int[ 64 * 64 ], 64, 64 );
+		first.setParameterValue( "a", 0.75 );
+		first.draw( new int[ 64 * 64 ], 64, 64 );
+		first.setParameterValue( "a", 0.5 );
+		first.draw( new int[ 64 * 64 ], 64, 64 );
+		Assert.assertEquals( "setting a parameter to its previous value must reuse the expansion", generated + 3, SurfaceKernel.getGeneratedKernels() );
+		first.close();
+		second.close();
+	}
+
+	@Test
+	public void tracingAndShadingShouldNotAllocatePerPixel()
+		throws java.io.IOException, Exception
+	{
+		java.lang.management.ThreadMXBean threadMXBean = java.lang.management.ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue( threadMXBean instanceof com.sun.management.ThreadMXBean );
+		final com.sun.management.ThreadMXBean allocations = ( com.sun.management.ThreadMXBean ) threadMXBean;
+		Assume.assumeTrue( allocations.isThreadAllocatedMemorySupported() && allocations.isThreadAllocatedMemoryEnabled() );
+
+		// render on the calling thread, so that all allocations are counted
+		ExecutorService callerRuns = new AbstractExecutorService() {
+			public void execute( Runnable r ) { r.run(); }
+			public void shutdown() {}
+			public List< Runnable > shutdownNow() { return new ArrayList< Runnable >(); }
+			public boolean isShutdown() { return false; }
+			public boolean isTerminated() { return false; }
+			public boolean awaitTermination( long timeout, TimeUnit unit ) { return true; }
+		};
+		CPUAlgebraicSurfaceRenderer asr = new CPUAlgebraicSurfaceRenderer( callerRuns );
+		Properties jsurf = new Properties();
+		jsurf.load( this.getClass().getResourceAsStream( "tutorial_wuerfel.jsurf" ) );
+		FileFormat.load( jsurf, asr );
+		Matrix4d tutorialTransform = asr.getTransform();
+
+		// Move the clipping sphere out of view, so that the algebra (which is not allocation-free) is not involved.
+		// Tracing and shading of rays that hit the surface are checked by TestRenderingTask with a stub algebra.
+		Matrix4d transform = new Matrix4d();
+		transform.setIdentity();
+		transform.setTranslation( new Vector3d( 100.0, 0.0, 0.0 ) );
+		transform.mul( tutorialTransform );
+		asr.setTransform( transform );
+
+		// a single tile per image, so that per-row and per-tile allocations do not depend on the width
+		asr.setTileSize( 4096 );
+		// otherwise no ray would be created at all
+		asr.setSilhouetteSpans( false );
+		final int height = 16;
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			asr.draw( new int[ 1024 * height ], 1024, height ); // warm up
+
+			double bytesPerPixel = allocatedBytesPerPixel( asr, allocations, height );
+			System.out.println( aap + ": " + bytesPerPixel + " bytes allocated per pixel" );
+			Assert.assertTrue( aap + " allocates " + bytesPerPixel + " bytes per pixel", bytesPerPixel < 1.0 );
+		}
+
+		asr.close();
+	}
+
+	/**
+	 * Draws images of {@code 256 x height} and {@code 1024 x height} pixels and returns the bytes allocated by the
+	 * calling thread per additional pixel. The color buffers are not counted.
+	 */
+	private static double allocatedBytesPerPixel( CPUAlgebraicSurfaceRenderer asr, com.sun.management.ThreadMXBean allocations, int height )
+	{
+		long threadId = Thread.currentThread().getId();
+		long before = allocations.getThreadAllocatedBytes( threadId );
+		asr.draw( new int[ 256 * height ], 256, height );
+		long small = allocations.getThreadAllocatedBytes( threadId ) - before;
+		before = allocations.getThreadAllocatedBytes( threadId );
+		asr.draw( new int[ 1024 * height ], 1024, height );
+		long large = allocations.getThreadAllocatedBytes( threadId ) - before;
+		return ( ( large - 4 * 1024 * height ) - ( small - 4 * 256 * height ) ) / ( double ) ( ( 1024 - 256 ) * height );
+	}
+
+	@Test
+	public void forwardDifferencingShouldMatchDirectEvaluation()
+		throws Exception
+	{
+		RowSubstitutor rs = new TransformedPolynomialRowSubstitutor( AlgebraicExpressionParser.parse( "x^4+y^4+z^4-x*y*z-1" ),
+			AlgebraicExpressionParser.parse( "2*x-y" ), AlgebraicExpressionParser.parse( "x+3*y+z" ), AlgebraicExpressionParser.parse( "y-z+0.5" ) );
+		ColumnSubstitutor cs = rs.setV( 0.3 );
+		double uStart = -1.0;
+		double uIncr = 2.0 / 99.0;
+		ForwardDifferenceColumnSubstitutor fdcs = new ForwardDifferenceColumnSubstitutor( cs, 4, uStart, uIncr, 16 );
+		for( int column = 0; column < 100; ++column )
+		{
+			double u = uStart + column * uIncr;
+			UnivariatePolynomial expected = cs.setU( u );
+			UnivariatePolynomial actual = fdcs.setU( u );
+			Assert.assertEquals( expected.degree(), actual.degree() );
+			for( int i = 0; i <= expected.degree(); ++i )
+				Assert.assertEquals( "coefficient " + i + " in column " + column, expected.getCoeff( i ), actual.getCoeff( i ), 1e-9 );
+		}
+		// columns visited in another order must give the same result
+		Assert.assertArrayEquals( fdcs.setColumn( 37 ).getCoeffs(), new ForwardDifferenceColumnSubstitutor( cs, 4, uStart, uIncr, 16 ).setColumn( 37 ).getCoeffs(), 0.0 );
+	}
+
+	@Test
+	public void forwardDifferencingShouldNotDependOnTheTilingAndBarelyChangeTheImage()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			asr.setForwardDifferencing( false );
+			int[] direct = new int[ width * height ];
+			asr.draw( direct, width, height );
+
+			asr.setForwardDifferencing( true );
+			asr.setTileSize( 1000 );
+			int[] reference = new int[ width * height ];
+			asr.draw( reference, width, height );
+			asr.setTileSize( 7 );
+			int[] image = new int[ width * height ];
+			asr.draw( image, width, height );
+			Assert.assertArrayEquals( "forward differencing with pattern " + aap + " must not depend on the tiling", reference, image );
+
+			int differentPixels = 0;
+			for( int i = 0; i < direct.length; ++i )
+				if( direct[ i ] != reference[ i ] )
+					++differentPixels;
+			Assert.assertTrue( differentPixels + " pixels differ from the image without forward differencing", differentPixels <= direct.length / 1000 );
+		}
+	}
+
+	@Test
+	public void packetRootFinderShouldFindTheSameRootsAsTheScalarRootFinder()
+	{
+		java.util.Random random = new java.util.Random( 42 );
+		DescartesRootFinder scalar = new DescartesRootFinder( false );
+		PacketRootFinder packet = new PacketRootFinder();
+		int size = PacketRootFinder.MAX_PACKET_SIZE;
+		UnivariatePolynomial[] polynomials = new UnivariatePolynomial[ size ];
+		double[] lower = new double[ size ];
+		double[] upper = new double[ size ];
+		double[] roots = new double[ size ];
+		for( int n = 0; n < 200; ++n )
+		{
+			for( int i = 0; i < size; ++i )
+			{
+				// products of linear factors with random roots and some random polynomials of mixed degree
+				UnivariatePolynomial p = new UnivariatePolynomial( random.nextDouble() - 0.5 );
+				int degree = 1 + random.nextInt( 8 );
+				for( int k = 0; k < degree; ++k )
+					p = i % 4 == 0 ? p.add( new UnivariatePolynomial( 0.0, random.nextDouble() - 0.5 ).mult( p ) ) : p.mult( new UnivariatePolynomial( -4.0 * random.nextDouble() + 2.0, 1.0 ) );
+				polynomials[ i ] = p;
+				lower[ i ] = -2.0 * random.nextDouble();
+				upper[ i ] = 2.0 * random.nextDouble();
+			}
+			packet.findFirstRootsIn( polynomials, lower, upper, size, scalar, roots );
+			for( int i = 0; i < size; ++i )
+			{
+				double expected = scalar.findFirstRootIn( polynomials[ i ], lower[ i ], upper[ i ] );
+				if( java.lang.Double.isNaN( expected ) )
+					Assert.assertTrue( "no root of " + polynomials[ i ] + " expected, but found " + roots[ i ], java.lang.Double.isNaN( roots[ i ] ) );
+				else
+					Assert.assertEquals( "first root of " + polynomials[ i ] + " in [" + lower[ i ] + "," + upper[ i ] + "]", expected, roots[ i ], 1e-6 );
+			}
+		}
+		Assert.assertTrue( packet.getFallbacks() + " of " + packet.getPolynomials() + " polynomials have been passed to the scalar root finder", packet.getFallbacks() < packet.getPolynomials() / 2 );
+	}
+
+	@Test
+	public void rayPacketsShouldNotDependOnTheTilingAndBarelyChangeTheImage()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			asr.setRayPacketSize( 1 );
+			int[] scalar = new int[ width * height ];
+			asr.draw( scalar, width, height );
+
+			for( int packetSize : new int[] { 4, 16 } )
+			{
+				asr.setRayPacketSize( packetSize );
+				asr.setTileSize( 1000 );
+				int[] reference = new int[ width * height ];
+				asr.draw( reference, width, height );
+				asr.setTileSize( 7 );
+				int[] image = new int[ width * height ];
+				asr.draw( image, width, height );
+				Assert.assertArrayEquals( "ray packets of size " + packetSize + " with pattern " + aap + " must not depend on the tiling", reference, image );
+
+				int differentPixels = 0;
+				for( int i = 0; i < scalar.length; ++i )
+					if( scalar[ i ] != reference[ i ] )
+						++differentPixels;
+				Assert.assertTrue( differentPixels + " pixels differ from the image without ray packets", differentPixels <= scalar.length / 1000 );
+			}
+		}
+	}
+
+	@Test
+	public void emptySpaceCullingShouldNotDependOnTheTilingOrRayPackets()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			asr.setEmptySpaceCulling( false );
+			asr.setRayPacketSize( 1 );
+			int[] reference = new int[ width * height ];
+			asr.draw( reference, width, height );
+
+			asr.setEmptySpaceCulling( true );
+			for( int tileSize : new int[] { 7, 1000 } )
+			{
+				asr.setTileSize( tileSize );
+				int[] image = new int[ width * height ];
+				asr.draw( image, width, height );
+				Assert.assertArrayEquals( "culling with tile size " + tileSize + " and pattern " + aap + " must not change the image", reference, image );
+			}
+
+			asr.setRayPacketSize( 8 );
+			int[] packets = new int[ width * height ];
+			asr.draw( packets, width, height );
+			asr.setEmptySpaceCulling( false );
+			int[] packetsWithoutCulling = new int[ width * height ];
+			asr.draw( packetsWithoutCulling, width, height );
+			Assert.assertArrayEquals( "culling with ray packets and pattern " + aap + " must not change the image", packetsWithoutCulling, packets );
+		}
+	}
+
+	@Test
+	public void silhouetteSpansShouldNotChangeTheImage()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		for( Camera.CameraType cameraType : new Camera.CameraType[] { Camera.CameraType.ORTHOGRAPHIC_CAMERA, Camera.CameraType.PERSPECTIVE_CAMERA } )
+		{
+			long samplesOutsideSilhouette = 0;
+			// the clipping sphere in the center and partially outside of the image
+			for( double translation : new double[] { 0.0, 1.5 } )
+			{
+				CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+				asr.getCamera().setCameraType( cameraType );
+				Matrix4d transform = new Matrix4d();
+				transform.setIdentity();
+				transform.setTranslation( new Vector3d( translation, 0.0, 0.0 ) );
+				transform.mul( asr.getTransform() );
+				asr.setTransform( transform );
+				for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+				{
+					asr.setAntiAliasingPattern( aap );
+					for( int packetSize : new int[] { 1, 8 } )
+					{
+						asr.setRayPacketSize( packetSize );
+						asr.setSilhouetteSpans( false );
+						int[] reference = new int[ width * height ];
+						asr.draw( reference, width, height );
+						Assert.assertEquals( 0, asr.getDrawStatistics().getSamplesOutsideSilhouette() );
+
+						asr.setSilhouetteSpans( true );
+						for( int tileSize : new int[] { 7, 1000 } )
+						{
+							asr.setTileSize( tileSize );
+							int[] image = new int[ width * height ];
+							asr.draw( image, width, height );
+							Assert.assertArrayEquals( cameraType + " with translation " + translation + ", pattern " + aap + ", ray packets of size " + packetSize + " and tile size " + tileSize + " must not change the image", reference, image );
+							samplesOutsideSilhouette += asr.getDrawStatistics().getSamplesOutsideSilhouette();
+						}
+					}
+				}
+				asr.close();
+			}
+			Assert.assertTrue( cameraType + " must skip the samples outside of the clipping sphere", samplesOutsideSilhouette > 0 );
+		}
+	}
+
+	@Test
+	public void silhouetteSpansShouldSkipAllRaysIfTheClippingSphereIsOutOfView()
+		throws java.io.IOException, Exception
+	{
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		Matrix4d transform = new Matrix4d();
+		transform.setIdentity();
+		transform.setTranslation( new Vector3d( 100.0, 0.0, 0.0 ) );
+		transform.mul( asr.getTransform() );
+		asr.setTransform( transform );
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_1x1 );
+		int[] image = new int[ 64 * 48 ];
+		asr.draw( image, 64, 48 );
+		Assert.assertEquals( 64 * 48, asr.getDrawStatistics().getSamplesOutsideSilhouette() );
+		Assert.assertEquals( "no scanline must be substituted", 0, asr.getDrawStatistics().getSubstitutedRows() );
+		int background = asr.getBackgroundColor().get().getRGB();
+		for( int pixel : image )
+			Assert.assertEquals( background, pixel );
+		asr.close();
+	}
+
+	@Test
+	public void hintedRootFinderShouldFindTheSameRootsAsTheScalarRootFinder()
+	{
+		java.util.Random random = new java.util.Random( 42 );
+		DescartesRootFinder scalar = new DescartesRootFinder( false );
+		HintedRootFinder hinted = new HintedRootFinder();
+		for( int n = 0; n < 2000; ++n )
+		{
+			// products of linear factors with random roots
+			UnivariatePolynomial p = new UnivariatePolynomial( random.nextDouble() - 0.5 );
+			int degree = 1 + random.nextInt( 8 );
+			for( int k = 0; k < degree; ++k )
+				p = p.mult( new UnivariatePolynomial( -4.0 * random.nextDouble() + 2.0, 1.0 ) );
+			double lower = -2.0 * random.nextDouble();
+			double upper = 2.0 * random.nextDouble();
+			double expected = scalar.findFirstRootIn( p, lower, upper );
+
+			// guesses close to the first root, e.g. of a neighbouring ray, and arbitrary guesses
+			double hint = n % 2 == 0 && !java.lang.Double.isNaN( expected ) ? expected + 0.01 * ( random.nextDouble() - 0.5 ) * ( upper - lower ) : lower + random.nextDouble() * ( upper - lower );
+			double root = hinted.findFirstRootIn( p, lower, upper, hint, scalar );
+			if( java.lang.Double.isNaN( expected ) )
+				Assert.assertTrue( "no root of " + p + " expected, but found " + root, java.lang.Double.isNaN( root ) );
+			else
+				Assert.assertEquals( "first root of " + p + " in [" + lower + "," + upper + "] with guess " + hint, expected, root, 1e-6 );
+		}
+		Assert.assertTrue( hinted.getHits() + " of " + hinted.getSearches() + " guesses have been confirmed", hinted.getHits() > hinted.getSearches() / 4 );
+	}
+
+	@Test
+	public void depthHintsShouldBarelyChangeTheImage()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			asr.setDepthHints( false );
+			int[] reference = new int[ width * height ];
+			asr.draw( reference, width, height );
+			Assert.assertEquals( 0, asr.getDrawStatistics().getHintedRootSearches() );
+
+			asr.setDepthHints( true );
+			int[] image = new int[ width * height ];
+			asr.draw( image, width, height );
+			DrawStatistics statistics = asr.getDrawStatistics();
+			Assert.assertTrue( "only " + statistics.getDepthHintHits() + " of " + statistics.getHintedRootSearches() + " depth hints have been confirmed", statistics.getDepthHintHitRatio() > 0.5 );
+
+			int differentPixels = 0;
+			for( int i = 0; i < reference.length; ++i )
+				if( reference[ i ] != image[ i ] )
+					++differentPixels;
+			Assert.assertTrue( differentPixels + " pixels differ from the image without depth hints", differentPixels <= reference.length / 1000 );
+		}
+		asr.close();
+	}
+
+	@Test
+	public void temporalDepthHintsShouldBarelyChangeTheFramesOfATurntable()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		CPUAlgebraicSurfaceRenderer reference = loadTutorialScene();
+		Matrix4d start = asr.getTransform();
+		asr.setTemporalDepthHints( true );
+		// a single tile, otherwise tiles sharing pixel corners would use the corners of each other as guesses
+		asr.setTileSize( 1000 );
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			reference.setAntiAliasingPattern( aap );
+			for( int frame = 0; frame < 4; ++frame )
+			{
+				Matrix4d transform = new Matrix4d();
+				transform.rotY( Math.toRadians( 2.0 * frame ) );
+				transform.mul( start );
+				asr.setTransform( transform );
+				reference.setTransform( transform );
+
+				int[] expected = new int[ width * height ];
+				reference.draw( expected, width, height );
+				int[] image = new int[ width * height ];
+				asr.draw( image, width, height );
+				DrawStatistics statistics = asr.getDrawStatistics();
+				if( frame == 0 )
+				{
+					Assert.assertEquals( "the first frame with pattern " + aap + " has no previous frame", 0, statistics.getTemporalHintSearches() );
+				}
+				else
+				{
+					Assert.assertTrue( "frame " + frame + " with pattern " + aap + " must use the previous frame", statistics.getTemporalHintSearches() > 0 );
+					Assert.assertTrue( "only " + statistics.getTemporalHintHits() + " of " + statistics.getTemporalHintSearches() + " reprojected hints have been confirmed", statistics.getTemporalHintHits() > statistics.getTemporalHintSearches() / 2 );
+				}
+
+				int differentPixels = 0;
+				for( int i = 0; i < expected.length; ++i )
+					if( expected[ i ] != image[ i ] )
+						++differentPixels;
+				Assert.assertTrue( differentPixels + " pixels of frame " + frame + " differ from the image without temporal depth hints", differentPixels <= expected.length / 1000 );
+			}
+		}
+		asr.close();
+		reference.close();
+	}
+
+	@Test
+	public void rootToleranceShouldBoundTheDeviationOfTheRoots()
+	{
+		java.util.Random random = new java.util.Random( 42 );
+		DescartesRootFinder finder = new DescartesRootFinder( false );
+		for( int n = 0; n < 1000; ++n )
+		{
+			UnivariatePolynomial p = new UnivariatePolynomial( random.nextDouble() - 0.5 );
+			int degree = 1 + random.nextInt( 8 );
+			for( int k = 0; k < degree; ++k )
+				p = p.mult( new UnivariatePolynomial( -4.0 * random.nextDouble() + 2.0, 1.0 ) );
+			double lower = -2.0 * random.nextDouble();
+			double upper = 2.0 * random.nextDouble();
+			double expected = finder.findFirstRootIn( p, lower, upper );
+			Assert.assertEquals( "a tolerance of 0 must not change the root", java.lang.Double.doubleToLongBits( expected ), java.lang.Double.doubleToLongBits( finder.findFirstRootIn( p, lower, upper, 0.0 ) ) );
+			double root = finder.findFirstRootIn( p, lower, upper, 1e-3 );
+			if( java.lang.Double.isNaN( expected ) )
+				Assert.assertTrue( "no root of " + p + " expected, but found " + root, java.lang.Double.isNaN( root ) );
+			else
+				Assert.assertEquals( "first root of " + p + " in [" + lower + "," + upper + "]", expected, root, 1e-3 );
+		}
+	}
+
+	@Test
+	public void rootToleranceShouldBarelyChangeTheImage()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			asr.setRootTolerance( 0.0 );
+			int[] reference = new int[ width * height ];
+			asr.draw( reference, width, height );
+
+			asr.setRootTolerance( 0.05 );
+			int[] image = new int[ width * height ];
+			asr.draw( image, width, height );
+			for( int i = 0; i < reference.length; ++i )
+				for( int shift = 0; shift < 24; shift += 8 )
+					Assert.assertTrue( "pixel " + i + " with pattern " + aap + " differs too much from the image without root tolerance", Math.abs( ( ( reference[ i ] >> shift ) & 0xff ) - ( ( image[ i ] >> shift ) & 0xff ) ) <= 2 );
+		}
+		asr.close();
+
+		try
+		{
+			asr.setRootTolerance( -1.0 );
+			Assert.fail( "a negative root tolerance must be rejected" );
+		}
+		catch( IllegalArgumentException iae ) {}
+	}
+
+	@Test
+	public void geometryAdaptiveSupersamplingShouldRefineOnlyDiscontinuities()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_4x4 );
+		asr.setAntiAliasingMode( CPUAlgebraicSurfaceRenderer.AntiAliasingMode.SUPERSAMPLING );
+		int[] reference = new int[ width * height ];
+		asr.draw( reference, width, height );
+		double supersamplingSamplesPerPixel = asr.getDrawStatistics().getSamplesPerPixel();
+
+		asr.setAntiAliasingMode( CPUAlgebraicSurfaceRenderer.AntiAliasingMode.GEOMETRY_ADAPTIVE_SUPERSAMPLING );
+		int[] image = new int[ width * height ];
+		asr.draw( image, width, height );
+		Assert.assertTrue( "only some pixels should be supersampled", asr.getDrawStatistics().getSamplesPerPixel() < supersamplingSamplesPerPixel / 4 );
+		double squaredError = 0.0;
+		for( int i = 0; i < reference.length; ++i )
+			for( int shift = 0; shift < 24; shift += 8 )
+				squaredError += Math.pow( ( ( reference[ i ] >> shift ) & 0xff ) - ( ( image[ i ] >> shift ) & 0xff ), 2 );
+		Assert.assertTrue( "the image should be close to the supersampled image", Math.sqrt( squaredError / ( 3 * reference.length ) ) < 2.0 );
+		asr.close();
+
+		try
+		{
+			new GeometryDiscontinuityMetric( -0.1, 20.0 );
+			Assert.fail( "a negative depth threshold must be rejected" );
+		}
+		catch( IllegalArgumentException iae ) {}
+		try
+		{
+			asr.setDiscontinuityMetric( null );
+			Assert.fail( "a missing metric must be rejected" );
+		}
+		catch( IllegalArgumentException iae ) {}
+	}
+
+	@Test
+	public void progressivePatternShouldConvergeToTheOrderedGrid()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		AntiAliasingPattern progressive = AntiAliasingPattern.PROGRESSIVE_8x8;
+		AntiAliasingPattern grid = AntiAliasingPattern.OG_8x8;
+		java.util.Set< String > points = new java.util.HashSet< String >();
+		for( AntiAliasingPattern.SamplingPoint sp : progressive )
+			points.add( sp.getU() + " " + sp.getV() + " " + sp.getWeight() );
+		for( AntiAliasingPattern.SamplingPoint sp : grid )
+			Assert.assertTrue( "the progressive pattern should visit every point of the ordered grid", points.remove( sp.getU() + " " + sp.getV() + " " + sp.getWeight() ) );
+		Assert.assertTrue( points.isEmpty() );
+
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		asr.setAntiAliasingMode( CPUAlgebraicSurfaceRenderer.AntiAliasingMode.SUPERSAMPLING );
+		asr.setAntiAliasingPattern( grid );
+		int[] reference = new int[ width * height ];
+		asr.draw( reference, width, height );
+		double gridSamplesPerPixel = asr.getDrawStatistics().getSamplesPerPixel();
+
+		asr.setAntiAliasingPattern( progressive );
+		asr.setConvergenceTolerance( 0f );
+		int[] image = new int[ width * height ];
+		asr.draw( image, width, height );
+		for( int i = 0; i < reference.length; ++i )
+			for( int shift = 0; shift < 24; shift += 8 )
+				Assert.assertTrue( "pixel " + i + " should not depend on the order of the sampling points", Math.abs( ( ( reference[ i ] >> shift ) & 0xff ) - ( ( image[ i ] >> shift ) & 0xff ) ) <= 1 );
+
+		asr.setConvergenceTolerance( 0.5f / 255f );
+		asr.draw( image, width, height );
+		Assert.assertTrue( "most pixels should stop early", asr.getDrawStatistics().getSamplesPerPixel() < gridSamplesPerPixel / 2 );
+		double squaredError = 0.0;
+		for( int i = 0; i < reference.length; ++i )
+			for( int shift = 0; shift < 24; shift += 8 )
+				squaredError += Math.pow( ( ( reference[ i ] >> shift ) & 0xff ) - ( ( image[ i ] >> shift ) & 0xff ), 2 );
+		Assert.assertTrue( "the image should be close to the one of the full pattern", Math.sqrt( squaredError / ( 3 * reference.length ) ) < 1.0 );
+		asr.close();
+
+		try
+		{
+			asr.setConvergenceTolerance( -1f );
+			Assert.fail( "a negative convergence tolerance must be rejected" );
+		}
+		catch( IllegalArgumentException iae ) {}
+	}
+
+	@Test
+	public void sharedCornerSamplesShouldTraceEachCornerOnce()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		asr.setAntiAliasingPattern( AntiAliasingPattern.OG_4x4 );
+		asr.setTileScheduling( CPUAlgebraicSurfaceRenderer.TileScheduling.WORK_STEALING );
+		asr.setTileSize( 1000 );
+		int[] reference = new int[ width * height ];
+		asr.draw( reference, width, height );
+		long raysOfOneTile = asr.getDrawStatistics().getRays();
+
+		asr.setTileSize( 8 );
+		asr.setSharedCornerSamples( true );
+		for( int packetSize : new int[] { 1, 4 } )
+		{
+			asr.setRayPacketSize( packetSize );
+			int[] image = new int[ width * height ];
+			asr.draw( image, width, height );
+			DrawStatistics statistics = asr.getDrawStatistics();
+			Assert.assertEquals( "each corner should be traced once with packets of " + packetSize + " rays", raysOfOneTile, statistics.getRays() );
+			Assert.assertTrue( "the tiles should share their border corners", statistics.getCopiedCornerSamples() > 0 );
+			Assert.assertArrayEquals( "sharing the corners should not change the image", reference, image );
+		}
+		asr.close();
+	}
+
+	@Test
+	public void reshadingShouldMatchTheDrawCallWithTheNewMaterial()
+		throws java.io.IOException, Exception
+	{
+		final int width = 173;
+		final int height = 129;
+		CPUAlgebraicSurfaceRenderer asr = loadTutorialScene();
+		asr.setGBufferOutput( true );
+		asr.setAntiAliasingMode( CPUAlgebraicSurfaceRenderer.AntiAliasingMode.SUPERSAMPLING );
+		Material front = new Material( asr.getFrontMaterial() );
+		for( AntiAliasingPattern aap : new AntiAliasingPattern[] { AntiAliasingPattern.OG_1x1, AntiAliasingPattern.OG_4x4 } )
+		{
+			asr.setAntiAliasingPattern( aap );
+			asr.setFrontMaterial( front );
+			asr.draw( new int[ width * height ], width, height );
+			GBuffer gbuffer = asr.getGBuffer();
+			Assert.assertEquals( aap, gbuffer.getAntiAliasingPattern() );
+
+			Material changed = new Material( front );
+			changed.setColor( new javax.vecmath.Color3f( 0.2f, 0.8f, 0.3f ) );
+			changed.setShininess( 10.0f );
+			asr.setFrontMaterial( changed );
+			int[] reference = new int[ width * height ];
+			asr.draw( reference, width, height );
+
+			int[] image = new int[ width * height ];
+			asr.reshade( gbuffer, image );
+			Assert.assertEquals( "reshading should not trace any rays", 0, asr.getDrawStatistics().getRays() );
+			for( int i = 0; i < reference.length; ++i )
+				for( int shift = 0; shift < 24; shift += 8 )
+					Assert.assertTrue( "pixel " + i + " with pattern " + aap + " should have the color of the new material", Math.abs( ( ( reference[ i ] >> shift ) & 0xff ) - ( ( image[ i ] >> shift ) & 0xff ) ) <= 1 );
+			Assert.assertEquals( "the corner of the image shows the background", 0f, gbuffer.getCoverage( 0, 0 ), 0f );
+			Assert.assertEquals( "the center of the image shows the surface", 1f, gbuffer.getCoverage( width / 2, height / 2 ), 0f );
+		}
+
+		try
+		{
+			asr.reshade( asr.getGBuffer(), new int[ 1 ] );
+			Assert.fail( "a color buffer smaller than the G-buffer must be rejected" );
+		}
+		catch( IllegalArgumentException iae ) {}
+		asr.close();
+	}
+
+	@Test
+	public void polynomialBoundsShouldEncloseThePolynomial()
+		throws Exception
+	{
+		XYZPolynomial p = AlgebraicExpressionParser.parse( "x^2+y^2+z^2-1" ).accept( new Expand(), ( Void ) null );
+		PolynomialBounds bounds = new PolynomialBounds( p );
+		double[] scratch = new double[ bounds.getScratchSize() ];
+		Assert.assertTrue( "the unit sphere passes through the box", bounds.mayVanish( 0.5, 1.5, -0.1, 0.1, -0.1, 0.1, scratch ) );
+		Assert.assertFalse( "the box is inside the unit sphere", bounds.mayVanish( -0.2, 0.2, -0.2, 0.2, -0.2, 0.2, scratch ) );
+		Assert.assertFalse( "the box is outside the unit sphere", bounds.mayVanish( 1.5, 2.0, -1.0, 1.0, -3.0, -2.0, scratch ) );
+	}
+
 	@Test
 	public void XYZPolynomialAddShouldNotAffectMethodParameters()
 	{